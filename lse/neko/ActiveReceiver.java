@@ -23,7 +23,7 @@ public abstract class ActiveReceiver
     implements PullInterface, ReceiverInterface
 {
     protected NekoMessageQueue messageQueue =
-        new NekoMessageQueue();
+        NekoMessageQueue.createQueue();
 
     protected final NekoProcess process;
 
@@ -43,8 +43,23 @@ public abstract class ActiveReceiver
 
     private Object id;
 
+    /**
+     * Sets the ID of this protocol. If the config file bounds
+     * the message queue of the protocol, the queue is replaced
+     * by a bounded one; hence this method should be called
+     * before <code>launch</code>. A protocol that implements
+     * <code>OverloadListener</code> gets the messages that its queue
+     * rejects with the <code>callback</code> policy.
+     *
+     * @see NekoMessageQueue#createQueue(Object)
+     */
     public void setId(Object id) {
         this.id = id;
+        if (NekoMessageQueue.getConfiguredCapacity(id) > 0) {
+            OverloadListener listener = (this instanceof OverloadListener)
+                ? (OverloadListener) this : null;
+            messageQueue = NekoMessageQueue.createQueue(id, listener);
+        }
     }
 
     public Object getId() {
@@ -0,0 +1,323 @@
+package lse.neko;
+
+// java imports:
+import java.util.Iterator;
+import java.util.Observer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// lse.neko imports:
+import lse.neko.util.ObservableInteger;
+
+
+/**
+ * FIFO queue for NekoMessages that takes no locks.
+ * Any number of threads may put messages, but only one
+ * thread may get messages.
+ * Implemented as a linked list: producers append a node by
+ * atomically swapping the tail pointer; the consumer removes nodes
+ * at the head. A consumer that finds the queue empty parks itself,
+ * and the producer that appends the next message unparks it.
+ * <p>
+ * Only for executions on a real network:
+ * the blocking operations use real threads and real time,
+ * and thus cannot be used by simulated threads.
+ * <p>
+ * The queue can be bounded with all policies but
+ * <code>DROP_OLDEST</code>, as only the consumer may remove messages.
+ * Producers reserve room for a message by atomically incrementing
+ * the size of the queue. With the <code>BLOCK</code> policy,
+ * producers that find the queue full park themselves, and the
+ * consumer unparks one of them whenever it removes a message.
+ *
+ * @see NekoMessageQueue#createQueue
+ */
+public class ConcurrentNekoMessageQueue
+    extends NekoMessageQueue
+{
+
+    private static class Node {
+        public Node(NekoMessage message) {
+            this.message = message;
+        }
+        NekoMessage message;
+        volatile Node next;
+    }
+
+    /**
+     * The last node returned to the consumer (or a dummy node).
+     * The messages in the queue are in the nodes that follow it.
+     * Only accessed by the consumer.
+     */
+    private Node head;
+
+    /**
+     * The last node appended by a producer.
+     */
+    private final AtomicReference tail;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Maximum number of messages in the queue.
+     */
+    private volatile int capacity = Integer.MAX_VALUE;
+
+    private volatile int policy = BLOCK;
+
+    private volatile OverloadListener overloadListener = null;
+
+    /**
+     * Number of messages discarded because the queue was full.
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Producers parked in <code>put</code> because the queue is full.
+     */
+    private final ConcurrentLinkedQueue blockedSenders =
+        new ConcurrentLinkedQueue();
+
+    /**
+     * The consumer thread if it is about to park or parked,
+     * <code>null</code> otherwise.
+     */
+    private volatile Thread waiter = null;
+
+    /**
+     * The size of the queue, for observers.
+     * <code>null</code> as long as no observer is added.
+     */
+    private volatile ObservableInteger observableSize = null;
+
+    public ConcurrentNekoMessageQueue() {
+        head = new Node(null);
+        tail = new AtomicReference(head);
+    }
+
+    /**
+     * Bounds the queue. The <code>DROP_OLDEST</code> policy is not
+     * supported, and the <code>CALLBACK</code> policy needs an overload
+     * listener to be set first.
+     */
+    public void setCapacity(int capacity, int policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be > 0!");
+        }
+        if (policy < BLOCK || policy > CALLBACK) {
+            throw new IllegalArgumentException("Unknown policy " + policy);
+        }
+        if (policy == DROP_OLDEST) {
+            throw new IllegalArgumentException("Lock-free message queues "
+                                               + "cannot drop the oldest "
+                                               + "message");
+        }
+        if (policy == CALLBACK && overloadListener == null) {
+            throw new IllegalStateException("The callback policy needs "
+                                            + "an overload listener");
+        }
+        this.policy = policy;
+        this.capacity = capacity;
+        // the new capacity might leave room for the blocked senders
+        Iterator it = blockedSenders.iterator();
+        while (it.hasNext()) {
+            LockSupport.unpark((Thread) it.next());
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setOverloadListener(OverloadListener listener) {
+        overloadListener = listener;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Adds an observer of the size of the queue.
+     * Once a queue has observers, each size update and the observer
+     * update that follows it are done under the lock of the
+     * <code>ObservableInteger</code>, so that observers see the sizes
+     * in the order of the updates. Queues without observers take
+     * no locks.
+     */
+    public synchronized void addQueueSizeObserver(Observer observer,
+                                                  int queueSizeThreshold,
+                                                  boolean getsBelow)
+    {
+        if (observableSize == null) {
+            observableSize = new ObservableInteger(size.get());
+        }
+        observableSize.addObserver(observer, queueSizeThreshold, getsBelow);
+    }
+
+    /**
+     * Empties the queue.
+     * Only the consumer thread may call this method.
+     */
+    public void empty() {
+        while (poll() != null) {
+            // nothing
+        }
+    }
+
+    public int getSize() {
+        return size.get();
+    }
+
+    public void put(NekoMessage o) {
+        Node node = new Node(o);
+        // counted before it becomes visible, so that the size
+        // never drops below 0
+        while (addToSize(1) < 0) {
+            // the queue is full
+            switch (policy) {
+            case BLOCK:
+                waitForRoom();
+                break;
+            case DROP_NEWEST:
+                droppedCount.incrementAndGet();
+                return;
+            case CALLBACK:
+                OverloadListener listener = overloadListener;
+                if (listener == null) {
+                    throw new RuntimeException("Message queue capacity ("
+                                               + capacity + ") exceeded"
+                                               + " and no overload listener");
+                }
+                listener.overloaded(this, o);
+                return;
+            default:
+                throw new RuntimeException("Unknown policy " + policy);
+            }
+        }
+        Node prev = (Node) tail.getAndSet(node);
+        prev.next = node;
+        Thread t = waiter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Removes the first message, or returns <code>null</code>
+     * if the queue is empty.
+     */
+    private NekoMessage poll() {
+        Node next = head.next;
+        if (next == null) {
+            return null;
+        }
+        NekoMessage r = next.message;
+        next.message = null;
+        head = next;
+        addToSize(-1);
+        Thread blocked = (Thread) blockedSenders.peek();
+        if (blocked != null) {
+            LockSupport.unpark(blocked);
+        }
+        return r;
+    }
+
+    /**
+     * Parks the calling producer until the queue is not full.
+     */
+    private void waitForRoom() {
+        Thread current = Thread.currentThread();
+        blockedSenders.add(current);
+        try {
+            // checked after joining blockedSenders, so that
+            // the consumer cannot miss this producer
+            while (size.get() >= capacity) {
+                LockSupport.park(this);
+                // interrupts are ignored, like in NekoMessageQueue
+                Thread.interrupted();
+            }
+        } finally {
+            blockedSenders.remove(current);
+        }
+    }
+
+    /**
+     * Updates the size of the queue and the observers of the size.
+     * Returns the new size, or -1 if <code>delta</code> is positive
+     * and the queue has no room for it.
+     */
+    private int addToSize(int delta) {
+        ObservableInteger observable = observableSize;
+        if (observable == null) {
+            return updateSize(delta);
+        }
+        synchronized (observable) {
+            int newSize = updateSize(delta);
+            if (newSize >= 0) {
+                observable.set(newSize);
+            }
+            return newSize;
+        }
+    }
+
+    private int updateSize(int delta) {
+        while (true) {
+            int oldSize = size.get();
+            int newSize = oldSize + delta;
+            if (delta > 0 && newSize > capacity) {
+                return -1;
+            }
+            if (size.compareAndSet(oldSize, newSize)) {
+                return newSize;
+            }
+        }
+    }
+
+    public NekoMessage get() {
+        NekoMessage r = poll();
+        if (r != null) {
+            return r;
+        }
+        waiter = Thread.currentThread();
+        try {
+            while ((r = poll()) == null) {
+                LockSupport.park(this);
+                // interrupts are ignored, like in NekoMessageQueue
+                Thread.interrupted();
+            }
+        } finally {
+            waiter = null;
+        }
+        return r;
+    }
+
+    public NekoMessage get(double timeout) {
+        NekoMessage r = poll();
+        if (r != null || timeout <= 0) {
+            return r;
+        }
+        long deadline =
+            System.nanoTime() + (long) Math.ceil(timeout * 1000000);
+        waiter = Thread.currentThread();
+        try {
+            while ((r = poll()) == null) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, nanos);
+                if (Thread.interrupted()) {
+                    return null;
+                }
+            }
+        } finally {
+            waiter = null;
+        }
+        return r;
+    }
+
+}
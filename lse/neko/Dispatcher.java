@@ -1,15 +1,32 @@
 package lse.neko;
 
 // java imports:
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.Map;
 
+// other imports:
+import org.apache.java.util.Configurations;
+
 /**
  * This microprotocol dispatches incoming messages to the right
  * microprotocol. It is also a repository that stores microprotocols
  * of a process. Microprotocols can be looked up with their IDs.
+ * Lookups, and thus the dispatching of messages, do not take a lock.
+ * <p>
+ * Messages are delivered in the thread that calls <code>deliver</code>,
+ * usually a thread of the network. Protocols can be assigned to
+ * <i>lanes</i> in the config file: the messages of a protocol with
+ * a lane are delivered in FIFO order by the thread of the lane, so that
+ * they neither wait for nor hold up the other protocols of the process.
+ * An exception thrown by a protocol in a lane ends the thread of the
+ * lane, and is handled by its thread group, which usually shuts down
+ * the system.
  *
+ * @see #CF_LANE
  * @see NekoProcess#getDispatcher
  */
 public class Dispatcher
@@ -20,8 +37,161 @@ public class Dispatcher
     public Dispatcher() {
     }
 
-    // it is a LinkedHashMap to get always the same String from toString
-    private Map idToProtocol = new LinkedHashMap();
+    /**
+     * Config file entry for the lane of a protocol. The lane of the
+     * protocol with ID <i>id</i> is given by
+     * <code>dispatcher.lane.</code><i>id</i>. Its value is the
+     * name of the lane; protocols with the same lane name share the
+     * thread of the lane. Protocols without this entry have no lane.
+     */
+    public static final String CF_LANE = "dispatcher.lane";
+
+    /**
+     * An immutable snapshot of the registered microprotocols.
+     * Registering or removing a microprotocol publishes a new snapshot,
+     * so that messages are dispatched without taking a lock.
+     */
+    private static class Table {
+
+        public Table(Map idToProtocol, Map protocolToLane) {
+            this.idToProtocol = idToProtocol;
+            this.protocolToLane = protocolToLane;
+        }
+
+        // it is a LinkedHashMap to get always the same String from toString
+        // it is never modified once the table is published
+        final Map idToProtocol;
+
+        /**
+         * The lanes of the protocols that have one.
+         * Also never modified once the table is published.
+         */
+        final Map protocolToLane;
+
+        /**
+         * Direct mapped cache of the resolutions of hierarchical IDs
+         * that are not registered themselves. It belongs to the snapshot,
+         * so that it is discarded whenever the registrations change.
+         * Entries are immutable, thus they can be read and written
+         * without synchronization.
+         */
+        final Resolution[] cache = new Resolution[CACHE_SIZE];
+    }
+
+    private static final int CACHE_SIZE = 64;
+
+    private static class Resolution {
+
+        public Resolution(Object id, Protocol protocol) {
+            this.id = id;
+            this.protocol = protocol;
+        }
+
+        final Object id;
+        final Protocol protocol;
+    }
+
+    private volatile Table table =
+        new Table(new LinkedHashMap(), new IdentityHashMap());
+
+    /**
+     * Lanes, indexed by their name. Guarded by the lock of the
+     * dispatcher.
+     */
+    private final Map lanes = new HashMap();
+
+    /**
+     * A message waiting in a lane, with the protocol it was
+     * dispatched to.
+     */
+    private static class Delivery {
+
+        public Delivery(ReceiverInterface protocol, NekoMessage message) {
+            this.protocol = protocol;
+            this.message = message;
+        }
+
+        final ReceiverInterface protocol;
+        final NekoMessage message;
+    }
+
+    /**
+     * A thread and a queue that deliver the messages of some protocols.
+     * The thread is started when the first message arrives, and takes
+     * the process context of the thread that delivered that message.
+     */
+    private class Lane
+        implements Runnable
+    {
+
+        public Lane(String name) {
+            this.name = name;
+        }
+
+        private final String name;
+
+        private final NekoObjectInterface lock =
+            NekoSystem.instance().createObject();
+
+        /**
+         * Deliveries waiting for the thread of the lane.
+         * Guarded by <code>lock</code>.
+         */
+        private final LinkedList queue = new LinkedList();
+
+        private NekoProcess process;
+
+        private boolean started = false;
+
+        public void deliver(ReceiverInterface protocol, NekoMessage m) {
+            synchronized (lock) {
+                if (!started) {
+                    process = NekoThread.currentThread().getProcess();
+                    NekoThread thread =
+                        new NekoThread(this, "dispatcher-lane-" + name);
+                    thread.start();
+                    started = true;
+                }
+                queue.addLast(new Delivery(protocol, m));
+                if (queue.size() == 1) {
+                    lock.doNotify();
+                }
+            }
+        }
+
+        public void run() {
+            NekoThread.currentThread().setProcess(process);
+            while (true) {
+                Delivery d;
+                synchronized (lock) {
+                    while (queue.isEmpty()) {
+                        try {
+                            lock.doWait();
+                        } catch (InterruptedException ex) {
+                        }
+                    }
+                    d = (Delivery) queue.removeFirst();
+                }
+                try {
+                    d.protocol.deliver(d.message);
+                } catch (RuntimeException ex) {
+                    // reaches the handler of the thread group,
+                    // like errors in the threads of the network
+                    throw new RuntimeException("Error when delivering "
+                                               + d.message + " in lane "
+                                               + name, ex);
+                }
+            }
+        }
+    }
+
+    private static String getConfiguredLane(Object id) {
+        Configurations config = NekoSystem.instance().getConfig();
+        if (config == null) {
+            return null;
+        }
+        return config.getString(CF_LANE + "." + id, null);
+    }
 
     public synchronized void putProtocol(Object id, Protocol protocol) {
         if (id == null) {
@@ -30,7 +200,7 @@ public class Dispatcher
         if (protocol == null) {
             throw new NullPointerException("protocol should be non-null");
         }
-        Object oldProtocol = idToProtocol.put(id, protocol);
+        Object oldProtocol = table.idToProtocol.get(id);
         if (oldProtocol != null) {
             throw new RuntimeException("id already in use"
                                        + " / id = " + id
@@ -38,44 +208,92 @@ public class Dispatcher
                                        + " / new protocol = " + protocol
                                        + " in " + toString());
         }
+        Map idToProtocol = new LinkedHashMap(table.idToProtocol);
+        idToProtocol.put(id, protocol);
+        Map protocolToLane = table.protocolToLane;
+        String laneName = getConfiguredLane(id);
+        if (laneName != null) {
+            Lane lane = (Lane) lanes.get(laneName);
+            if (lane == null) {
+                lane = new Lane(laneName);
+                lanes.put(laneName, lane);
+            }
+            protocolToLane = new IdentityHashMap(protocolToLane);
+            protocolToLane.put(protocol, lane);
+        }
+        table = new Table(idToProtocol, protocolToLane);
     }
 
     public synchronized void removeProtocol(Object id) {
         if (id == null) {
             throw new NullPointerException("id should be non-null");
         }
-        Object protocol = idToProtocol.remove(id);
-        if (protocol == null) {
+        if (!table.idToProtocol.containsKey(id)) {
             throw new RuntimeException("no protocol registered for id "
                                        + id + " in " + toString());
         }
+        Map idToProtocol = new LinkedHashMap(table.idToProtocol);
+        Object protocol = idToProtocol.remove(id);
+        Map protocolToLane = table.protocolToLane;
+        if (protocolToLane.containsKey(protocol)
+            && !idToProtocol.containsValue(protocol))
+        {
+            protocolToLane = new IdentityHashMap(protocolToLane);
+            protocolToLane.remove(protocol);
+        }
+        table = new Table(idToProtocol, protocolToLane);
+    }
+
+    public Protocol getProtocol(Object id) {
+        return getProtocol(table, id);
     }
 
-    public synchronized Protocol getProtocol(Object id) {
+    private Protocol getProtocol(Table t, Object id) {
         if (id == null) {
             throw new NullPointerException("id should be non-null");
         }
-        Object idLoop = id;
+        Protocol protocol = (Protocol) t.idToProtocol.get(id);
+        if (protocol != null) {
+            return protocol;
+        }
+        if (!(id instanceof HierarchicalId)) {
+            throw new RuntimeException("no protocol registered for id "
+                                       + id + " in " + toString());
+        }
+
+        int slot = id.hashCode() & (CACHE_SIZE - 1);
+        Resolution resolution = t.cache[slot];
+        if (resolution != null && resolution.id.equals(id)) {
+            return resolution.protocol;
+        }
+
+        // if the protocol ID is hierarchical,
+        // try the lookup again with the parent ID
+        Object idLoop = ((HierarchicalId) id).getParent();
         while (true) {
-            Protocol protocol = (Protocol) idToProtocol.get(idLoop);
+            protocol = (Protocol) t.idToProtocol.get(idLoop);
             if (protocol != null) {
+                t.cache[slot] = new Resolution(id, protocol);
                 return protocol;
             }
             if (!(idLoop instanceof HierarchicalId)) {
                 throw new RuntimeException("no protocol registered for id "
                                            + id + " in " + toString());
             }
-            // if the protocol ID is hierarchical,
-            // try the lookup again with the parent ID
             idLoop = ((HierarchicalId) idLoop).getParent();
         }
     }
 
     public void deliver(NekoMessage m) {
+        Table t = table;
         try {
-            Object id = m.getProtocolId();
-            ReceiverInterface protocol = (ReceiverInterface) getProtocol(id);
-            protocol.deliver(m);
+            Protocol protocol = getProtocol(t, m.getProtocolId());
+            Lane lane = (Lane) t.protocolToLane.get(protocol);
+            if (lane != null) {
+                lane.deliver((ReceiverInterface) protocol, m);
+            } else {
+                ((ReceiverInterface) protocol).deliver(m);
+            }
         } catch (RuntimeException ex) {
             throw new RuntimeException("Error when delivering " + m, ex);
         }
@@ -87,7 +305,7 @@ public class Dispatcher
         sb.append(getId());
         // printing the idToProtocol map cannot be done with toString()
         // because this object is also in the map (and should not be printed)
-        Iterator it = idToProtocol.entrySet().iterator();
+        Iterator it = table.idToProtocol.entrySet().iterator();
         boolean first = true;
         while (it.hasNext()) {
             Map.Entry entry = (Map.Entry) it.next();
@@ -108,6 +326,7 @@ public class Dispatcher
         return sb.toString();
     }
 
+
 }
 
 
@@ -5,6 +5,7 @@ import java.io.Serializable;
 import java.util.NoSuchElementException;
 
 // lse.neko imports:
+import lse.neko.util.ProcessSets;
 import lse.neko.util.Util;
 
 
@@ -17,6 +18,12 @@ import lse.neko.util.Util;
  *
  * For communication within one process, use method calls rather than
  * NekoMessages (this is a change from previous versions of Neko).
+ *
+ * <p>
+ *
+ * The array of destinations is not copied, and it is often shared by
+ * many messages: it must not be modified after the message is
+ * constructed. {@link ProcessSets} provides shared destination sets.
  */
 public class NekoMessage
     implements Serializable
@@ -31,6 +38,18 @@ public class NekoMessage
      */
     private int[] to;
 
+    /**
+     * Bit mask of <code>to</code>, computed when first needed.
+     * <code>MASK_UNKNOWN</code> if not computed yet,
+     * <code>MASK_NONE</code> if <code>to</code> does not fit into a mask.
+     */
+    private transient long toMask = MASK_UNKNOWN;
+
+    // the mask of a nonempty set is never 0, and never -1 unless the
+    // set contains process 63 and all processes below
+    private static final long MASK_UNKNOWN = 0;
+    private static final long MASK_NONE = -1;
+
     /**
      * The ID of the destination microprotocol.
      */
@@ -85,6 +104,24 @@ public class NekoMessage
         this.to       = to;
     }
 
+    /**
+     * Constructs a new message with the destinations given as a bit
+     * mask, bit <code>i</code> standing for process <code>i</code>.
+     *
+     * @param from the ID of the sender process.
+     * @param toMask the bit mask of the destination processes.
+     * @param protocolId the ID of the destination microprotocol.
+     * @param content the content of the message. Can be any Java object.
+     * @param type the type of the message.
+     * @see ProcessSets#toMask
+     */
+    public NekoMessage(int from,
+                       long toMask, Object protocolId, Object content,
+                       int type)
+    {
+        this(from, ProcessSets.fromMask(toMask), protocolId, content, type);
+    }
+
     // FIXME: make NekoMessage immutable
     // use the process context to fill this field
     /**
@@ -122,6 +159,33 @@ public class NekoMessage
         return to;
     }
 
+    /**
+     * Returns <code>true</code> if <code>process</code>
+     * is one of the destinations.
+     */
+    public boolean isDestination(int process) {
+        if (to == null) {
+            return false;
+        }
+        long mask = toMask;
+        if (mask == MASK_UNKNOWN) {
+            // no synchronization needed: all threads compute the same value
+            mask = (to.length > 0 && ProcessSets.fitsMask(to))
+                ? ProcessSets.toMask(to)
+                : MASK_NONE;
+            toMask = mask;
+        }
+        if (mask != MASK_NONE) {
+            return ProcessSets.contains(mask, process);
+        }
+        for (int i = 0; i < to.length; i++) {
+            if (to[i] == process) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns the ID of the destination microprotocol.
      */
@@ -73,7 +73,6 @@ public class NekoMessageEvent {
         this.message = message;
     }
 
-/*
     public String getEventName() {
         return eventName;
     }
@@ -81,7 +80,6 @@ public class NekoMessageEvent {
     public NekoMessage getMessage() {
         return message;
     }
-*/
 
     private static final int STRING_BUFFER_SIZE = 500;
 
@@ -1,109 +1,225 @@
 package lse.neko;
 
+// java imports:
+import java.util.Observer;
+
+// other imports:
+import org.apache.java.util.Configurations;
+
+
 /**
  * FIFO queue for NekoMessages.
- * Implemented as a circular buffer.
+ * <p>
+ * The queue is unbounded by default. A bounded queue applies
+ * a policy when a message is put into the full queue:
+ * <code>BLOCK</code> (the sender waits for space),
+ * <code>DROP_OLDEST</code>, <code>DROP_NEWEST</code> or
+ * <code>CALLBACK</code> (the message is passed to an
+ * <code>OverloadListener</code>).
+ * Observers can be notified when the size of the queue
+ * gets above or below thresholds, to apply flow control.
+ * <p>
+ * Queues are created with <code>createQueue</code>, which picks the
+ * implementation that suits the execution mode.
+ *
+ * @see SynchronizedNekoMessageQueue
+ * @see ConcurrentNekoMessageQueue
  */
-public class NekoMessageQueue {
-    // FIXME: rely on lse.neko.util.Queue if there is no significant
-    // performance penalty. Also, move to lse.neko.util .
+public abstract class NekoMessageQueue {
 
-    public static final int DEFAULT_SIZE = 8;
-    public static final int INCREASE_FACTOR = 4;
+    /**
+     * Policy for full queues: <code>put</code> blocks until
+     * a message is removed from the queue.
+     */
+    public static final int BLOCK = 0;
 
-    private NekoMessage[] data;
+    /**
+     * Policy for full queues: the oldest message in the queue
+     * is discarded.
+     */
+    public static final int DROP_OLDEST = 1;
 
     /**
-     * Next put should be to data[tail].
+     * Policy for full queues: the message being put is discarded.
      */
-    private int tail;
+    public static final int DROP_NEWEST = 2;
 
     /**
-     * Next get should be from data[head].
+     * Policy for full queues: the message being put is passed
+     * to the overload listener instead of being queued.
      */
-    private int head;
+    public static final int CALLBACK = 3;
 
-    private NekoObjectInterface lock;
+    private static final String[] POLICY_NAMES = {
+        "block", "dropOldest", "dropNewest", "callback"
+    };
 
-    public NekoMessageQueue() {
-        lock = NekoSystem.instance().createObject();
-        empty();
+    /**
+     * Returns a new queue suitable for the current execution mode.
+     * Executions on a real network get a lock-free queue
+     * that only supports one consumer thread, simulations get a
+     * <code>SynchronizedNekoMessageQueue</code>.
+     *
+     * @see ConcurrentNekoMessageQueue
+     */
+    public static NekoMessageQueue createQueue() {
+        if (NekoSystem.instance().isSimulation()) {
+            return new SynchronizedNekoMessageQueue();
+        } else {
+            return new ConcurrentNekoMessageQueue();
+        }
     }
 
     /**
-     * Empties the queue.
+     * Config file entry for the capacity of message queues.
+     * The capacity for the protocol with ID <i>id</i> is given by
+     * <code>messageQueue.capacity.</code><i>id</i>, or, if that is
+     * missing, by <code>messageQueue.capacity</code>.
+     * 0 or a missing entry means unbounded.
      */
-    public void empty() {
-        synchronized (lock) {
-            data = new NekoMessage[DEFAULT_SIZE];
-            head = 0;
-            tail = 0;
-        }
+    public static final String CF_CAPACITY = "messageQueue.capacity";
+
+    /**
+     * Config file entry for the policy of bounded message queues:
+     * <code>block</code> (default), <code>dropOldest</code>,
+     * <code>dropNewest</code> or <code>callback</code>.
+     * Can be given per protocol ID, like <code>CF_CAPACITY</code>.
+     */
+    public static final String CF_POLICY = "messageQueue.policy";
+
+    /**
+     * Returns the queue capacity configured for a protocol,
+     * or 0 if its queue should be unbounded.
+     */
+    public static int getConfiguredCapacity(Object protocolId) {
+        Configurations config = NekoSystem.instance().getConfig();
+        return config.getInteger(CF_CAPACITY + "." + protocolId,
+                                 config.getInteger(CF_CAPACITY, 0));
     }
 
     /**
-     * Returns the number of messages in the queue.
+     * Returns a new queue for a protocol, bounded as specified
+     * in the config file. Queues that drop their oldest message
+     * are never lock-free.
+     *
+     * @see #CF_CAPACITY
+     * @see #CF_POLICY
      */
-    public int getSize() {
-        synchronized (lock) {
-            int r = tail - head;
-            if (r < 0) {
-                r += data.length;
-            }
-            return r;
-        }
+    public static NekoMessageQueue createQueue(Object protocolId) {
+        return createQueue(protocolId, null);
     }
 
     /**
-     * Puts a message into the queue.
-     * The underlying array grows if necessary.
-     * FIXME: problem: the size of that array never decreases.
-     * This is a waste of memory.
-     */
-    public void put(NekoMessage o) {
-        synchronized (lock) {
-            data[tail] = o;
-            if (head == tail) {
-                lock.doNotify();
-            }
-            tail++;
-            if (tail >= data.length) {
-                tail = 0;
-            }
-            if (tail == head) {
-                // resizing
-                NekoMessage[] newData
-                    = new NekoMessage[data.length * INCREASE_FACTOR];
-                System.arraycopy(data, head, newData, 0, data.length - head);
-                System.arraycopy(data, 0, newData, data.length - head, head);
-                head = 0;
-                tail = data.length;
-                data = newData;
+     * Returns a new queue for a protocol, bounded as specified
+     * in the config file, with an overload listener.
+     * The <code>callback</code> policy is refused if
+     * <code>listener</code> is <code>null</code>.
+     *
+     * @see #createQueue(Object)
+     */
+    public static NekoMessageQueue createQueue(Object protocolId,
+                                               OverloadListener listener)
+    {
+        int capacity = getConfiguredCapacity(protocolId);
+        if (capacity <= 0) {
+            return createQueue();
+        }
+        Configurations config = NekoSystem.instance().getConfig();
+        String policyName =
+            config.getString(CF_POLICY + "." + protocolId,
+                             config.getString(CF_POLICY, POLICY_NAMES[BLOCK]));
+        int policy = -1;
+        for (int i = 0; i < POLICY_NAMES.length; i++) {
+            if (POLICY_NAMES[i].equals(policyName)) {
+                policy = i;
             }
         }
+        if (policy < 0) {
+            throw new IllegalArgumentException("The config entry "
+                                               + CF_POLICY
+                                               + " is invalid: "
+                                               + policyName);
+        }
+        if (policy == CALLBACK && listener == null) {
+            throw new IllegalArgumentException("The config entry "
+                                               + CF_POLICY
+                                               + " is " + policyName
+                                               + " for " + protocolId
+                                               + ", which has no"
+                                               + " overload listener");
+        }
+        NekoMessageQueue queue = (policy == DROP_OLDEST)
+            ? new SynchronizedNekoMessageQueue()
+            : createQueue();
+        if (listener != null) {
+            queue.setOverloadListener(listener);
+        }
+        queue.setCapacity(capacity, policy);
+        return queue;
     }
 
+    /**
+     * Bounds the queue.
+     *
+     * @param capacity the maximum number of messages in the queue.
+     * @param policy what <code>put</code> does if the queue is full:
+     * <code>BLOCK</code>, <code>DROP_OLDEST</code>,
+     * <code>DROP_NEWEST</code> or <code>CALLBACK</code>.
+     * @throws IllegalStateException if the policy is
+     * <code>CALLBACK</code> and no overload listener is set.
+     */
+    public abstract void setCapacity(int capacity, int policy);
+
+    /**
+     * Returns the maximum number of messages in the queue.
+     * <code>Integer.MAX_VALUE</code> means unbounded.
+     */
+    public abstract int getCapacity();
+
+    /**
+     * Sets the listener that gets the messages rejected
+     * by the <code>CALLBACK</code> policy.
+     */
+    public abstract void setOverloadListener(OverloadListener listener);
+
+    /**
+     * Returns the number of messages discarded so far
+     * because the queue was full.
+     */
+    public abstract long getDroppedCount();
+
+    /**
+     * Adds an observer that is updated whenever the size of the queue
+     * gets above or below a threshold (a high or low water mark).
+     * The observer is called without holding any lock of the queue.
+     *
+     * @see lse.neko.util.ObservableInteger#addObserver
+     */
+    public abstract void addQueueSizeObserver(Observer observer,
+                                              int queueSizeThreshold,
+                                              boolean getsBelow);
+
+    /**
+     * Empties the queue.
+     */
+    public abstract void empty();
+
+    /**
+     * Returns the number of messages in the queue.
+     */
+    public abstract int getSize();
+
+    /**
+     * Puts a message into the queue.
+     * If the queue is full, the policy of the queue is applied.
+     */
+    public abstract void put(NekoMessage o);
+
     /**
      * Gets a message from the queue.
      * Blocks while the queue is empty.
      */
-    public NekoMessage get() {
-        synchronized (lock) {
-            while (head == tail) {
-                try {
-                    lock.doWait();
-                } catch (InterruptedException ex) {
-                }
-            }
-            NekoMessage r = data[head];
-            data[head] = null;
-            head++;
-            if (head >= data.length) {
-                head = 0;
-            }
-            return r;
-        }
-    }
+    public abstract NekoMessage get();
 
     /**
      * Gets a message from the queue.
@@ -114,29 +230,6 @@ public class NekoMessageQueue {
      * the behavior of Object.wait(0),
      * which is equivalent to Object.wait().
      */
-    public NekoMessage get(double timeout) {
-        synchronized (lock) {
-            if (head == tail) {
-                if (timeout > 0) {
-                    try {
-                        lock.doWait(timeout);
-                    } catch (InterruptedException ex) {
-                        return null;
-                    }
-                }
-                if (head == tail) {
-                    return null;
-                }
-            }
-            NekoMessage r = data[head];
-            data[head] = null;
-            head++;
-            if (head >= data.length) {
-                head = 0;
-            }
-            return r;
-        }
-    }
+    public abstract NekoMessage get(double timeout);
 
 }
-
@@ -179,6 +179,19 @@ public abstract class NekoSystem {
         return processes[i];
     }
 
+    /**
+     * Returns the process with ID <code>id</code> if this Java
+     * Virtual Machine manages it, <code>null</code> otherwise.
+     */
+    public NekoProcess getNekoProcessById(int id) {
+        for (int i = 0; i < processes.length; i++) {
+            if (processes[i].getID() == id) {
+                return processes[i];
+            }
+        }
+        return null;
+    }
+
     public abstract boolean isSimulation();
 
     /**
@@ -0,0 +1,17 @@
+package lse.neko;
+
+/**
+ * Gets the messages that a full <code>NekoMessageQueue</code>
+ * with the <code>CALLBACK</code> policy rejects.
+ *
+ * @see NekoMessageQueue#setOverloadListener
+ */
+public interface OverloadListener {
+
+    /**
+     * Called by the thread that tried to put the message,
+     * without holding the lock of the queue.
+     */
+    void overloaded(NekoMessageQueue queue, NekoMessage m);
+
+}
@@ -8,7 +8,26 @@ public class PullProtocol
     implements PullInterface, ReceiverInterface
 {
     protected NekoMessageQueue messageQueue =
-        new NekoMessageQueue();
+        NekoMessageQueue.createQueue();
+
+    /**
+     * Sets the ID of this protocol. If the config file bounds
+     * the message queue of the protocol, the queue is replaced
+     * by a bounded one; hence this method should be called
+     * before <code>launch</code>. A protocol that implements
+     * <code>OverloadListener</code> gets the messages that its queue
+     * rejects with the <code>callback</code> policy.
+     *
+     * @see NekoMessageQueue#createQueue(Object)
+     */
+    public void setId(Object id) {
+        super.setId(id);
+        if (NekoMessageQueue.getConfiguredCapacity(id) > 0) {
+            OverloadListener listener = (this instanceof OverloadListener)
+                ? (OverloadListener) this : null;
+            messageQueue = NekoMessageQueue.createQueue(id, listener);
+        }
+    }
 
     /**
      * Receives a message. Blocks if no message is available.
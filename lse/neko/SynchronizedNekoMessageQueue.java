@@ -0,0 +1,398 @@
+package lse.neko;
+
+// java imports:
+import java.util.Observer;
+
+// lse.neko imports:
+import lse.neko.util.ObservableInteger;
+
+
+/**
+ * FIFO queue for NekoMessages, guarded by a lock.
+ * Implemented as a circular buffer.
+ * <p>
+ * Any number of threads may put and get messages. The lock is a
+ * <code>NekoObjectInterface</code>, thus this queue can be used
+ * by simulated threads as well as real ones.
+ *
+ * @see NekoMessageQueue#createQueue
+ */
+public class SynchronizedNekoMessageQueue
+    extends NekoMessageQueue
+{
+    // FIXME: rely on lse.neko.util.Queue if there is no significant
+    // performance penalty. Also, move to lse.neko.util .
+
+    public static final int DEFAULT_SIZE = 8;
+    public static final int INCREASE_FACTOR = 4;
+
+    private NekoMessage[] data;
+
+    /**
+     * Next put should be to data[tail].
+     */
+    private int tail;
+
+    /**
+     * Next get should be from data[head].
+     */
+    private int head;
+
+    private NekoObjectInterface lock;
+
+    /**
+     * Maximum number of messages in the queue.
+     */
+    private int capacity = Integer.MAX_VALUE;
+
+    private int policy = BLOCK;
+
+    private OverloadListener overloadListener = null;
+
+    /**
+     * Number of messages discarded because the queue was full.
+     */
+    private long droppedCount = 0;
+
+    /**
+     * Number of threads blocked in <code>put</code>.
+     */
+    private int blockedSenders = 0;
+
+    /**
+     * The size of the queue, for observers.
+     * <code>null</code> as long as no observer is added.
+     */
+    private ObservableInteger observableSize = null;
+
+    /**
+     * Incremented whenever the size changes. Guarded by
+     * <code>lock</code>.
+     */
+    private long sizeVersion = 0;
+
+    /**
+     * The version of the size last passed to <code>observableSize</code>.
+     * Guarded by the lock of <code>observableSize</code>.
+     */
+    private long observedVersion = 0;
+
+    public SynchronizedNekoMessageQueue() {
+        lock = NekoSystem.instance().createObject();
+        data = new NekoMessage[DEFAULT_SIZE];
+        head = 0;
+        tail = 0;
+    }
+
+    /**
+     * Bounds the queue.
+     *
+     * @param capacity the maximum number of messages in the queue.
+     * @param policy what <code>put</code> does if the queue is full:
+     * <code>BLOCK</code>, <code>DROP_OLDEST</code>,
+     * <code>DROP_NEWEST</code> or <code>CALLBACK</code>.
+     * @throws IllegalStateException if the policy is
+     * <code>CALLBACK</code> and no overload listener is set.
+     */
+    public void setCapacity(int capacity, int policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be > 0!");
+        }
+        if (policy < BLOCK || policy > CALLBACK) {
+            throw new IllegalArgumentException("Unknown policy " + policy);
+        }
+        synchronized (lock) {
+            if (policy == CALLBACK && overloadListener == null) {
+                throw new IllegalStateException("The callback policy needs "
+                                                + "an overload listener");
+            }
+            this.capacity = capacity;
+            this.policy = policy;
+            if (blockedSenders > 0) {
+                lock.doNotifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of messages in the queue.
+     * <code>Integer.MAX_VALUE</code> means unbounded.
+     */
+    public int getCapacity() {
+        synchronized (lock) {
+            return capacity;
+        }
+    }
+
+    /**
+     * Sets the listener that gets the messages rejected
+     * by the <code>CALLBACK</code> policy.
+     */
+    public void setOverloadListener(OverloadListener listener) {
+        synchronized (lock) {
+            overloadListener = listener;
+        }
+    }
+
+    /**
+     * Returns the number of messages discarded so far
+     * because the queue was full.
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    /**
+     * Adds an observer that is updated whenever the size of the queue
+     * gets above or below a threshold (a high or low water mark).
+     * The observer is called without holding the lock of the queue.
+     *
+     * @see ObservableInteger#addObserver
+     */
+    public void addQueueSizeObserver(Observer observer,
+                                     int queueSizeThreshold,
+                                     boolean getsBelow)
+    {
+        synchronized (lock) {
+            if (observableSize == null) {
+                observableSize = new ObservableInteger(size());
+                observedVersion = sizeVersion;
+            }
+            observableSize.addObserver(observer, queueSizeThreshold,
+                                       getsBelow);
+        }
+    }
+
+    /**
+     * Passes a size to the observers. Called without holding
+     * <code>lock</code>, so concurrent calls may come in any order:
+     * sizes older than the last one passed are dropped, so that
+     * the observers are left with the current size.
+     */
+    private void setObservedSize(ObservableInteger observable,
+                                 int newSize, long version)
+    {
+        synchronized (observable) {
+            if (version < observedVersion) {
+                return;
+            }
+            observedVersion = version;
+            observable.set(newSize);
+        }
+    }
+
+    /**
+     * Empties the queue.
+     */
+    public void empty() {
+        ObservableInteger observable;
+        long version;
+        synchronized (lock) {
+            data = new NekoMessage[DEFAULT_SIZE];
+            head = 0;
+            tail = 0;
+            if (blockedSenders > 0) {
+                lock.doNotifyAll();
+            }
+            observable = observableSize;
+            version = ++sizeVersion;
+        }
+        if (observable != null) {
+            setObservedSize(observable, 0, version);
+        }
+    }
+
+    /**
+     * Returns the number of messages in the queue.
+     */
+    public int getSize() {
+        synchronized (lock) {
+            return size();
+        }
+    }
+
+    /**
+     * Returns the number of messages in the queue.
+     * The caller holds the lock.
+     */
+    private int size() {
+        int r = tail - head;
+        if (r < 0) {
+            r += data.length;
+        }
+        return r;
+    }
+
+    /**
+     * Puts a message into the queue.
+     * The underlying array grows if necessary.
+     * If the queue is full, the policy of the queue is applied.
+     * FIXME: problem: the size of that array never decreases.
+     * This is a waste of memory.
+     */
+    public void put(NekoMessage o) {
+        NekoMessage rejected = null;
+        OverloadListener listener = null;
+        ObservableInteger observable;
+        long version;
+        int newSize;
+        synchronized (lock) {
+            if (size() >= capacity) {
+                switch (policy) {
+                case BLOCK:
+                    blockedSenders++;
+                    try {
+                        while (size() >= capacity) {
+                            try {
+                                lock.doWait();
+                            } catch (InterruptedException ex) {
+                            }
+                        }
+                    } finally {
+                        blockedSenders--;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    removeFirst();
+                    droppedCount++;
+                    break;
+                case DROP_NEWEST:
+                    droppedCount++;
+                    return;
+                case CALLBACK:
+                    rejected = o;
+                    listener = overloadListener;
+                    break;
+                default:
+                    throw new RuntimeException("Unknown policy " + policy);
+                }
+            }
+            if (rejected == null) {
+                add(o);
+            }
+            newSize = size();
+            observable = observableSize;
+            version = ++sizeVersion;
+        }
+        if (rejected != null) {
+            if (listener == null) {
+                throw new RuntimeException("Message queue capacity ("
+                                           + capacity + ") exceeded"
+                                           + " and no overload listener");
+            }
+            listener.overloaded(this, rejected);
+        } else if (observable != null) {
+            setObservedSize(observable, newSize, version);
+        }
+    }
+
+    /**
+     * Appends a message. The caller holds the lock.
+     */
+    private void add(NekoMessage o) {
+        data[tail] = o;
+        if (head == tail) {
+            lock.doNotify();
+        }
+        tail++;
+        if (tail >= data.length) {
+            tail = 0;
+        }
+        if (tail == head) {
+            // resizing
+            NekoMessage[] newData
+                = new NekoMessage[data.length * INCREASE_FACTOR];
+            System.arraycopy(data, head, newData, 0, data.length - head);
+            System.arraycopy(data, 0, newData, data.length - head, head);
+            head = 0;
+            tail = data.length;
+            data = newData;
+        }
+    }
+
+    /**
+     * Removes the first message. The queue must not be empty.
+     * The caller holds the lock.
+     */
+    private NekoMessage removeFirst() {
+        NekoMessage r = data[head];
+        data[head] = null;
+        head++;
+        if (head >= data.length) {
+            head = 0;
+        }
+        if (blockedSenders > 0) {
+            // more than one thread might wait on lock
+            lock.doNotifyAll();
+        }
+        return r;
+    }
+
+    /**
+     * Gets a message from the queue.
+     * Blocks while the queue is empty.
+     */
+    public NekoMessage get() {
+        NekoMessage r;
+        ObservableInteger observable;
+        long version;
+        int newSize;
+        synchronized (lock) {
+            while (head == tail) {
+                try {
+                    lock.doWait();
+                } catch (InterruptedException ex) {
+                }
+            }
+            r = removeFirst();
+            newSize = size();
+            observable = observableSize;
+            version = ++sizeVersion;
+        }
+        if (observable != null) {
+            setObservedSize(observable, newSize, version);
+        }
+        return r;
+    }
+
+    /**
+     * Gets a message from the queue.
+     * Blocks while the queue is empty,
+     * but returns null if the time spent waiting exceeds the timeout.
+     * Negative and 0 timeouts make get return immediately.
+     * Note that this behavior is different from
+     * the behavior of Object.wait(0),
+     * which is equivalent to Object.wait().
+     */
+    public NekoMessage get(double timeout) {
+        NekoMessage r;
+        ObservableInteger observable;
+        long version;
+        int newSize;
+        synchronized (lock) {
+            if (head == tail) {
+                if (timeout > 0) {
+                    try {
+                        lock.doWait(timeout);
+                    } catch (InterruptedException ex) {
+                        return null;
+                    }
+                }
+                if (head == tail) {
+                    return null;
+                }
+            }
+            r = removeFirst();
+            newSize = size();
+            observable = observableSize;
+            version = ++sizeVersion;
+        }
+        if (observable != null) {
+            setObservedSize(observable, newSize, version);
+        }
+        return r;
+    }
+
+}
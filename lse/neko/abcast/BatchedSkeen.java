@@ -0,0 +1,389 @@
+package lse.neko.abcast;
+
+// java imports:
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// lse.neko imports:
+import lse.neko.MessageTypes;
+import lse.neko.NekoMessage;
+import lse.neko.NekoProcess;
+import lse.neko.ProtocolImpl;
+import lse.neko.ReceiverInterface;
+import lse.neko.SenderInterface;
+import lse.neko.UnexpectedMessageException;
+import lse.neko.util.GUID;
+
+
+/**
+ * Skeen's algorithm for total order, with the messages of each
+ * sender ordered in batches.
+ *
+ * <p>Each message gets its final timestamp as in {@link Skeen}, but
+ * the messages exchanged are per batch rather than per message. The
+ * sender sends the messages of a batch in one BATCH_START message.
+ * Each destination answers with the timestamps it proposes for all
+ * messages of the batch, in one BATCH_PROPOSALS message. The sender
+ * then sends the final timestamps of the batch as one vector, in a
+ * BATCH_TIMESTAMPS message.</p>
+ *
+ * <p>Batches are pipelined: a sender has at most
+ * <code>maxInFlight</code> batches without final timestamps. A
+ * message is sent in a batch of its own right away if possible;
+ * otherwise it waits for a batch to complete, and is sent together
+ * with the other waiting messages with the same destinations, up to
+ * <code>maxBatchSize</code> messages per batch. Thus batches only
+ * grow under load.</p>
+ *
+ * <p>Messages waiting for their final timestamp are kept in a
+ * {@link PendingQueue}. Messages are delivered outside the lock,
+ * in the order in which they became deliverable.</p>
+ */
+public class BatchedSkeen
+    extends ProtocolImpl
+    implements SenderInterface, ReceiverInterface
+{
+
+    protected static final int BATCH_START = 33;
+    protected static final int BATCH_PROPOSALS = 34;
+    protected static final int BATCH_TIMESTAMPS = 35;
+
+    static {
+        MessageTypes.instance().register(BATCH_START, "BATCH_START");
+        MessageTypes.instance().register(BATCH_PROPOSALS, "BATCH_PROPOSALS");
+        MessageTypes.instance().register(BATCH_TIMESTAMPS,
+                                         "BATCH_TIMESTAMPS");
+    }
+
+    private final Object lock = new Object();
+
+    private final NekoProcess process;
+
+    private final int maxBatchSize;
+    private final int maxInFlight;
+
+    /* sender state */
+
+    /**
+     * Messages waiting to be sent, one Outgoing per set of
+     * destinations.
+     */
+    private final List outgoing = new ArrayList();
+
+    /**
+     * Batches sent whose final timestamps are not known yet:
+     * GUIDs of batches to Batches.
+     */
+    private final Map batches = new HashMap();
+
+    /* destination state */
+
+    /**
+     * Lamport clock for the process.
+     */
+    private final LamportClock clock = new LamportClock();
+
+    /**
+     * IDs of the messages of the batches received whose final
+     * timestamps are not known yet: GUIDs of batches to GUID[].
+     */
+    private final Map batchIds = new HashMap();
+
+    private final PendingQueue received = new PendingQueue();
+
+    /**
+     * Messages found deliverable, and the messages being delivered.
+     * The two lists are swapped for each round of deliveries.
+     */
+    private ArrayList deliverable = new ArrayList();
+    private ArrayList delivering = new ArrayList();
+
+    private boolean isDelivering = false;
+
+    /**
+     * Creates an instance.
+     *
+     * @param maxBatchSize largest number of messages in a batch.
+     * @param maxInFlight largest number of batches of this process
+     *        without final timestamps.
+     */
+    public BatchedSkeen(NekoProcess process,
+                        int maxBatchSize,
+                        int maxInFlight)
+    {
+        if (maxBatchSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.process = process;
+        this.maxBatchSize = maxBatchSize;
+        this.maxInFlight = maxInFlight;
+    }
+
+    private SenderInterface sender;
+
+    public void setSender(SenderInterface sender) {
+        this.sender = sender;
+    }
+
+    private ReceiverInterface receiver;
+
+    public void setReceiver(ReceiverInterface receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Messages of a sender waiting to be sent to the same destinations.
+     */
+    private static class Outgoing {
+
+        final int[] destinations;
+        List messages = new ArrayList();
+
+        Outgoing(int[] destinations) {
+            this.destinations = destinations;
+        }
+    }
+
+    /**
+     * A batch sent, waiting for the proposed timestamps.
+     */
+    private static class Batch {
+
+        final int[] destinations;
+        final int[] timestamps;
+        int expected;
+
+        Batch(int[] destinations, int size) {
+            this.destinations = destinations;
+            timestamps = new int[size];
+            Arrays.fill(timestamps, Integer.MIN_VALUE);
+            expected = destinations.length;
+        }
+    }
+
+    public void send(NekoMessage m) {
+
+        List toSend = new ArrayList();
+        synchronized (lock) {
+            int[] destinations = m.getDestinations();
+            Outgoing o = null;
+            for (int i = 0; i < outgoing.size() && o == null; i++) {
+                Outgoing other = (Outgoing) outgoing.get(i);
+                if (Arrays.equals(other.destinations, destinations)) {
+                    o = other;
+                }
+            }
+            if (o == null) {
+                o = new Outgoing(destinations);
+                outgoing.add(o);
+            }
+            o.messages.add(new ContentSKEEN(m.getProtocolId(),
+                                            m.getContent(),
+                                            m.getType(),
+                                            new GUID(process)));
+            startBatches(toSend);
+        }
+        sendAll(toSend);
+    }
+
+    /**
+     * Starts batches of waiting messages while the pipeline is not
+     * full. The messages to send are added to <code>toSend</code>.
+     */
+    private void startBatches(List toSend) {
+        while (batches.size() < maxInFlight && !outgoing.isEmpty()) {
+            // take turns among the sets of destinations
+            Outgoing o = (Outgoing) outgoing.remove(0);
+            List messages = o.messages;
+            if (messages.size() > maxBatchSize) {
+                o.messages =
+                    new ArrayList(messages.subList(maxBatchSize,
+                                                   messages.size()));
+                messages = messages.subList(0, maxBatchSize);
+                outgoing.add(o);
+            }
+            ContentSKEEN[] contents = (ContentSKEEN[])
+                messages.toArray(new ContentSKEEN[messages.size()]);
+            GUID batchId = new GUID(process);
+            batches.put(batchId, new Batch(o.destinations, contents.length));
+            toSend.add(new NekoMessage(o.destinations,
+                                       getId(),
+                                       new Start(batchId, contents),
+                                       BATCH_START));
+        }
+    }
+
+    private void sendAll(List toSend) {
+        for (int i = 0; i < toSend.size(); i++) {
+            sender.send((NekoMessage) toSend.get(i));
+        }
+    }
+
+    public void deliver(NekoMessage m) {
+
+        List toSend = new ArrayList();
+        boolean doDelivery = false;
+
+        synchronized (lock) {
+            switch (m.getType()) {
+
+            case BATCH_START: {
+                Start start = (Start) m.getContent();
+                ContentSKEEN[] contents = start.getMessages();
+                GUID[] ids = new GUID[contents.length];
+                int[] proposals = new int[contents.length];
+                for (int i = 0; i < contents.length; i++) {
+                    ContentSKEEN content = contents[i];
+                    ids[i] = content.getId();
+                    proposals[i] = clock.getValue();
+                    received.add(ids[i],
+                                 new NekoMessage(m.getSource(),
+                                                 m.getDestinations(),
+                                                 content.getProtocolId(),
+                                                 content.getContent(),
+                                                 content.getType()),
+                                 proposals[i]);
+                    clock.update();
+                }
+                batchIds.put(start.getBatchId(), ids);
+                toSend.add(new NekoMessage(new int[] { m.getSource() },
+                                           getId(),
+                                           new Timestamps(start.getBatchId(),
+                                                          proposals),
+                                           BATCH_PROPOSALS));
+                break;
+            }
+
+            case BATCH_PROPOSALS: {
+                Timestamps proposals = (Timestamps) m.getContent();
+                Batch batch = (Batch) batches.get(proposals.getBatchId());
+                int[] t = proposals.getTimestamps();
+                for (int i = 0; i < t.length; i++) {
+                    if (batch.timestamps[i] < t[i]) {
+                        batch.timestamps[i] = t[i];
+                    }
+                }
+                batch.expected--;
+                if (batch.expected == 0) {
+                    batches.remove(proposals.getBatchId());
+                    toSend.add(new NekoMessage(batch.destinations,
+                                               getId(),
+                                               new Timestamps(proposals
+                                                              .getBatchId(),
+                                                              batch
+                                                              .timestamps),
+                                               BATCH_TIMESTAMPS));
+                    startBatches(toSend);
+                }
+                break;
+            }
+
+            case BATCH_TIMESTAMPS: {
+                Timestamps timestamps = (Timestamps) m.getContent();
+                GUID[] ids = (GUID[]) batchIds.remove(timestamps.getBatchId());
+                int[] t = timestamps.getTimestamps();
+                int max = Integer.MIN_VALUE;
+                for (int i = 0; i < t.length; i++) {
+                    received.stamp(ids[i], t[i]);
+                    max = Math.max(max, t[i]);
+                }
+                clock.update(max);
+
+                NekoMessage first;
+                while ((first = received.removeFirstStamped()) != null) {
+                    deliverable.add(first);
+                }
+                if (!isDelivering && !deliverable.isEmpty()) {
+                    isDelivering = true;
+                    doDelivery = true;
+                }
+                break;
+            }
+
+            default:
+                throw new UnexpectedMessageException(m);
+            }
+        }
+
+        sendAll(toSend);
+
+        if (doDelivery) {
+            while (true) {
+                ArrayList batch;
+                synchronized (lock) {
+                    if (deliverable.isEmpty()) {
+                        isDelivering = false;
+                        break;
+                    }
+                    batch = deliverable;
+                    deliverable = delivering;
+                    delivering = batch;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    receiver.deliver((NekoMessage) batch.get(i));
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Content of BATCH_START messages: the messages of a batch.
+     */
+    public static class Start implements Serializable {
+
+        private final GUID batchId;
+        private final ContentSKEEN[] messages;
+
+        public Start(GUID batchId, ContentSKEEN[] messages) {
+            this.batchId = batchId;
+            this.messages = messages;
+        }
+
+        public GUID getBatchId() {
+            return batchId;
+        }
+
+        public ContentSKEEN[] getMessages() {
+            return messages;
+        }
+
+        public String toString() {
+            return "Start[" + batchId + ", " + Arrays.asList(messages) + "]";
+        }
+    }
+
+    /**
+     * Content of BATCH_PROPOSALS and BATCH_TIMESTAMPS messages:
+     * a timestamp for each message of a batch, in the order of the
+     * batch.
+     */
+    public static class Timestamps implements Serializable {
+
+        private final GUID batchId;
+        private final int[] timestamps;
+
+        public Timestamps(GUID batchId, int[] timestamps) {
+            this.batchId = batchId;
+            this.timestamps = timestamps;
+        }
+
+        public GUID getBatchId() {
+            return batchId;
+        }
+
+        public int[] getTimestamps() {
+            return timestamps;
+        }
+
+        public String toString() {
+            return "Timestamps[" + batchId + ", "
+                + ContentID.printIntArray(timestamps) + "]";
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package lse.neko.abcast;
+
+// lse.neko imports:
+import lse.neko.NekoProcess;
+import lse.neko.NekoSystem;
+import lse.neko.ReceiverInterface;
+import lse.neko.SenderInterface;
+
+// other imports:
+import org.apache.java.util.Configurations;
+
+
+public class BatchedSkeenInitializer
+    implements ABCastInitializer
+{
+
+    /**
+     * Config file entry for the largest number of messages in a batch.
+     */
+    public static final String CF_MAX_BATCH_SIZE =
+        "BatchedSkeen.maxBatchSize";
+
+    /**
+     * Config file entry for the largest number of batches of a
+     * process without final timestamps.
+     */
+    public static final String CF_MAX_IN_FLIGHT = "BatchedSkeen.maxInFlight";
+
+    public void createDeliverer(NekoProcess process) {
+        createSender(process);
+    }
+
+    public SenderInterface createSender(NekoProcess process) {
+        Configurations config = NekoSystem.instance().getConfig();
+        SenderInterface net = process.getDefaultNetwork();
+        abcast = new BatchedSkeen(process,
+                                  config.getInteger(CF_MAX_BATCH_SIZE, 64),
+                                  config.getInteger(CF_MAX_IN_FLIGHT, 4));
+        abcast.setSender(net);
+        final Object abcastId = "abcast";
+        abcast.setId(abcastId);
+        abcast.launch();
+        return abcast;
+    }
+
+    public SenderInterface createSenderDeliverer(NekoProcess process) {
+        return createSender(process);
+    }
+
+    private BatchedSkeen abcast;
+
+    public void setReceiver(ReceiverInterface receiver) {
+        abcast.setReceiver(receiver);
+    }
+}
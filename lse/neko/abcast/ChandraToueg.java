@@ -1,7 +1,6 @@
 package lse.neko.abcast;
 
 // java imports:
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -9,8 +8,6 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Observer;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,10 +19,10 @@ import lse.neko.NekoSystem;
 import lse.neko.ReceiverInterface;
 import lse.neko.UnexpectedMessageException;
 import lse.neko.consensus.ConsensusInterface;
-import lse.neko.consensus.ConsensusValue;
 import lse.neko.consensus.DecisionListener;
 import lse.neko.networks.QueueSizeObservable;
 import lse.neko.util.ContentRB;
+import lse.neko.util.IntWindowMap;
 import lse.neko.util.ObservableInteger;
 import lse.neko.util.logging.NekoLogger;
 
@@ -34,6 +31,15 @@ import lse.neko.util.logging.NekoLogger;
  * A variant of the Chandra-Toueg atomic broadcast.
  * Consensus is not on vectors of messages,
  * but on vectors of message identifiers.
+ *
+ * <p>If the pipeline depth is above 1, up to that many consensus
+ * instances run at the same time. Each process proposes disjoint
+ * batches of identifiers to the instances in flight, sized so that
+ * a full pipeline covers the outgoing queue. As a proposal may be
+ * made before the previous instances have been decided, a decision
+ * may repeat identifiers of the decisions of the previous instances
+ * in flight; these are skipped when delivering, in the order of the
+ * instances. All processes must use the same pipeline depth.</p>
  */
 public class ChandraToueg
     extends ChandraTouegClient
@@ -65,6 +71,27 @@ public class ChandraToueg
     // the TerminatingChandraToueg subclass
     Set aUnordered = new LinkedHashSet();
 
+    /**
+     * IDs in aUnordered that are not in a proposal of this process
+     * to a consensus in flight. Only used in pipelined mode.
+     */
+    private Set aUnproposed = new LinkedHashSet();
+
+    /**
+     * Proposals of this process to the consensus in flight: consensus
+     * numbers to arrays of IDs. Only used in pipelined mode.
+     */
+    private IntWindowMap proposals = new IntWindowMap();
+
+    /**
+     * IDs in the last <code>pipelineDepth</code> decisions
+     * delivered, and the decisions themselves, indexed by
+     * consensus number modulo <code>pipelineDepth</code>.
+     * Only used in pipelined mode.
+     */
+    private Set recentlyDelivered = new HashSet();
+    private Object[][] recentDecisions;
+
     public ChandraToueg(NekoProcess process,
                         ConsensusInterface cons)
     {
@@ -74,6 +101,13 @@ public class ChandraToueg
             getInteger("ChandraToueg.proposal.max.size", Integer.MAX_VALUE);
         bufferMaxSize = NekoSystem.instance().getConfig().
             getInteger("ChandraToueg.buffer.max.size", Integer.MAX_VALUE);
+        pipelineDepth = NekoSystem.instance().getConfig().
+            getInteger("ChandraToueg.pipeline.depth", 1);
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("Invalid pipeline depth "
+                                               + pipelineDepth);
+        }
+        recentDecisions = new Object[pipelineDepth][];
     }
 
     private ReceiverInterface receiver;
@@ -110,33 +144,29 @@ public class ChandraToueg
 
     private void aDeliver() {
 
-        Iterator it = decisions.iterator();
-
-    delivery:
-        while (it.hasNext()) {
-
-            ConsensusValue decision = (ConsensusValue) it.next();
-            if (decision.getNumber() > nextConsensusId) {
+        while (true) {
 
+            Object[] ids = (Object[]) decisions.get(nextConsensusId);
+            if (ids == null) {
                 // decision of future consensus
-                break delivery;
-
-            } else if (decision.getNumber() < nextConsensusId) {
-                throw new RuntimeException("assertion failed: "
-                                           + "decision.getNumber() >= "
-                                           + "nextConsensusId");
+                break;
             }
 
-            Object[] ids = (Object[]) decision.getValue();
             for (; nextToBeDelivered < ids.length; nextToBeDelivered++) {
                 Object id = ids[nextToBeDelivered];
 
+                // skip the IDs decided by a previous consensus
+                if (recentlyDelivered.contains(id)) {
+                    aOrdered.remove(id);
+                    continue;
+                }
+
                 // check if the message with this id
                 // has already been received.
                 // if not, quit delivering.
                 NekoMessage m = (NekoMessage) aUndelivered.get(id);
                 if (m == null) {
-                    break delivery;
+                    break;
                 }
 
                 ContentRB content = (ContentRB) m.getContent();
@@ -155,10 +185,27 @@ public class ChandraToueg
 
                 aUndelivered.remove(id);
                 aOrdered.remove(id);
+                if (pipelineDepth > 1) {
+                    recentlyDelivered.add(id);
+                }
                 updateQueueSize();
             }
+            if (nextToBeDelivered < ids.length) {
+                break;
+            }
+
+            if (pipelineDepth > 1) {
+                int slot = nextConsensusId % pipelineDepth;
+                Object[] old = recentDecisions[slot];
+                if (old != null) {
+                    for (int i = 0; i < old.length; i++) {
+                        recentlyDelivered.remove(old[i]);
+                    }
+                }
+                recentDecisions[slot] = ids;
+            }
 
-            it.remove();
+            decisions.remove(nextConsensusId);
             nextToBeDelivered = 0;
             nextConsensusId++;
         }
@@ -173,7 +220,9 @@ public class ChandraToueg
             });
         }
 
-        if (nextDecision >= nextProposal && aUnordered.size() != 0) {
+        if (pipelineDepth > 1) {
+            proposePipelined();
+        } else if (nextDecision >= nextProposal && aUnordered.size() != 0) {
             //Object[] proposal = aUnordered.toArray();
             Object[] proposal;
             if (aUnordered.size() <= proposalMaxSize) {
@@ -201,33 +250,60 @@ public class ChandraToueg
 
     }
 
-    private int proposalMaxSize;
-    private int bufferMaxSize;
-
     /**
-     * Decisions of consensus.
+     * Proposes batches of unproposed IDs to consensus while fewer than
+     * <code>pipelineDepth</code> consensus are in flight. The batch
+     * size is the outgoing queue size divided by the pipeline depth,
+     * so that small loads are ordered by many small consensus and
+     * large loads by a few large ones.
      */
-    private SortedSet decisions =
-        new TreeSet(new ConsensusValueComparator());
+    private void proposePipelined() {
 
-    private static class ConsensusValueComparator
-        implements Comparator
-    {
-        /**
-         * We exploit that 0 == compare(o1, o2) implies o1 == o2
-         * in the algorithm! That's why we can use a Set.
-         */
-        public int compare(Object o1, Object o2) {
-            ConsensusValue left = (ConsensusValue) o1;
-            ConsensusValue right = (ConsensusValue) o2;
-            return left.getNumber() - right.getNumber();
-        }
+        int batchSize = (getOutgoingQueueSize() + pipelineDepth - 1)
+            / pipelineDepth;
+        batchSize = Math.max(1, Math.min(batchSize, proposalMaxSize));
+
+        while (nextProposal < nextDecision + pipelineDepth
+               && !aUnproposed.isEmpty())
+        {
+            Object[] proposal;
+            if (nextProposal < nextConsensusId
+                || decisions.containsKey(nextProposal))
+            {
+                // already decided, the proposal does not matter
+                proposal = new Object[0];
+            } else {
+                proposal =
+                    new Object[Math.min(batchSize, aUnproposed.size())];
+                Iterator iter = aUnproposed.iterator();
+                for (int i = 0; i < proposal.length; i++) {
+                    proposal[i] = iter.next();
+                    iter.remove();
+                }
+                proposals.put(nextProposal, proposal);
+            }
 
-        public boolean equals(Object o1, Object o2) {
-            return 0 == compare(o1, o2);
+            logger.log(Level.FINE, "proposing ", proposal);
+            cons.propose(proposal);
+            nextProposal++;
         }
+
     }
 
+    private int proposalMaxSize;
+    private int bufferMaxSize;
+
+    /**
+     * Largest number of consensus in flight.
+     */
+    private int pipelineDepth;
+
+    /**
+     * Decisions of consensus that have not been delivered yet:
+     * consensus numbers to arrays of IDs.
+     */
+    private IntWindowMap decisions = new IntWindowMap();
+
     public void deliver(NekoMessage m) {
 
         logger.log(Level.FINE, "deliver ", m);
@@ -247,6 +323,9 @@ public class ChandraToueg
                 aUndelivered.put(content.getId(), m);
                 if (!aOrdered.contains(content.getId())) {
                     aUnordered.add(content.getId());
+                    if (pipelineDepth > 1) {
+                        aUnproposed.add(content.getId());
+                    }
                 }
                 updateQueueSize();
                 if (aUndelivered.size() > bufferMaxSize
@@ -281,26 +360,33 @@ public class ChandraToueg
      */
     public synchronized void notifyDecision(int k, Object decision) {
 
-        ConsensusValue consensusResult =
-            new ConsensusValue(k, decision);
-
-        decisions.add(consensusResult);
+        Object[] ids = (Object[]) decision;
+        decisions.put(k, ids);
 
-        SortedSet d = decisions.tailSet(consensusResult);
-        Iterator it = d.iterator();
-        while (it.hasNext()) {
-            ConsensusValue v = (ConsensusValue) it.next();
-            if (v.getNumber() == nextDecision) {
-                nextDecision++;
-            } else {
-                break;
-            }
+        while (decisions.containsKey(nextDecision)) {
+            nextDecision++;
         }
 
-        Object[] ids = (Object[]) consensusResult.getValue();
         for (int i = 0; i < ids.length; i++) {
             aUnordered.remove(ids[i]);
-            aOrdered.add(ids[i]);
+            if (!recentlyDelivered.contains(ids[i])) {
+                aOrdered.add(ids[i]);
+            }
+        }
+
+        if (pipelineDepth > 1) {
+            for (int i = 0; i < ids.length; i++) {
+                aUnproposed.remove(ids[i]);
+            }
+            // IDs of our proposal not decided yet are proposed again
+            Object[] proposal = (Object[]) proposals.remove(k);
+            if (proposal != null) {
+                for (int i = 0; i < proposal.length; i++) {
+                    if (aUnordered.contains(proposal[i])) {
+                        aUnproposed.add(proposal[i]);
+                    }
+                }
+            }
         }
         updateQueueSize();
 
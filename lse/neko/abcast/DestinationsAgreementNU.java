@@ -3,10 +3,7 @@ package lse.neko.abcast;
 // java imports:
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 // lse.neko imports:
 import lse.neko.MessageTypes;
@@ -45,15 +42,10 @@ public class DestinationsAgreementNU
      */
     private Map idToTimestamps;
 
-    /**
-     * Map from IDs to Elements.
-     */
-    private Map idToElement;
-
     /**
      * The set of received messages.
      */
-    private SortedSet received;
+    private PendingQueue received;
 
     /**
      * Lamport clock for the process.
@@ -84,8 +76,7 @@ public class DestinationsAgreementNU
     public DestinationsAgreementNU(NekoProcess process) {
         this.process = process;
         idToTimestamps = new HashMap();
-        idToElement = new HashMap();
-        received = new TreeSet();
+        received = new PendingQueue();
         clock = new LamportClock();
     } // end constructor
 
@@ -155,15 +146,13 @@ public class DestinationsAgreementNU
         case START_SKEEN:
             ContentSKEEN content = (ContentSKEEN) m.getContent();
             GUID id2 = content.getId();
-            Element element =
-                new Element(new NekoMessage(m.getSource(),
-                                            m.getDestinations(),
-                                            content.getProtocolId(),
-                                            content.getContent(),
-                                            content.getType()),
-                            clock.getValue(), id2);
-            idToElement.put(content.getId(), element);
-            received.add(element);
+            received.add(id2,
+                         new NekoMessage(m.getSource(),
+                                         m.getDestinations(),
+                                         content.getProtocolId(),
+                                         content.getContent(),
+                                         content.getType()),
+                         clock.getValue());
 
             // Response from the receiver to the sender of the original Message
             // for calculation of the sequence number
@@ -182,18 +171,10 @@ public class DestinationsAgreementNU
             ContentDeliver contentID1 = (ContentDeliver) m.getContent();
             int timestamp = contentID1.getTimestamp();
             clock.update(timestamp);
-            Element element2 = (Element) idToElement.get(contentID1.getId());
-            received.remove(element2);
-            element2.stamp(timestamp);
-            received.add(element2);
-            Iterator it = received.iterator();
-            while (it.hasNext()) {
-                Element e = (Element) it.next();
-                if (!e.getStamped()) {
-                    break;
-                }
-                it.remove();
-                receiver.deliver(e.getMessage());
+            received.stamp(contentID1.getId(), timestamp);
+            NekoMessage first;
+            while ((first = received.removeFirstStamped()) != null) {
+                receiver.deliver(first);
             } // end while
             break;
 
@@ -205,62 +186,6 @@ public class DestinationsAgreementNU
 
     /* Required Functions and Classes */
 
-    /**
-     * Container class for algorithmic data to be exchanged over the network
-     * Element contains message, timestamp, guid and boolean indicator of
-     * whether the message is stamped or not.
-     *
-     * @author Arindam Chakraborty
-     */
-
-    public static class Element implements Serializable, Comparable {
-
-        private NekoMessage message;
-        private int timestamp;
-        private GUID id;
-        private boolean stamped;
-
-        public Element(NekoMessage message, int timestamp, GUID id) {
-            this.message = message;
-            this.timestamp = timestamp;
-            this.id = id;
-            stamped = false;
-        } // end constructor
-
-        public NekoMessage getMessage() {
-            return message;
-        } // end getMessage
-
-        public int getTimestamp() {
-            return timestamp;
-        } // end getTimestamp
-
-        public GUID getId() {
-            return id;
-        } // end getId
-
-        public boolean getStamped() {
-            return stamped;
-        } // end getStamped
-
-        public void stamp(int newTimestamp) {
-            stamped = true;
-            this.timestamp = newTimestamp;
-        } // end stamped
-
-        public int compareTo(Object right) {
-            Element r = (Element) right;
-            if (timestamp != r.timestamp) {
-                return (timestamp < r.timestamp) ? -1 : +1;
-            } else if (stamped != r.stamped) {
-                return (r.stamped) ? -1 : +1;
-            } else {
-                return id.compareTo(r.id);
-            }
-        } // end compareTo
-
-    } // end class Element
-
     /**
      * Timestamp class for time data to be exchanged over the network.
      *
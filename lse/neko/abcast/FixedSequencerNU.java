@@ -2,7 +2,11 @@ package lse.neko.abcast;
 
 // java imports:
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.logging.Level;
@@ -27,6 +31,14 @@ import lse.neko.util.logging.NekoLogger;
  * processes and not a separate sequencer.<br>
  * 2) the destination group is constant and includes all.</p>
  *
+ * <p>In batching mode, the sequencer does not send one SEND_SEQNUM
+ * message per message. It sends the messages waiting for a sequence
+ * number in one SEND_BATCH message, with a contiguous range of
+ * sequence numbers. At most <code>maxInFlight</code> batches are in
+ * flight; a batch is no longer in flight once the sequencer receives
+ * it. Messages arriving meanwhile wait for the next batch, thus
+ * batches grow with the load without adding latency at low load.</p>
+ *
  * <p>Algorithm details :<br>
  * Page 151 of "Agreement-Related Problems: From Semi-passive<br>
  * Replication To Totally Ordered Broadcast" Xavier Defago</p>
@@ -71,6 +83,29 @@ public class FixedSequencerNU
     protected int sequencer;
     protected int[] toSequencer;
 
+    /**
+     * Largest number of messages in a batch, or 0 if batching
+     * is disabled.
+     */
+    protected final int maxBatchSize;
+
+    /**
+     * Largest number of batches in flight.
+     */
+    protected final int maxInFlight;
+
+    /**
+     * Messages waiting for a sequence number at the sequencer,
+     * in batching mode.
+     */
+    protected List unordered = new ArrayList();
+
+    /**
+     * Last sequence numbers of the batches in flight, as Integers,
+     * in increasing order.
+     */
+    protected LinkedList inFlight = new LinkedList();
+
     /*
      * Message IDs local to the algorithm.
      */
@@ -79,16 +114,20 @@ public class FixedSequencerNU
     // remember to remove them from the MemberName CheckStyle rule
     protected final int GET_SEQNUM = getMessageTypeGetSeqNum();
     protected final int SEND_SEQNUM = getMessageTypeSendSeqNum();
+    protected final int SEND_BATCH = getMessageTypeSendBatch();
 
     protected int getMessageTypeGetSeqNum() { return NU_GET_SEQNUM; }
     protected int getMessageTypeSendSeqNum() { return NU_SEND_SEQNUM; }
+    protected int getMessageTypeSendBatch() { return NU_SEND_BATCH; }
 
     public static final int NU_GET_SEQNUM = 546;
     public static final int NU_SEND_SEQNUM = 547;
+    public static final int NU_SEND_BATCH = 552;
 
     static {
         MessageTypes.instance().register(NU_GET_SEQNUM, "GET_SEQNUM");
         MessageTypes.instance().register(NU_SEND_SEQNUM, "SEND_SEQNUM");
+        MessageTypes.instance().register(NU_SEND_BATCH, "SEND_BATCH");
     }
 
     /* CONSTRUCTOR ----------------------------------------*/
@@ -96,8 +135,27 @@ public class FixedSequencerNU
     protected NekoProcess process;
 
     public FixedSequencerNU(NekoProcess process) {
+        this(process, 0, 1);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param maxBatchSize largest number of messages in a batch,
+     *        or 0 to disable batching.
+     * @param maxInFlight largest number of batches in flight.
+     */
+    public FixedSequencerNU(NekoProcess process,
+                            int maxBatchSize,
+                            int maxInFlight)
+    {
+        if (maxBatchSize < 0 || maxInFlight < 1) {
+            throw new IllegalArgumentException();
+        }
 
         this.process = process;
+        this.maxBatchSize = maxBatchSize;
+        this.maxInFlight = maxInFlight;
 
         processes = new int[process.getN()];
         for (int i = 0; i < process.getN(); i++) {
@@ -138,7 +196,12 @@ public class FixedSequencerNU
             m.setSource(process.getID());
         }
 
-        if (isSequencer) {
+        if (isSequencer && maxBatchSize > 0) {
+            synchronized (this) {
+                unordered.add(m);
+                sendBatches();
+            }
+        } else if (isSequencer) {
             seqNum++;
             Content c = new Content(m, seqNum);
             NekoMessage m1 =
@@ -161,6 +224,8 @@ public class FixedSequencerNU
             handleGetSeqNum(m);
         } else if (m.getType() == SEND_SEQNUM) {
             handleSendSeqNum(m);
+        } else if (m.getType() == SEND_BATCH) {
+            handleSendBatch(m);
         } else {
             throw new UnexpectedMessageException(m);
         } // end if
@@ -230,6 +295,58 @@ public class FixedSequencerNU
 
     }
 
+    /**
+     * Sends the messages waiting for a sequence number in batches,
+     * while fewer than <code>maxInFlight</code> batches are in flight.
+     */
+    protected synchronized void sendBatches() {
+        while (inFlight.size() < maxInFlight && !unordered.isEmpty()) {
+            int size = Math.min(unordered.size(), maxBatchSize);
+            List batch = unordered.subList(0, size);
+            NekoMessage[] messages =
+                (NekoMessage[]) batch.toArray(new NekoMessage[size]);
+            batch.clear();
+            BatchContent c = new BatchContent(seqNum + 1, messages);
+            seqNum += size;
+            inFlight.addLast(new Integer(seqNum));
+            NekoMessage m =
+                new NekoMessage(processes, getId(), c, SEND_BATCH);
+            logger.log(Level.FINE, "sendBatches: sending {0}", m);
+            sender.send(m);
+        }
+    }
+
+    /**
+     * Called on the sequencer when all batches up to sequence number
+     * <code>limit</code> are no longer in flight.
+     */
+    protected synchronized void batchesDone(int limit) {
+        while (!inFlight.isEmpty()
+               && ((Integer) inFlight.getFirst()).intValue() <= limit)
+        {
+            inFlight.removeFirst();
+        }
+        sendBatches();
+    }
+
+    protected void handleSendBatch(NekoMessage m) {
+
+        BatchContent c = (BatchContent) m.getContent();
+        receiveBatch(c);
+        if (isSequencer) {
+            batchesDone(c.getLastSeqNum());
+        }
+
+    }
+
+    protected synchronized void receiveBatch(BatchContent c) {
+        NekoMessage[] messages = c.getMessages();
+        for (int i = 0; i < messages.length; i++) {
+            received.add(new Content(messages[i], c.getFirstSeqNum() + i));
+        }
+        doDelivery();
+    }
+
     /* Required Utility functions and classes */
 
     /**
@@ -272,6 +389,41 @@ public class FixedSequencerNU
 
     } // end class Content
 
+    /**
+     * Content of SEND_BATCH messages: messages with consecutive
+     * sequence numbers.
+     */
+    public static class BatchContent
+        implements Serializable
+    {
+
+        private int firstSeqNum;
+        private NekoMessage[] messages;
+
+        public BatchContent(int firstSeqNum, NekoMessage[] messages) {
+            this.firstSeqNum = firstSeqNum;
+            this.messages = messages;
+        }
+
+        public int getFirstSeqNum() {
+            return firstSeqNum;
+        }
+
+        public int getLastSeqNum() {
+            return firstSeqNum + messages.length - 1;
+        }
+
+        public NekoMessage[] getMessages() {
+            return messages;
+        }
+
+        public String toString() {
+            return "seqNums " + firstSeqNum + "-" + getLastSeqNum()
+                + " messages " + Arrays.asList(messages);
+        }
+
+    } // end class BatchContent
+
     private static final Logger logger =
         NekoLogger.getLogger(FixedSequencerNU.class.getName());
 
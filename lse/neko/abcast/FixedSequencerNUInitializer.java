@@ -2,19 +2,39 @@ package lse.neko.abcast;
 
 // lse.neko imports:
 import lse.neko.NekoProcess;
+import lse.neko.NekoSystem;
 import lse.neko.ReceiverInterface;
 import lse.neko.SenderInterface;
 
+// other imports:
+import org.apache.java.util.Configurations;
+
 
 public class FixedSequencerNUInitializer implements ABCastInitializer {
 
+    /**
+     * Config file entry for the largest number of messages in a batch
+     * of the sequencer. Batching is disabled if it is 0, the default.
+     */
+    public static final String CF_MAX_BATCH_SIZE =
+        "FixedSequencer.maxBatchSize";
+
+    /**
+     * Config file entry for the largest number of batches in flight.
+     */
+    public static final String CF_MAX_IN_FLIGHT =
+        "FixedSequencer.maxInFlight";
+
     public void createDeliverer(NekoProcess process) {
         createSender(process);
     }
 
     public SenderInterface createSender(NekoProcess process) {
         SenderInterface net = process.getDefaultNetwork();
-        abcast = new FixedSequencerNU(process);
+        Configurations config = NekoSystem.instance().getConfig();
+        abcast = new FixedSequencerNU(process,
+                                      config.getInteger(CF_MAX_BATCH_SIZE, 0),
+                                      config.getInteger(CF_MAX_IN_FLIGHT, 4));
         abcast.setSender(net);
         final Object abcastId = "abcast";
         abcast.setId(abcastId);
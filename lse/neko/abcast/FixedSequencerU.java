@@ -1,8 +1,6 @@
 package lse.neko.abcast;
 
 // java imports:
-import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -12,6 +10,7 @@ import lse.neko.NekoMessage;
 import lse.neko.NekoProcess;
 import lse.neko.UnexpectedMessageException;
 import lse.neko.util.CompressedIntSet;
+import lse.neko.util.IntObjectHashMap;
 import lse.neko.util.logging.NekoLogger;
 
 
@@ -27,6 +26,15 @@ import lse.neko.util.logging.NekoLogger;
  * specification was unnecessary and so I have commented out the<br>
  * appropriate lines below (28, 74, 117, 138, 139).</p>
  *
+ * <p>In batching mode, destinations acknowledge the largest sequence
+ * number up to which they have received all batches. The network may
+ * reorder batches, so a batch received ahead of a gap is only
+ * acknowledged once the gap is filled. The sequencer collects these
+ * cumulative acks in an
+ * {@link lse.neko.layers.AckCollector} and announces the largest
+ * stable sequence number in a STABLE_LIMIT message. A batch is in
+ * flight until the sequencer receives this announcement.</p>
+ *
  * <p>Algorithm details :<br>
  * Page 153 of "Agreement-Related Problems: From Semi-passive<br>
  * Replication To Totally Ordered Broadcast" Xavier Defago</p>
@@ -42,9 +50,31 @@ public class FixedSequencerU
     protected final CompressedIntSet stableSeqNums = new CompressedIntSet();
 
     /**
-     * Map from sequence numbers (Integer) to AckCollector.
+     * Map from sequence numbers to AckCollector.
+     */
+    protected final IntObjectHashMap stabilityInfo = new IntObjectHashMap();
+
+    /**
+     * All sequence numbers up to this one are stable, in batching mode.
+     */
+    protected int stableLimit = -1;
+
+    /**
+     * Cumulative acks of the destinations, in batching mode.
+     */
+    protected lse.neko.layers.AckCollector ackLimits;
+
+    /**
+     * All sequence numbers up to this one have been received,
+     * in batching mode. This is what the process acknowledges.
+     */
+    protected int receivedLimit = -1;
+
+    /**
+     * Batches received beyond <code>receivedLimit + 1</code>:
+     * first sequence numbers to last sequence numbers, as Integers.
      */
-    protected final Map stabilityInfo = new HashMap();
+    protected final IntObjectHashMap receivedAhead = new IntObjectHashMap();
 
     /*
      * Message IDs local to the algorithm.
@@ -52,17 +82,24 @@ public class FixedSequencerU
 
     protected int getMessageTypeGetSeqNum() { return U_GET_SEQNUM; }
     protected int getMessageTypeSendSeqNum() { return U_SEND_SEQNUM; }
+    protected int getMessageTypeSendBatch() { return U_SEND_BATCH; }
 
     public static final int U_GET_SEQNUM = 548;
     public static final int U_SEND_SEQNUM = 549;
     public static final int ACK_SEQNUM = 550;
     public static final int STABLE_SEQNUM = 551;
+    public static final int U_SEND_BATCH = 553;
+    public static final int ACK_LIMIT = 554;
+    public static final int STABLE_LIMIT = 555;
 
     static {
         MessageTypes.instance().register(U_GET_SEQNUM, "GET_SEQNUM");
         MessageTypes.instance().register(U_SEND_SEQNUM, "SEND_SEQNUM");
         MessageTypes.instance().register(ACK_SEQNUM, "ACK_SEQNUM");
         MessageTypes.instance().register(STABLE_SEQNUM, "STABLE_SEQNUM");
+        MessageTypes.instance().register(U_SEND_BATCH, "SEND_BATCH");
+        MessageTypes.instance().register(ACK_LIMIT, "ACK_LIMIT");
+        MessageTypes.instance().register(STABLE_LIMIT, "STABLE_LIMIT");
     }
 
     /* CONSTRUCTOR ----------------------------------------*/
@@ -71,6 +108,21 @@ public class FixedSequencerU
         super(process);
     } // end constructor
 
+    /**
+     * Creates an instance.
+     *
+     * @see FixedSequencerNU#FixedSequencerNU(NekoProcess,int,int)
+     */
+    public FixedSequencerU(NekoProcess process,
+                           int maxBatchSize,
+                           int maxInFlight)
+    {
+        super(process, maxBatchSize, maxInFlight);
+        if (isSequencer) {
+            ackLimits = new lse.neko.layers.AckCollector(process.getN());
+        }
+    }
+
     /* METHODS -----------------------------------------------*/
 
     /* Inherited and overridden methods */
@@ -85,6 +137,11 @@ public class FixedSequencerU
         } else if (m.getType() == STABLE_SEQNUM) {
             int c = ((Integer) m.getContent()).intValue();
             handleStableMessage(c);
+        } else if (m.getType() == ACK_LIMIT) {
+            handleAckLimit(m);
+        } else if (m.getType() == STABLE_LIMIT) {
+            int c = ((Integer) m.getContent()).intValue();
+            handleStableLimit(c);
         } else {
             super.deliver(m);
         } // end switch
@@ -92,7 +149,7 @@ public class FixedSequencerU
     } // end deliver
 
     protected boolean isDeliverable(int seqNum) {
-        return stableSeqNums.contains(seqNum);
+        return seqNum <= stableLimit || stableSeqNums.contains(seqNum);
     }
 
     protected void handleSendSeqNum(NekoMessage m) {
@@ -129,14 +186,16 @@ public class FixedSequencerU
         Integer c = (Integer) m.getContent();
         NekoMessage newM = null;
         synchronized (this) {
-            AckCollector collector = (AckCollector) stabilityInfo.get(c);
+            int seqNum = c.intValue();
+            AckCollector collector =
+                (AckCollector) stabilityInfo.get(seqNum);
             if (collector == null) {
                 collector = new AckCollector();
-                stabilityInfo.put(c, collector);
+                stabilityInfo.put(seqNum, collector);
             }
             collector.addAckFrom(m.getSource());
             if (collector.hasAllAcks()) {
-                stabilityInfo.remove(c);
+                stabilityInfo.remove(seqNum);
                 newM =
                     new NekoMessage(processes, getId(), c, STABLE_SEQNUM);
             }
@@ -148,6 +207,70 @@ public class FixedSequencerU
 
     }
 
+    protected void handleSendBatch(NekoMessage m) {
+
+        // send a cumulative ack, for the batches received without gaps
+        BatchContent c = (BatchContent) m.getContent();
+        NekoMessage m1 = null;
+        synchronized (this) {
+            int prevLimit = receivedLimit;
+            receivedAhead.put(c.getFirstSeqNum(),
+                              new Integer(c.getLastSeqNum()));
+            Integer last;
+            while ((last = (Integer) receivedAhead.remove(receivedLimit + 1))
+                   != null)
+            {
+                receivedLimit = last.intValue();
+            }
+            if (receivedLimit > prevLimit) {
+                m1 = new NekoMessage(toSequencer,
+                                     getId(),
+                                     new Integer(receivedLimit),
+                                     ACK_LIMIT);
+            }
+        }
+        if (m1 != null) {
+            sender.send(m1);
+        }
+        receiveBatch(c);
+
+    }
+
+    protected void handleAckLimit(NekoMessage m) {
+
+        if (!isSequencer) {
+            throw new UnexpectedMessageException(m);
+        }
+        int seqNum = ((Integer) m.getContent()).intValue();
+        NekoMessage newM = null;
+        synchronized (this) {
+            if (ackLimits.addAckFrom(m.getSource(), seqNum)) {
+                Integer limit = new Integer(ackLimits.getLimit());
+                newM = new NekoMessage(processes, getId(), limit,
+                                       STABLE_LIMIT);
+            }
+        }
+        if (newM != null) {
+            sender.send(newM);
+        }
+
+    }
+
+    protected void handleStableLimit(int c) {
+
+        synchronized (this) {
+            if (c <= stableLimit) {
+                return;
+            }
+            stableLimit = c;
+            doDelivery();
+            if (isSequencer) {
+                batchesDone(stableLimit);
+            }
+        }
+
+    }
+
     /* Required Functions and Classes */
 
     private class AckCollector {
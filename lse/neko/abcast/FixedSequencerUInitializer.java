@@ -2,9 +2,13 @@ package lse.neko.abcast;
 
 // lse.neko imports:
 import lse.neko.NekoProcess;
+import lse.neko.NekoSystem;
 import lse.neko.ReceiverInterface;
 import lse.neko.SenderInterface;
 
+// other imports:
+import org.apache.java.util.Configurations;
+
 
 public class FixedSequencerUInitializer implements ABCastInitializer {
 
@@ -14,7 +18,12 @@ public class FixedSequencerUInitializer implements ABCastInitializer {
 
     public SenderInterface createSender(NekoProcess process) {
         SenderInterface net = process.getDefaultNetwork();
-        abcast = new FixedSequencerU(process);
+        Configurations config = NekoSystem.instance().getConfig();
+        int maxBatchSize = config.getInteger
+            (FixedSequencerNUInitializer.CF_MAX_BATCH_SIZE, 0);
+        int maxInFlight = config.getInteger
+            (FixedSequencerNUInitializer.CF_MAX_IN_FLIGHT, 4);
+        abcast = new FixedSequencerU(process, maxBatchSize, maxInFlight);
         abcast.setSender(net);
         final Object abcastId = "abcast";
         abcast.setId(abcastId);
@@ -3,12 +3,6 @@ package lse.neko.abcast;
 // java imports:
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,6 +59,26 @@ import lse.neko.util.logging.NekoLogger;
  *  &nbsp;&nbsp;&nbsp;forAll m in deliverable<br>
  *  &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;delivrer m<br>
  *
+ * <p>Implementation: the received messages of each sender are kept
+ * in a min-heap of timestamps. Two tournament trees give the smallest
+ * timestamp among the heads of these heaps and the smallest clock
+ * LC[q] of the other processes, each updated in O(log n) time.
+ * Hence the delivery test only compares the two minimums, and does
+ * more work only for the messages that it delivers. Deliverable
+ * messages are collected in a list and delivered in batches,
+ * outside the lock.</p>
+ *
+ * <p>Adaptive mode (see {@link #Lamport(NekoProcess,double,double)})
+ * reduces the number of empty messages in step 2. No empty message is
+ * scheduled if the last message sent already has a larger timestamp
+ * than the received message. A pending empty message is canceled
+ * when an application message is sent, as the latter carries the
+ * clock advance. Finally, the delay before an empty message follows
+ * the mean time between the application messages of this process, so
+ * that the next application message can carry the clock advance in
+ * most cases. Messages are still delivered in the same total order
+ * at all processes: only the time of some clock advances changes.</p>
+ *
  * @author  Sing Souksavanh
  */
 public class Lamport
@@ -75,7 +89,10 @@ public class Lamport
 
     /* VARIABLES ------------------------------------------------*/
 
-    private SortedMap received = new TreeMap();
+    /**
+     * Lock for the state of the algorithm.
+     */
+    private final Object lock = new Object();
 
     /**
      * Message type for messages with payload.
@@ -148,8 +165,9 @@ public class Lamport
         new TimerTask() {
             public void run() {
                 int ts;
-                synchronized (received) {
-                    ts = vectorClock.send();
+                synchronized (lock) {
+                    ts = send();
+                    emptyMessageCount++;
                     sender.send(new NekoMessage(dest,
                                                 getId(),
                                                 new Integer(ts),
@@ -166,7 +184,62 @@ public class Lamport
 
     private final double delta;
 
-    private Collection deliverable = new ArrayList();
+    /**
+     * Largest delay before sending an empty message in adaptive mode,
+     * or a negative number if adaptive mode is off.
+     */
+    private final double maxDelta;
+
+    /**
+     * Weight of the last interval in the mean time between the
+     * application messages sent.
+     */
+    private static final double SEND_INTERVAL_WEIGHT = 0.125;
+
+    /**
+     * Mean time between the application messages sent, or a negative
+     * number if not known yet. Only maintained in adaptive mode.
+     */
+    private double sendInterval = -1;
+
+    private double lastSendTime = -1;
+
+    /**
+     * Timestamp of the last message sent.
+     */
+    private int lastTimestamp = 0;
+
+    private long dataMessageCount = 0;
+    private long emptyMessageCount = 0;
+    private long piggybackCount = 0;
+
+    /**
+     * Logical clocks LC[q] of all processes.
+     */
+    private final int[] clock;
+
+    /**
+     * Smallest clock LC[q] of the processes q other than this one.
+     */
+    private final Tournament minClock;
+
+    /**
+     * Received messages not yet deliverable, one heap per sender.
+     */
+    private final Received[] received;
+
+    /**
+     * Smallest timestamp among the first messages of
+     * <code>received</code>.
+     */
+    private final Tournament minReceived;
+
+    /**
+     * Messages found deliverable, and the messages being delivered.
+     * The two lists are swapped for each batch.
+     */
+    private ArrayList deliverable = new ArrayList();
+    private ArrayList delivering = new ArrayList();
 
     private boolean isDelivering = false;
 
@@ -179,6 +252,16 @@ public class Lamport
     }
 
     public Lamport(NekoProcess process, double delta) {
+        this(process, delta, -1);
+    }
+
+    /**
+     * Creates an instance in adaptive mode if <code>maxDelta</code> is
+     * not negative. In adaptive mode, the delay before an empty
+     * message is between <code>delta</code> and
+     * <code>maxDelta</code>.
+     */
+    public Lamport(NekoProcess process, double delta, double maxDelta) {
         this.process = process;
         pid = process.getID();
         int n = process.getN();
@@ -190,7 +273,25 @@ public class Lamport
             throw new IllegalArgumentException();
         }
         this.delta = delta;
-        vectorClock = new VectorClock(n, pid);
+        if (maxDelta >= 0 && maxDelta < delta) {
+            throw new IllegalArgumentException("maxDelta " + maxDelta
+                                               + " < delta " + delta);
+        }
+        this.maxDelta = maxDelta;
+        if (pid < 0 || pid >= n) {
+            throw new IllegalArgumentException();
+        }
+        clock = new int[n];
+        minClock = new Tournament(n);
+        received = new Received[n];
+        minReceived = new Tournament(n);
+        for (int i = 0; i < n; i++) {
+            received[i] = new Received();
+            // the clock of this process is not taken into account
+            if (i != pid) {
+                minClock.set(i, 0);
+            }
+        }
     }
 
     protected SenderInterface sender;
@@ -216,23 +317,28 @@ public class Lamport
 
         boolean doDelivery;
 
-        synchronized (received) {
+        synchronized (lock) {
             switch (m.getType()) {
             case NEW_MSG: {
 
                 Content content = (Content) m.getContent();
                 int timestamp = content.getTimestamp();
                 int source = m.getSource();
-                vectorClock.receive(timestamp, source);
+                receive(timestamp, source);
 
-                received.put(new MessageInfo(timestamp, source), content);
+                Received r = received[source];
+                r.add(content);
+                if (r.firstTimestamp() == timestamp) {
+                    minReceived.set(source, timestamp);
+                }
 
-                deliveryTest(deliverable);
+                deliveryTest();
 
                 if (emptySender.getNextExecutionTime() >= Double.MAX_VALUE
-                    && source != pid)
+                    && source != pid
+                    && !(maxDelta >= 0 && lastTimestamp > timestamp))
                 {
-                    timer.schedule(emptySender, delta);
+                    timer.schedule(emptySender, getEmptyDelay());
                 }
 
                 break;
@@ -241,9 +347,9 @@ public class Lamport
 
                 int timestamp = ((Integer) m.getContent()).intValue();
                 int source = m.getSource();
-                vectorClock.receive(timestamp, source);
+                receive(timestamp, source);
 
-                deliveryTest(deliverable);
+                deliveryTest();
 
                 break;
             }
@@ -258,70 +364,72 @@ public class Lamport
             } else {
                 doDelivery = false;
             }
-        }
-
-        switch (m.getType()) {
 
-        case EMPTY_MSG:
-        case NEW_MSG:
-        {
-            synchronized (received) {
-                if (emptySender.getNextExecutionTime()
-                    <= NekoSystem.instance().clock())
-                {
-                    emptySender.cancel();
-                    emptySender.run();
-                }
+            if (emptySender.getNextExecutionTime()
+                <= NekoSystem.instance().clock())
+            {
+                emptySender.cancel();
+                emptySender.run();
             }
-
-            break;
-        }
-        default :
-            throw new UnexpectedMessageException(m);
         }
 
         if (doDelivery) {
             while (true) {
-                Iterator it;
-                synchronized (received) {
+                ArrayList batch;
+                synchronized (lock) {
                     if (deliverable.isEmpty()) {
                         isDelivering = false;
                         logger.fine("finished delivering");
                         break;
                     }
-                    it = deliverable.iterator();
-                    deliverable = new ArrayList();
+                    batch = deliverable;
+                    deliverable = delivering;
+                    delivering = batch;
                 }
-                while (it.hasNext()) {
-                    NekoMessage f = (NekoMessage) it.next();
+                for (int i = 0; i < batch.size(); i++) {
+                    NekoMessage f = (NekoMessage) batch.get(i);
                     logger.log(Level.FINE, "delivering {0}", f);
                     receiver.deliver(f);
                 }
+                batch.clear();
             }
         }
     }
 
-    private void deliveryTest(Collection someDeliverable) {
+    /**
+     * Moves the messages that have become deliverable from
+     * <code>received</code> to <code>deliverable</code>.
+     * A message m from p is deliverable if (ts(m), p) is not larger
+     * than (LC[q], q) for all processes q other than this one.
+     */
+    private void deliveryTest() {
 
-        MessageInfo minLC = vectorClock.first();
-        Iterator it = received.keySet().iterator();
-        while (it.hasNext()) {
-            MessageInfo tmp = (MessageInfo) it.next();
+        while (true) {
+            int p = minReceived.first();
+            int ts = minReceived.firstKey();
+            if (ts == Integer.MAX_VALUE) {
+                // nothing received
+                break;
+            }
+            int q = minClock.first();
+            int lc = minClock.firstKey();
             if (logger.isLoggable(Level.FINE)) {
                 logger.log(Level.FINE, "delivery test: {0} < {1} ?",
-                           new Object[] { tmp, minLC });
+                           new Object[] { new MessageInfo(ts, p),
+                                          new MessageInfo(lc, q) });
             }
-            if (tmp.compareTo(minLC) > 0) {
+            if (ts > lc || (ts == lc && p > q)) {
                 break;
             }
-            Content c2 = (Content) received.get(tmp);
-            NekoMessage newM = new NekoMessage(tmp.getPID(),
-                                               dest,
-                                               c2.getProtocolId(),
-                                               c2.getContent(),
-                                               c2.getType());
-            someDeliverable.add(newM);
-            it.remove();
+            Received r = received[p];
+            Content c = r.removeFirst();
+            minReceived.set(p, r.isEmpty()
+                            ? Integer.MAX_VALUE : r.firstTimestamp());
+            deliverable.add(new NekoMessage(p,
+                                            dest,
+                                            c.getProtocolId(),
+                                            c.getContent(),
+                                            c.getType()));
         }
         logger.fine("finished delivery test");
     }
@@ -329,8 +437,16 @@ public class Lamport
     public void send(NekoMessage m) {
 
         int ts;
-        synchronized (received) {
-            ts = vectorClock.send();
+        synchronized (lock) {
+            ts = send();
+            dataMessageCount++;
+            if (maxDelta >= 0) {
+                updateSendInterval();
+                // the message carries the clock advance
+                if (emptySender.cancel()) {
+                    piggybackCount++;
+                }
+            }
 
             NekoMessage newM =
                 new NekoMessage(dest,
@@ -344,74 +460,213 @@ public class Lamport
         }
     }
 
-    private static class VectorClock {
+    /**
+     * Updates the clocks for sending a message, and returns
+     * its timestamp.
+     */
+    private int send() {
+        lastTimestamp = ++clock[pid];
+        return lastTimestamp;
+    }
 
-        private final int pid;
+    private void updateSendInterval() {
+        double now = NekoSystem.instance().clock();
+        if (lastSendTime >= 0) {
+            double interval = now - lastSendTime;
+            sendInterval = (sendInterval < 0) ? interval
+                : (1 - SEND_INTERVAL_WEIGHT) * sendInterval
+                + SEND_INTERVAL_WEIGHT * interval;
+        }
+        lastSendTime = now;
+    }
 
-        private final SortedSet sortedTimestamps;
-        private final int[] timestamps;
+    /**
+     * Returns the delay before sending an empty message. In adaptive
+     * mode, it is the mean time between application messages if that
+     * is between <code>delta</code> and <code>maxDelta</code>:
+     * waiting longer is not worth it, as this process sends rarely.
+     */
+    private double getEmptyDelay() {
+        if (maxDelta < 0 || sendInterval < 0 || sendInterval > maxDelta) {
+            return delta;
+        }
+        return Math.max(delta, sendInterval);
+    }
 
-        private int read(int i) {
-            int ts = timestamps[i];
-            sortedTimestamps.remove(new MessageInfo(ts, i));
-            return ts;
+    /**
+     * Returns the number of application messages sent.
+     */
+    public long getDataMessageCount() {
+        synchronized (lock) {
+            return dataMessageCount;
         }
+    }
 
-        private void write(int ts, int i) {
-            timestamps[i] = ts;
-            sortedTimestamps.add(new MessageInfo(ts, i));
-            if (logger.isLoggable(Level.FINE)) {
-                logger.log(Level.FINE, "setting VC[{0}] to {1}",
-                           new Object[] { new Integer(i), new Integer(ts) });
-            }
+    /**
+     * Returns the number of empty messages sent.
+     */
+    public long getEmptyMessageCount() {
+        synchronized (lock) {
+            return emptyMessageCount;
         }
+    }
 
-        public MessageInfo first() {
-            return (MessageInfo) sortedTimestamps.first();
+    /**
+     * Returns the number of empty messages canceled in adaptive mode
+     * because an application message carried the clock advance.
+     */
+    public long getPiggybackCount() {
+        synchronized (lock) {
+            return piggybackCount;
         }
+    }
 
-        public int send() {
-            int ts = read(pid) + 1;
-            write(ts, pid);
-            return ts;
+    /**
+     * Updates the clocks for receiving a message with timestamp
+     * <code>ts</code> from <code>p</code>.
+     */
+    private void receive(int ts, int p) {
+        clock[pid] = Math.max(clock[pid], ts) + 1;
+        if (p != pid && ts > clock[p]) {
+            clock[p] = ts;
+            minClock.set(p, ts);
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "setting VC[{0}] to {1}",
+                       new Object[] { new Integer(p),
+                                      new Integer(clock[p]) });
         }
+    }
 
-        public void receive(int ts, int p) {
-            {
-                int newTs = Math.max(read(pid), ts) + 1;
-                write(newTs, pid);
+    /**
+     * Tournament tree over n integer keys, indexed from 0 to n-1.
+     * Each inner node holds the index of the smaller key of its
+     * children, ties broken by the smaller index. Keys are
+     * <code>Integer.MAX_VALUE</code> until set.
+     */
+    private static class Tournament {
+
+        private final int[] keys;
+
+        /**
+         * tree[1] is the root; the leaves are at tree[size + i].
+         */
+        private final int[] tree;
+
+        private final int size;
+
+        Tournament(int n) {
+            int s = 1;
+            while (s < n) {
+                s <<= 1;
+            }
+            size = s;
+            keys = new int[size];
+            tree = new int[2 * size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = Integer.MAX_VALUE;
+                tree[size + i] = i;
             }
-            if (p != pid) {
-                int newTs = Math.max(read(p), ts);
-                write(newTs, p);
+            for (int node = size - 1; node >= 1; node--) {
+                tree[node] = winner(tree[2 * node], tree[2 * node + 1]);
             }
         }
 
-        public VectorClock(int n, int pid) {
-            if (pid < 0 || pid >= n) {
-                throw new IllegalArgumentException();
-            }
-            this.pid = pid;
-            timestamps = new int[n];
-            sortedTimestamps = new TreeSet();
-            for (int i = 0; i < n; i++) {
-                if (i != pid) {
-                    sortedTimestamps.add(new MessageInfo(0, i));
-                }
-            }
+        private int winner(int a, int b) {
+            return (keys[b] < keys[a] || (keys[b] == keys[a] && b < a))
+                ? b : a;
         }
-    }
 
-    private final VectorClock vectorClock;
+        void set(int i, int key) {
+            keys[i] = key;
+            for (int node = (size + i) >> 1; node >= 1; node >>= 1) {
+                tree[node] = winner(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
 
-    private static final Logger logger =
-        NekoLogger.getLogger(Lamport.class.getName());
-}
+        /**
+         * Returns the index of the smallest key.
+         */
+        int first() {
+            return tree[1];
+        }
 
+        /**
+         * Returns the smallest key.
+         */
+        int firstKey() {
+            return keys[tree[1]];
+        }
+    }
 
+    /**
+     * Min-heap of the received messages of one sender,
+     * ordered by timestamp. Messages usually arrive in timestamp
+     * order, which makes additions cost O(1).
+     */
+    private static class Received {
 
+        private int[] timestamps = new int[8];
+        private Content[] contents = new Content[8];
+        private int size = 0;
 
+        boolean isEmpty() {
+            return size == 0;
+        }
 
+        int firstTimestamp() {
+            return timestamps[0];
+        }
 
+        void add(Content c) {
+            if (size == timestamps.length) {
+                int[] newTimestamps = new int[2 * size];
+                System.arraycopy(timestamps, 0, newTimestamps, 0, size);
+                timestamps = newTimestamps;
+                Content[] newContents = new Content[2 * size];
+                System.arraycopy(contents, 0, newContents, 0, size);
+                contents = newContents;
+            }
+            int ts = c.getTimestamp();
+            int i = size++;
+            while (i > 0 && timestamps[(i - 1) / 2] > ts) {
+                timestamps[i] = timestamps[(i - 1) / 2];
+                contents[i] = contents[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            timestamps[i] = ts;
+            contents[i] = c;
+        }
 
+        Content removeFirst() {
+            Content first = contents[0];
+            size--;
+            int ts = timestamps[size];
+            Content c = contents[size];
+            contents[size] = null;
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size
+                    && timestamps[child + 1] < timestamps[child])
+                {
+                    child++;
+                }
+                if (timestamps[child] >= ts) {
+                    break;
+                }
+                timestamps[i] = timestamps[child];
+                contents[i] = contents[child];
+                i = child;
+            }
+            if (size > 0) {
+                timestamps[i] = ts;
+                contents[i] = c;
+            }
+            return first;
+        }
+    }
 
+    private static final Logger logger =
+        NekoLogger.getLogger(Lamport.class.getName());
+}
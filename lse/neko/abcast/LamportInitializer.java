@@ -2,21 +2,41 @@ package lse.neko.abcast;
 
 // lse.neko imports:
 import lse.neko.NekoProcess;
+import lse.neko.NekoSystem;
 import lse.neko.ReceiverInterface;
 import lse.neko.SenderInterface;
 
+// other imports:
+import org.apache.java.util.Configurations;
+
 
 public class LamportInitializer
     implements ABCastInitializer
 {
 
+    /**
+     * Config file entry for the delay before sending an empty message.
+     */
+    public static final String CF_DELTA = "Lamport.delta";
+
+    /**
+     * Config file entry for the largest delay before sending an empty
+     * message. If present, Lamport runs in adaptive mode.
+     *
+     * @see Lamport#Lamport(NekoProcess,double,double)
+     */
+    public static final String CF_MAX_DELTA = "Lamport.maxDelta";
+
     public void createDeliverer(NekoProcess process) {
         createSender(process);
     }
 
     public SenderInterface createSender(NekoProcess process) {
+        Configurations config = NekoSystem.instance().getConfig();
         SenderInterface net = process.getDefaultNetwork();
-        abcast = new Lamport(process, 0);
+        abcast = new Lamport(process,
+                             config.getDouble(CF_DELTA, 0),
+                             config.getDouble(CF_MAX_DELTA, -1));
         abcast.setSender(net);
         final Object abcastId = "abcast";
         abcast.setId(abcastId);
@@ -0,0 +1,153 @@
+package lse.neko.abcast;
+
+// java imports:
+import java.util.HashMap;
+import java.util.Map;
+
+// lse.neko imports:
+import lse.neko.NekoMessage;
+import lse.neko.util.GUID;
+
+
+/**
+ * Messages waiting for their final timestamp in Skeen's algorithm
+ * and its variants. The messages are kept in a binary heap, ordered
+ * by timestamp; at equal timestamps, messages with their final
+ * timestamp come last, and the others are ordered by ID. The heap is
+ * indexed by ID, so that giving a message its final timestamp costs
+ * O(log n) time.
+ *
+ * @see Skeen
+ * @see DestinationsAgreementNU
+ */
+class PendingQueue {
+
+    private static class Entry {
+
+        final GUID id;
+        final NekoMessage message;
+        int timestamp;
+        boolean stamped = false;
+
+        /**
+         * Position in the heap.
+         */
+        int index;
+
+        Entry(GUID id, NekoMessage message, int timestamp) {
+            this.id = id;
+            this.message = message;
+            this.timestamp = timestamp;
+        }
+
+        boolean before(Entry r) {
+            if (timestamp != r.timestamp) {
+                return timestamp < r.timestamp;
+            } else if (stamped != r.stamped) {
+                // stamped entries come last
+                return r.stamped;
+            } else {
+                // two different entries should never compare equal;
+                // we use GUIDs rather than hash codes,
+                // in order to make simulations reproducible
+                return id.compareTo(r.id) < 0;
+            }
+        }
+    }
+
+    private Entry[] heap = new Entry[16];
+    private int size = 0;
+
+    private final Map idToEntry = new HashMap(); // GUIDs to Entries
+
+    /**
+     * Adds a message with a proposed timestamp.
+     */
+    void add(GUID id, NekoMessage message, int timestamp) {
+        Entry e = new Entry(id, message, timestamp);
+        if (idToEntry.put(id, e) != null) {
+            throw new IllegalArgumentException("Duplicate message " + id);
+        }
+        if (size == heap.length) {
+            Entry[] newHeap = new Entry[2 * size];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            heap = newHeap;
+        }
+        e.index = size++;
+        heap[e.index] = e;
+        siftUp(e);
+    }
+
+    /**
+     * Gives the message <code>id</code> its final timestamp.
+     */
+    void stamp(GUID id, int timestamp) {
+        Entry e = (Entry) idToEntry.get(id);
+        if (e == null) {
+            throw new IllegalArgumentException("Unknown message " + id);
+        }
+        e.timestamp = timestamp;
+        e.stamped = true;
+        siftUp(e);
+        siftDown(e);
+    }
+
+    /**
+     * Removes and returns the first message if it has its final
+     * timestamp, otherwise returns <code>null</code>.
+     */
+    NekoMessage removeFirstStamped() {
+        if (size == 0 || !heap[0].stamped) {
+            return null;
+        }
+        Entry first = heap[0];
+        idToEntry.remove(first.id);
+        size--;
+        if (size > 0) {
+            Entry last = heap[size];
+            last.index = 0;
+            heap[0] = last;
+            siftDown(last);
+        }
+        heap[size] = null;
+        return first.message;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void siftUp(Entry e) {
+        int i = e.index;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!e.before(heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heap[i].index = i;
+            i = parent;
+        }
+        heap[i] = e;
+        e.index = i;
+    }
+
+    private void siftDown(Entry e) {
+        int i = e.index;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1].before(heap[child])) {
+                child++;
+            }
+            if (!heap[child].before(e)) {
+                break;
+            }
+            heap[i] = heap[child];
+            heap[i].index = i;
+            i = child;
+        }
+        heap[i] = e;
+        e.index = i;
+    }
+
+}
@@ -19,6 +19,7 @@ import lse.neko.NekoProcess;
 import lse.neko.ReceiverInterface;
 import lse.neko.SenderInterface;
 import lse.neko.UnexpectedMessageException;
+import lse.neko.util.ProcessSets;
 import lse.neko.util.logging.NekoLogger;
 
 
@@ -154,10 +155,30 @@ public class PrivilegeBasedNU
     public synchronized void send(NekoMessage m) {
         logger.log(Level.FINE, "send {0}", m);
         m.setSource(process.getID());
-        Arrays.sort(m.getDestinations());
+        int[] destinations = m.getDestinations();
+        if (!isSorted(destinations)) {
+            // the array may be shared with other messages:
+            // sort a copy, and share the sorted copy instead
+            int[] sorted = (int[]) destinations.clone();
+            Arrays.sort(sorted);
+            m = new NekoMessage(m.getSource(),
+                                ProcessSets.intern(sorted),
+                                m.getProtocolId(),
+                                m.getContent(),
+                                m.getType());
+        }
         sendQ.add(m);
     } // end send
 
+    private static boolean isSorted(int[] a) {
+        for (int i = 1; i < a.length; i++) {
+            if (a[i - 1] > a[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 
     public void deliver(NekoMessage m) {
 
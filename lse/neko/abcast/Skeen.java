@@ -1,12 +1,5 @@
 package lse.neko.abcast;
 
-// java imports:
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
-
 // lse.neko imports:
 import lse.neko.NekoMessage;
 import lse.neko.NekoProcess;
@@ -31,64 +24,7 @@ public class Skeen
         this.receiver = receiver;
     }
 
-    private class Element
-        implements Comparable
-    {
-
-        public Element(NekoMessage message,
-                       int timestamp,
-                       GUID id)
-        {
-            this.message = message;
-            this.timestamp = timestamp;
-            this.id = id;
-        }
-
-        private NekoMessage message;
-        private int timestamp;
-        private GUID id;
-        private boolean stamped = false;
-
-        public NekoMessage getMessage() {
-            return message;
-        }
-
-        public int getTimestamp() {
-            return timestamp;
-        }
-
-        public GUID getId() {
-            return id;
-        }
-
-        public boolean getStamped() {
-            return stamped;
-        }
-
-        public void stamp(int newTimestamp) {
-            stamped = true;
-            this.timestamp = newTimestamp;
-        }
-
-        public int compareTo(Object right) {
-            Element r = (Element) right;
-            if (timestamp != r.timestamp) {
-                return (timestamp < r.timestamp) ? -1 : +1;
-            } else if (stamped != r.stamped) {
-                // stamped elements come last
-                return (r.stamped) ? -1 : +1;
-            } else {
-                // two different elements should never compare equal
-                return id.compareTo(r.id);
-                // we use GUIDs rather than hash codes,
-                // in order to make simulations reproducible
-            }
-        }
-
-    }
-
-    private Map idToElement = new HashMap(); // GUIDs to Elements
-    private SortedSet received = new TreeSet(); // of Elements
+    private PendingQueue received = new PendingQueue();
 
     public synchronized void deliver(NekoMessage m) {
 
@@ -99,17 +35,13 @@ public class Skeen
             ContentSKEEN content = (ContentSKEEN) m.getContent();
             GUID id = content.getId();
 
-            Element element =
-                new Element(new NekoMessage(m.getSource(),
-                                            m.getDestinations(),
-                                            content.getProtocolId(),
-                                            content.getContent(),
-                                            content.getType()),
-                            clock.getValue(),
-                            id);
-
-            idToElement.put(content.getId(), element);
-            received.add(element);
+            received.add(id,
+                         new NekoMessage(m.getSource(),
+                                         m.getDestinations(),
+                                         content.getProtocolId(),
+                                         content.getContent(),
+                                         content.getType()),
+                         clock.getValue());
 
             // Response from the receiver to the sender of the original Message
             // for calculation of the sequence number
@@ -135,20 +67,11 @@ public class Skeen
             int timestamp = contentID.getTimestamp();
             clock.update(timestamp);
 
-            Element element2 =
-                (Element) idToElement.get(contentID.getId());
-            received.remove(element2);
-            element2.stamp(timestamp);
-            received.add(element2);
-
-            Iterator it = received.iterator();
-            while (it.hasNext()) {
-                Element e = (Element) it.next();
-                if (!e.getStamped()) {
-                    break;
-                }
-                it.remove();
-                receiver.deliver(e.getMessage());
+            received.stamp(contentID.getId(), timestamp);
+
+            NekoMessage first;
+            while ((first = received.removeFirstStamped()) != null) {
+                receiver.deliver(first);
             }
 
             break;
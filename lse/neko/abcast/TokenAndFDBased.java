@@ -32,6 +32,7 @@ import lse.neko.util.Adeliv;
 import lse.neko.util.ContentRB;
 import lse.neko.util.GUID;
 import lse.neko.util.MySystem;
+import lse.neko.util.ProcessSets;
 import lse.neko.util.logging.NekoLogger;
 
 
@@ -533,7 +534,7 @@ public class TokenAndFDBased
         if (!adelivI.hasHoles()) {
             // send the last adelivered messages to the requesting process
             rbcast.send(new NekoMessage(myID,
-                                        new int[]{sender},
+                                        ProcessSets.singleton(sender),
                                         getId(),
                                         adelivI.tailList(lastAdelivered + 1),
                                         CONS_SOLUTION));
@@ -792,7 +793,7 @@ public class TokenAndFDBased
 
             if (adelivI.lastContiguousPos() >= p.getLast()) {
                 rbcast.send(new NekoMessage(myID,
-                            new int[]{p.getId()},
+                            ProcessSets.singleton(p.getId()),
                             getId(),
                             adelivI.subList(p.getFirst(), p.getLast()),
                             CONS_SOLUTION));
@@ -0,0 +1,60 @@
+package lse.neko.abcast;
+
+// java imports:
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+// lse.neko imports:
+import lse.neko.comm.BinaryCodecRegistry;
+import lse.neko.comm.BinaryInput;
+import lse.neko.comm.BinaryOutput;
+import lse.neko.comm.ContentCodec;
+import lse.neko.util.Adeliv;
+
+
+/**
+ * Encodes <code>Token</code>s for the binary message format.
+ * Writes the same data as the Java serialization of tokens.
+ */
+public class TokenCodec implements ContentCodec {
+
+    public Class getContentClass() {
+        return Token.class;
+    }
+
+    public void write(Object o, BinaryOutput out)
+        throws IOException
+    {
+        Token token = (Token) o;
+        out.writeSignedVarInt(token.sender);
+        out.writeSignedVarInt(token.round);
+        out.writeVarInt(token.proposals.size());
+        for (Iterator it = token.proposals.iterator(); it.hasNext();) {
+            Token.Proposal proposal = (Token.Proposal) it.next();
+            out.writeVarInt(proposal.votes);
+            BinaryCodecRegistry.writeList(proposal.msgs, out);
+        }
+        out.writeObject(token.adeliv);
+    }
+
+    public Object read(BinaryInput in)
+        throws IOException, ClassNotFoundException
+    {
+        int sender = in.readSignedVarInt();
+        int round = in.readSignedVarInt();
+        Token token = Token.empty(sender, round);
+        int proposalsSize = in.readLength();
+        for (int i = 0; i < proposalsSize; i++) {
+            int votes = in.readVarInt();
+            List msgs = new LinkedList(BinaryCodecRegistry.readList(in));
+            Token.Proposal proposal = new Token.Proposal(msgs);
+            proposal.votes = votes;
+            token.proposals.add(proposal);
+        }
+        token.adeliv = (Adeliv.Subsequence) in.readObject();
+        return token;
+    }
+
+}
@@ -0,0 +1,353 @@
+package lse.neko.comm;
+
+// java imports:
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// lse.neko imports:
+import lse.neko.util.Adeliv;
+import lse.neko.util.CompressedIntSet;
+import lse.neko.util.ContentRB;
+import lse.neko.util.GUID;
+import lse.neko.util.logging.NekoLogger;
+
+// other imports:
+import org.apache.java.util.Configurations;
+
+
+/**
+ * Maps classes to the codecs that encode them in the binary
+ * message format. Each codec is identified by a tag, written before
+ * each encoded object. Tags must be the same in all processes.
+ * <p>
+ * Codecs for the frequent contents of Neko are built in.
+ * Further codecs can be listed in the config file (see
+ * <code>CF_CODECS</code>); they get tags in the order of the list.
+ * A class is only handled by the codec registered for it,
+ * not by the codecs of its superclasses.
+ *
+ * @see BinarySerializerFactory
+ */
+public class BinaryCodecRegistry {
+
+    /**
+     * Tag of <code>null</code>.
+     */
+    public static final int NULL_TAG = 0;
+
+    /**
+     * Tag of objects encoded with Java serialization.
+     */
+    public static final int JAVA_TAG = 1;
+
+    /**
+     * Tag of the first codec listed in the config file.
+     * Smaller tags are reserved for built-in codecs.
+     */
+    public static final int FIRST_CONFIG_TAG = 64;
+
+    /**
+     * Config file entry that lists the class names of additional
+     * codecs, separated by commas.
+     */
+    public static final String CF_CODECS = "serializer.binary.codecs";
+
+    /**
+     * Codecs that are built in but live in other packages.
+     * They are skipped if their class cannot be loaded.
+     */
+    private static final String[] BUILT_IN_CODEC_NAMES = {
+        "lse.neko.abcast.TokenCodec",
+        "lse.neko.layers.BatchCodec"
+    };
+
+    private static final int FIRST_BUILT_IN_NAME_TAG = 9;
+
+    static class Entry {
+        public Entry(int tag, ContentCodec codec) {
+            this.tag = tag;
+            this.codec = codec;
+        }
+        final int tag;
+        final ContentCodec codec;
+    }
+
+    /**
+     * Maps classes to entries. Replaced on each change,
+     * so that lookups need no lock.
+     */
+    private static volatile Map entriesByClass = new HashMap();
+
+    /**
+     * Maps tags to codecs. Replaced on each change, like
+     * <code>entriesByClass</code>.
+     */
+    private static volatile Map codecsByTag = new HashMap();
+
+    private static final Object lock = new Object();
+
+    private static boolean configured = false;
+
+    private static final Logger logger =
+        NekoLogger.getLogger(BinaryCodecRegistry.class.getName());
+
+    static {
+        register(2, new IntegerCodec());
+        register(3, new StringCodec());
+        register(4, new IntArrayCodec());
+        register(5, new GUIDCodec());
+        register(6, new ContentRBCodec());
+        register(7, new CompressedIntSetCodec());
+        register(8, new SubsequenceCodec());
+        for (int i = 0; i < BUILT_IN_CODEC_NAMES.length; i++) {
+            try {
+                register(FIRST_BUILT_IN_NAME_TAG + i,
+                         newCodec(BUILT_IN_CODEC_NAMES[i]));
+            } catch (RuntimeException ex) {
+                logger.log(Level.FINE, "built-in codec not available", ex);
+            }
+        }
+    }
+
+    /**
+     * Registers a codec. The tag must not be in use,
+     * and must be registered in all processes.
+     */
+    public static void register(int tag, ContentCodec codec) {
+        if (tag <= JAVA_TAG) {
+            throw new IllegalArgumentException("Reserved tag " + tag);
+        }
+        synchronized (lock) {
+            Integer key = new Integer(tag);
+            if (codecsByTag.containsKey(key)) {
+                throw new IllegalArgumentException("Tag " + tag
+                                                   + " already in use");
+            }
+            Map newByClass = new HashMap(entriesByClass);
+            newByClass.put(codec.getContentClass(), new Entry(tag, codec));
+            Map newByTag = new HashMap(codecsByTag);
+            newByTag.put(key, codec);
+            entriesByClass = newByClass;
+            codecsByTag = newByTag;
+        }
+    }
+
+    /**
+     * Registers the codecs listed in the config file.
+     * Does nothing when called again.
+     */
+    public static void configure(Configurations config) {
+        synchronized (lock) {
+            if (configured) {
+                return;
+            }
+            configured = true;
+            String[] names = config.getStringArray(CF_CODECS);
+            if (names == null) {
+                return;
+            }
+            for (int i = 0; i < names.length; i++) {
+                register(FIRST_CONFIG_TAG + i, newCodec(names[i].trim()));
+            }
+        }
+    }
+
+    private static ContentCodec newCodec(String className) {
+        try {
+            return (ContentCodec) Class.forName(className)
+                .getDeclaredConstructor().newInstance();
+        } catch (Exception ex) {
+            throw new RuntimeException("Could not create codec "
+                                       + className, ex);
+        }
+    }
+
+    static Entry getEntry(Class c) {
+        return (Entry) entriesByClass.get(c);
+    }
+
+    static ContentCodec getCodec(int tag) {
+        return (ContentCodec) codecsByTag.get(new Integer(tag));
+    }
+
+    private static class IntegerCodec implements ContentCodec {
+        public Class getContentClass() {
+            return Integer.class;
+        }
+        public void write(Object o, BinaryOutput out) {
+            out.writeSignedVarInt(((Integer) o).intValue());
+        }
+        public Object read(BinaryInput in)
+            throws IOException
+        {
+            return new Integer(in.readSignedVarInt());
+        }
+    }
+
+    private static class StringCodec implements ContentCodec {
+        public Class getContentClass() {
+            return String.class;
+        }
+        public void write(Object o, BinaryOutput out) {
+            out.writeString((String) o);
+        }
+        public Object read(BinaryInput in)
+            throws IOException
+        {
+            return in.readString();
+        }
+    }
+
+    private static class IntArrayCodec implements ContentCodec {
+        public Class getContentClass() {
+            return int[].class;
+        }
+        public void write(Object o, BinaryOutput out) {
+            int[] a = (int[]) o;
+            out.writeVarInt(a.length);
+            for (int i = 0; i < a.length; i++) {
+                out.writeSignedVarInt(a[i]);
+            }
+        }
+        public Object read(BinaryInput in)
+            throws IOException
+        {
+            int[] a = new int[in.readLength()];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = in.readSignedVarInt();
+            }
+            return a;
+        }
+    }
+
+    private static class GUIDCodec implements ContentCodec {
+        public Class getContentClass() {
+            return GUID.class;
+        }
+        public void write(Object o, BinaryOutput out) {
+            GUID id = (GUID) o;
+            out.writeSignedVarInt(id.getProcess());
+            out.writeSignedVarInt(id.getTime());
+        }
+        public Object read(BinaryInput in)
+            throws IOException
+        {
+            int process = in.readSignedVarInt();
+            return new GUID(process, in.readSignedVarInt());
+        }
+    }
+
+    private static class ContentRBCodec implements ContentCodec {
+        public Class getContentClass() {
+            return ContentRB.class;
+        }
+        public void write(Object o, BinaryOutput out)
+            throws IOException
+        {
+            ContentRB c = (ContentRB) o;
+            out.writeObject(c.getId());
+            out.writeSignedVarInt(c.getSource());
+            out.writeProtocolId(c.getProtocolId());
+            out.writeSignedVarInt(c.getType());
+            out.writeObject(c.getContent());
+        }
+        public Object read(BinaryInput in)
+            throws IOException, ClassNotFoundException
+        {
+            GUID id = (GUID) in.readObject();
+            int source = in.readSignedVarInt();
+            Object protocolId = in.readProtocolId();
+            int type = in.readSignedVarInt();
+            Object content = in.readObject();
+            return new ContentRB(id, source, protocolId, content, type);
+        }
+    }
+
+    private static class CompressedIntSetCodec implements ContentCodec {
+        public Class getContentClass() {
+            return CompressedIntSet.class;
+        }
+        public void write(Object o, BinaryOutput out) {
+            int[] runs = ((CompressedIntSet) o).getRuns();
+            out.writeVarInt(runs.length / 2);
+            // the runs are sorted and disjoint: only the gap before
+            // each run and its length are written
+            int previous = 0;
+            for (int i = 0; i < runs.length; i += 2) {
+                out.writeVarInt(runs[i] - previous);
+                out.writeVarInt(runs[i + 1] - runs[i]);
+                previous = runs[i + 1];
+            }
+        }
+        public Object read(BinaryInput in)
+            throws IOException
+        {
+            int[] runs = new int[2 * in.readLength()];
+            int previous = 0;
+            for (int i = 0; i < runs.length; i += 2) {
+                runs[i] = previous + in.readVarInt();
+                runs[i + 1] = runs[i] + in.readVarInt();
+                previous = runs[i + 1];
+            }
+            try {
+                return CompressedIntSet.fromRuns(runs);
+            } catch (IllegalArgumentException ex) {
+                throw new StreamCorruptedException(ex.getMessage());
+            }
+        }
+    }
+
+    private static class SubsequenceCodec implements ContentCodec {
+        public Class getContentClass() {
+            return Adeliv.Subsequence.class;
+        }
+        public void write(Object o, BinaryOutput out)
+            throws IOException
+        {
+            Adeliv.Subsequence s = (Adeliv.Subsequence) o;
+            out.writeSignedVarInt(s.startPos());
+            writeList(s.getMsgs(), out);
+        }
+        public Object read(BinaryInput in)
+            throws IOException, ClassNotFoundException
+        {
+            int startPos = in.readSignedVarInt();
+            return new Adeliv.Subsequence(startPos, readList(in));
+        }
+    }
+
+    /**
+     * Writes the elements of a list. Utility for codecs.
+     */
+    public static void writeList(List list, BinaryOutput out)
+        throws IOException
+    {
+        out.writeVarInt(list.size());
+        for (Iterator it = list.iterator(); it.hasNext();) {
+            out.writeObject(it.next());
+        }
+    }
+
+    /**
+     * Reads the elements written by <code>writeList</code>
+     * into a new list. Utility for codecs.
+     */
+    public static List readList(BinaryInput in)
+        throws IOException, ClassNotFoundException
+    {
+        int size = in.readLength();
+        List list = new ArrayList(size);
+        for (int i = 0; i < size; i++) {
+            list.add(in.readObject());
+        }
+        return list;
+    }
+
+}
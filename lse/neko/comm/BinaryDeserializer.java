@@ -0,0 +1,81 @@
+package lse.neko.comm;
+
+// java imports:
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// lse.neko imports:
+import lse.neko.NekoMessage;
+import lse.neko.util.logging.NekoLogger;
+
+
+/**
+ * Reads NekoMessages written by a <code>BinarySerializer</code>,
+ * from a stream or from buffers.
+ *
+ * @see BinarySerializerFactory
+ */
+public class BinaryDeserializer
+    implements Deserializer, BufferDeserializer
+{
+
+    BinaryDeserializer(InputStream is) {
+        this.is = new DataInputStream(is);
+    }
+
+    /**
+     * Creates a deserializer that only reads from buffers.
+     */
+    BinaryDeserializer() {
+        this.is = null;
+    }
+
+    private final DataInputStream is;
+
+    private final BinaryInput in = new BinaryInput();
+
+    /**
+     * Holds the message being read. Grows if necessary.
+     */
+    private byte[] bytes = new byte[BinaryOutput.DEFAULT_CAPACITY];
+
+    public NekoMessage readMessage()
+        throws IOException, ClassNotFoundException
+    {
+        logger.fine("reading");
+        int length = is.readInt();
+        if (length < 0) {
+            throw new StreamCorruptedException("Invalid length " + length);
+        }
+        if (length > bytes.length) {
+            bytes = new byte[Math.max(length, 2 * bytes.length)];
+        }
+        is.readFully(bytes, 0, length);
+        in.setBuffer(ByteBuffer.wrap(bytes, 0, length));
+        NekoMessage m = in.readMessage();
+        if (in.getBuffer().hasRemaining()) {
+            throw new StreamCorruptedException("Extra bytes after message");
+        }
+        logger.log(Level.FINE, "read {0}", m);
+        return m;
+    }
+
+    public NekoMessage readMessage(ByteBuffer buffer)
+        throws IOException, ClassNotFoundException
+    {
+        in.setBuffer(buffer);
+        NekoMessage m = in.readFramedMessage();
+        if (m != null) {
+            logger.log(Level.FINE, "read {0}", m);
+        }
+        return m;
+    }
+
+    private static final Logger logger =
+        NekoLogger.getLogger(BinaryDeserializer.class.getName());
+}
@@ -0,0 +1,261 @@
+package lse.neko.comm;
+
+// java imports:
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// lse.neko imports:
+import lse.neko.NekoMessage;
+import lse.neko.util.ProcessSets;
+
+
+/**
+ * Reads NekoMessages and their contents in the binary message
+ * format from a <code>ByteBuffer</code>.
+ * Must read the messages written by one <code>BinaryOutput</code>,
+ * in the order they were written.
+ * Truncated input results in a <code>StreamCorruptedException</code>.
+ *
+ * @see BinaryOutput
+ */
+public class BinaryInput {
+
+    private ByteBuffer buffer;
+
+    /**
+     * Protocol IDs, indexed by their number.
+     */
+    private final List protocolIds = new ArrayList();
+
+    /**
+     * Scratch buffer for the destinations of a message.
+     */
+    private int[] toBuffer = new int[16];
+
+    public BinaryInput() {
+        buffer = null;
+    }
+
+    /**
+     * Sets the buffer to read from. Bytes are read from
+     * the position of the buffer up to its limit.
+     */
+    public void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int readByte()
+        throws IOException
+    {
+        try {
+            return buffer.get();
+        } catch (BufferUnderflowException ex) {
+            throw truncated();
+        }
+    }
+
+    public void readBytes(byte[] b, int off, int len)
+        throws IOException
+    {
+        try {
+            buffer.get(b, off, len);
+        } catch (BufferUnderflowException ex) {
+            throw truncated();
+        }
+    }
+
+    public int readFixedInt()
+        throws IOException
+    {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException ex) {
+            throw truncated();
+        }
+    }
+
+    public int readVarInt()
+        throws IOException
+    {
+        int r = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            r |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return r;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable length int");
+    }
+
+    public int readSignedVarInt()
+        throws IOException
+    {
+        int i = readVarInt();
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    public long readSignedVarLong()
+        throws IOException
+    {
+        long r = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            r |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (r >>> 1) ^ -(r & 1);
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable length long");
+    }
+
+    public double readDouble()
+        throws IOException
+    {
+        try {
+            return buffer.getDouble();
+        } catch (BufferUnderflowException ex) {
+            throw truncated();
+        }
+    }
+
+    public boolean readBoolean()
+        throws IOException
+    {
+        return readByte() != 0;
+    }
+
+    /**
+     * Reads a length written before an array or a string.
+     */
+    public int readLength()
+        throws IOException
+    {
+        int length = readVarInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new StreamCorruptedException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    public String readString()
+        throws IOException
+    {
+        int length = readLength();
+        byte[] b = new byte[length];
+        readBytes(b, 0, length);
+        try {
+            return new String(b, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException("UTF-8 not supported", ex);
+        }
+    }
+
+    public Object readObject()
+        throws IOException, ClassNotFoundException
+    {
+        int tag = readVarInt();
+        if (tag == BinaryCodecRegistry.NULL_TAG) {
+            return null;
+        } else if (tag == BinaryCodecRegistry.JAVA_TAG) {
+            int length = readLength();
+            byte[] b = new byte[length];
+            readBytes(b, 0, length);
+            ObjectInputStream is =
+                new ObjectInputStream(new ByteArrayInputStream(b));
+            return is.readObject();
+        }
+        ContentCodec codec = BinaryCodecRegistry.getCodec(tag);
+        if (codec == null) {
+            throw new StreamCorruptedException("Unknown tag " + tag);
+        }
+        return codec.read(this);
+    }
+
+    public Object readProtocolId()
+        throws IOException, ClassNotFoundException
+    {
+        int number = readVarInt();
+        if (number == 0) {
+            Object id = readObject();
+            protocolIds.add(id);
+            return id;
+        }
+        if (number > protocolIds.size()) {
+            throw new StreamCorruptedException("Unknown protocol ID number "
+                                               + number);
+        }
+        return protocolIds.get(number - 1);
+    }
+
+    public NekoMessage readMessage()
+        throws IOException, ClassNotFoundException
+    {
+        int from = readSignedVarInt();
+        int toLength = readLength();
+        if (toBuffer.length < toLength) {
+            toBuffer = new int[toLength];
+        }
+        for (int i = 0; i < toLength; i++) {
+            toBuffer[i] = readVarInt();
+        }
+        int[] to = ProcessSets.intern(toBuffer, toLength);
+        int type = readSignedVarInt();
+        Object protocolId = readProtocolId();
+        Object content = readObject();
+        return new NekoMessage(from, to, protocolId, content, type);
+    }
+
+    /**
+     * Reads a NekoMessage written by
+     * <code>BinaryOutput.writeFramedMessage</code>.
+     * Returns <code>null</code> and leaves the buffer unchanged
+     * if the buffer does not contain the whole message yet.
+     */
+    public NekoMessage readFramedMessage()
+        throws IOException, ClassNotFoundException
+    {
+        int start = buffer.position();
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int length = buffer.getInt(start);
+        if (length < 0) {
+            throw new StreamCorruptedException("Invalid length " + length);
+        }
+        if (buffer.remaining() - 4 < length) {
+            return null;
+        }
+        int end = start + 4 + length;
+        int limit = buffer.limit();
+        buffer.position(start + 4);
+        buffer.limit(end);
+        try {
+            NekoMessage m = readMessage();
+            if (buffer.hasRemaining()) {
+                throw new StreamCorruptedException("Extra bytes "
+                                                   + "after message");
+            }
+            return m;
+        } finally {
+            buffer.limit(limit);
+            buffer.position(end);
+        }
+    }
+
+    private static StreamCorruptedException truncated() {
+        return new StreamCorruptedException("Truncated message");
+    }
+
+}
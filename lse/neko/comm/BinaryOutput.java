@@ -0,0 +1,290 @@
+package lse.neko.comm;
+
+// java imports:
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// lse.neko imports:
+import lse.neko.NekoMessage;
+import lse.neko.util.NoCopyByteArrayOutputStream;
+
+
+/**
+ * Writes NekoMessages and their contents in the binary message
+ * format into a <code>ByteBuffer</code>.
+ * Integers are written as variable length integers, and objects
+ * are written by the codec registered for their class, or by Java
+ * serialization if there is no such codec.
+ * <p>
+ * Protocol IDs are interned: the first message with a given
+ * protocol ID carries the ID, later messages only carry a small
+ * number. Hence a <code>BinaryOutput</code> must write to exactly
+ * one <code>BinaryInput</code>, and messages must be read in the
+ * order they were written.
+ * <p>
+ * The output either grows a heap buffer of its own, or writes
+ * into a buffer supplied by the caller, which does not grow.
+ *
+ * @see BinaryInput
+ * @see BinaryCodecRegistry
+ */
+public class BinaryOutput {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private ByteBuffer buffer;
+
+    /**
+     * True if the buffer belongs to this object and can be
+     * replaced by a larger one when it is full.
+     */
+    private boolean growable;
+
+    /**
+     * Maps protocol IDs to their number.
+     */
+    private final Map protocolIds = new HashMap();
+
+    /**
+     * Protocol IDs, indexed by their number. Needed to forget the IDs
+     * interned by a message that did not fit into the buffer.
+     */
+    private final List protocolIdList = new ArrayList();
+
+    /**
+     * Creates an output that writes into a growing buffer
+     * of its own.
+     */
+    public BinaryOutput() {
+        buffer = ByteBuffer.allocate(DEFAULT_CAPACITY);
+        growable = true;
+    }
+
+    /**
+     * Makes the output write into the given buffer, from its
+     * position up to its limit. The buffer does not grow.
+     */
+    public void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        growable = false;
+    }
+
+    /**
+     * Returns the buffer that is written. The bytes written so far
+     * end at the position of the buffer.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Discards the bytes written and prepares writing into
+     * the own buffer of this object, from position 0.
+     */
+    public void clear() {
+        if (!growable) {
+            buffer = ByteBuffer.allocate(DEFAULT_CAPACITY);
+            growable = true;
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Makes sure that <code>n</code> more bytes can be written.
+     *
+     * @throws BufferOverflowException if the buffer cannot
+     * be grown.
+     */
+    private void ensure(int n) {
+        if (buffer.remaining() >= n) {
+            return;
+        }
+        if (!growable) {
+            throw new BufferOverflowException();
+        }
+        int capacity = Math.max(2 * buffer.capacity(),
+                                buffer.position() + n);
+        ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+
+    public void writeByte(int b) {
+        ensure(1);
+        buffer.put((byte) b);
+    }
+
+    public void writeBytes(byte[] b, int off, int len) {
+        ensure(len);
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * Writes an int in 4 bytes.
+     */
+    public void writeFixedInt(int i) {
+        ensure(4);
+        buffer.putInt(i);
+    }
+
+    /**
+     * Writes an int in 1 to 5 bytes. Small non-negative ints
+     * take the least space.
+     */
+    public void writeVarInt(int i) {
+        ensure(5);
+        while ((i & ~0x7f) != 0) {
+            buffer.put((byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        buffer.put((byte) i);
+    }
+
+    /**
+     * Writes an int in 1 to 5 bytes. Ints with a small absolute
+     * value take the least space.
+     */
+    public void writeSignedVarInt(int i) {
+        writeVarInt((i << 1) ^ (i >> 31));
+    }
+
+    /**
+     * Writes a long in 1 to 10 bytes. Longs with a small absolute
+     * value take the least space.
+     */
+    public void writeSignedVarLong(long l) {
+        l = (l << 1) ^ (l >> 63);
+        ensure(10);
+        while ((l & ~0x7fL) != 0) {
+            buffer.put((byte) ((l & 0x7f) | 0x80));
+            l >>>= 7;
+        }
+        buffer.put((byte) l);
+    }
+
+    public void writeDouble(double d) {
+        ensure(8);
+        buffer.putDouble(d);
+    }
+
+    public void writeBoolean(boolean b) {
+        writeByte(b ? 1 : 0);
+    }
+
+    public void writeString(String s) {
+        byte[] b;
+        try {
+            b = s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException("UTF-8 not supported", ex);
+        }
+        writeVarInt(b.length);
+        writeBytes(b, 0, b.length);
+    }
+
+    /**
+     * Writes an object, which might be <code>null</code>.
+     */
+    public void writeObject(Object o)
+        throws IOException
+    {
+        if (o == null) {
+            writeVarInt(BinaryCodecRegistry.NULL_TAG);
+            return;
+        }
+        BinaryCodecRegistry.Entry entry =
+            BinaryCodecRegistry.getEntry(o.getClass());
+        if (entry != null) {
+            writeVarInt(entry.tag);
+            entry.codec.write(o, this);
+        } else {
+            writeVarInt(BinaryCodecRegistry.JAVA_TAG);
+            NoCopyByteArrayOutputStream bytes =
+                new NoCopyByteArrayOutputStream();
+            ObjectOutputStream os = new ObjectOutputStream(bytes);
+            os.writeObject(o);
+            os.close();
+            writeVarInt(bytes.getCount());
+            writeBytes(bytes.getBuf(), 0, bytes.getCount());
+        }
+    }
+
+    /**
+     * Writes a protocol ID. Only the first occurrence of
+     * each ID is written in full.
+     */
+    public void writeProtocolId(Object id)
+        throws IOException
+    {
+        Integer number = (Integer) protocolIds.get(id);
+        if (number != null) {
+            writeVarInt(number.intValue() + 1);
+        } else {
+            writeVarInt(0);
+            writeObject(id);
+            protocolIds.put(id, new Integer(protocolIdList.size()));
+            protocolIdList.add(id);
+        }
+    }
+
+    /**
+     * Writes a NekoMessage.
+     */
+    public void writeMessage(NekoMessage m)
+        throws IOException
+    {
+        writeSignedVarInt(m.getSource());
+        int[] to = m.getDestinations();
+        writeVarInt(to.length);
+        for (int i = 0; i < to.length; i++) {
+            writeVarInt(to[i]);
+        }
+        writeSignedVarInt(m.getType());
+        writeProtocolId(m.getProtocolId());
+        writeObject(m.getContent());
+    }
+
+    /**
+     * Writes a NekoMessage preceded by its length in 4 bytes.
+     * If the message cannot be written, e.g., because the buffer
+     * cannot hold it or because its content cannot be serialized,
+     * the output is left as it was before the call, so that the
+     * caller can retry with another buffer or go on with other
+     * messages.
+     *
+     * @throws BufferOverflowException if the buffer cannot hold
+     * the message and cannot be grown.
+     */
+    public void writeFramedMessage(NekoMessage m)
+        throws IOException
+    {
+        int start = buffer.position();
+        int interned = protocolIdList.size();
+        boolean written = false;
+        try {
+            writeFixedInt(0);
+            writeMessage(m);
+            written = true;
+        } finally {
+            if (!written) {
+                // no partial frame, and no protocol ID that the
+                // reader will never see
+                buffer.position(start);
+                while (protocolIdList.size() > interned) {
+                    protocolIds.remove(protocolIdList
+                                       .remove(protocolIdList.size() - 1));
+                }
+            }
+        }
+        buffer.putInt(start, buffer.position() - start - 4);
+    }
+
+}
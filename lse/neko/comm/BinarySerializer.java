@@ -0,0 +1,65 @@
+package lse.neko.comm;
+
+// java imports:
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// lse.neko imports:
+import lse.neko.NekoMessage;
+import lse.neko.util.logging.NekoLogger;
+
+
+/**
+ * Writes NekoMessages in the binary message format.
+ * Each message is encoded, preceded by its length, either
+ * into a buffer that is written to the underlying stream in one piece,
+ * or directly into a buffer supplied by the caller.
+ *
+ * @see BinarySerializerFactory
+ */
+public class BinarySerializer
+    implements Serializer, BufferSerializer
+{
+
+    BinarySerializer(OutputStream os) {
+        this.os = os;
+    }
+
+    /**
+     * Creates a serializer that only writes into buffers.
+     */
+    BinarySerializer() {
+        this(null);
+    }
+
+    private final OutputStream os;
+
+    private final BinaryOutput out = new BinaryOutput();
+
+    public void writeMessage(NekoMessage m)
+        throws IOException
+    {
+        logger.log(Level.FINE, "writing {0}", m);
+        out.clear();
+        out.writeFramedMessage(m);
+        ByteBuffer buffer = out.getBuffer();
+        os.write(buffer.array(), 0, buffer.position());
+        os.flush();
+        logger.log(Level.FINE, "wrote {0}", m);
+    }
+
+    public void writeMessage(NekoMessage m, ByteBuffer buffer)
+        throws IOException
+    {
+        logger.log(Level.FINE, "writing {0}", m);
+        out.setBuffer(buffer);
+        out.writeFramedMessage(m);
+        logger.log(Level.FINE, "wrote {0}", m);
+    }
+
+    private static final Logger logger =
+        NekoLogger.getLogger(BinarySerializer.class.getName());
+}
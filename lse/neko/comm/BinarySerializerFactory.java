@@ -0,0 +1,54 @@
+package lse.neko.comm;
+
+// java imports:
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// lse.neko imports:
+import lse.neko.NekoSystem;
+
+
+/**
+ * Creates serializers for a compact binary message format.
+ * The header of a message is written with variable length integers,
+ * the protocol ID is only written in full once per stream, and the
+ * content is encoded by the codecs of <code>BinaryCodecRegistry</code>,
+ * falling back to Java serialization for other classes.
+ * Unlike Java serialization, objects referenced several times
+ * are written several times.
+ * <p>
+ * Selected with the <code>serializer</code> config file entry.
+ * Supports both streams and buffers.
+ *
+ * @see Config#CF_SERIALIZER
+ */
+public class BinarySerializerFactory
+    implements SerializerFactory, BufferSerializerFactory
+{
+
+    public BinarySerializerFactory() {
+        BinaryCodecRegistry.configure(NekoSystem.instance().getConfig());
+    }
+
+    public Serializer createSerializer(OutputStream osUnderlying)
+        throws IOException
+    {
+        return new BinarySerializer(osUnderlying);
+    }
+
+    public Deserializer createDeserializer(InputStream isUnderlying)
+        throws IOException
+    {
+        return new BinaryDeserializer(isUnderlying);
+    }
+
+    public BufferSerializer createBufferSerializer() {
+        return new BinarySerializer();
+    }
+
+    public BufferDeserializer createBufferDeserializer() {
+        return new BinaryDeserializer();
+    }
+
+}
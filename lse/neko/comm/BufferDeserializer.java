@@ -0,0 +1,27 @@
+package lse.neko.comm;
+
+// java imports:
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// lse.neko imports:
+import lse.neko.NekoMessage;
+
+
+/**
+ * Reads NekoMessages written by a <code>BufferSerializer</code>
+ * from <code>ByteBuffer</code>s. One deserializer per connection.
+ *
+ * @see BufferSerializerFactory
+ */
+public interface BufferDeserializer {
+
+    /**
+     * Reads a message from the position of the buffer and advances
+     * the position. Returns <code>null</code> and leaves the buffer
+     * unchanged if the buffer does not contain a whole message.
+     */
+    NekoMessage readMessage(ByteBuffer buffer)
+        throws IOException, ClassNotFoundException;
+
+}
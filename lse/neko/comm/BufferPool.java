@@ -0,0 +1,137 @@
+package lse.neko.comm;
+
+// java imports:
+import java.nio.ByteBuffer;
+
+// lse.neko imports:
+import lse.neko.NekoSystem;
+
+// other imports:
+import org.apache.java.util.Configurations;
+
+
+/**
+ * Pool of direct <code>ByteBuffer</code>s of the same size.
+ * Direct buffers can be passed to socket channels without
+ * an intermediate copy, but they are expensive to allocate and
+ * are only freed by the garbage collector, so networks should reuse them.
+ * <p>
+ * The pool keeps at most a given number of free buffers; buffers
+ * released beyond that are left to the garbage collector.
+ */
+public class BufferPool {
+
+    /**
+     * Config file entry for the size of pooled buffers, in bytes.
+     */
+    public static final String CF_BUFFER_SIZE = "bufferPool.bufferSize";
+
+    /**
+     * Config file entry for the maximum number of free buffers
+     * kept by a pool.
+     */
+    public static final String CF_MAX_FREE = "bufferPool.maxFree";
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_MAX_FREE = 64;
+
+    private static BufferPool defaultPool = null;
+
+    /**
+     * Returns a pool shared by all networks of this JVM,
+     * configured as specified in the config file.
+     */
+    public static synchronized BufferPool getDefault() {
+        if (defaultPool == null) {
+            Configurations config = NekoSystem.instance().getConfig();
+            defaultPool =
+                new BufferPool(config.getInteger(CF_BUFFER_SIZE,
+                                                 DEFAULT_BUFFER_SIZE),
+                               config.getInteger(CF_MAX_FREE,
+                                                 DEFAULT_MAX_FREE));
+        }
+        return defaultPool;
+    }
+
+    public BufferPool(int bufferSize, int maxFree) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size "
+                                               + bufferSize);
+        }
+        if (maxFree < 0) {
+            throw new IllegalArgumentException("Invalid maximum number "
+                                               + "of free buffers "
+                                               + maxFree);
+        }
+        this.bufferSize = bufferSize;
+        free = new ByteBuffer[maxFree];
+    }
+
+    private final int bufferSize;
+
+    /**
+     * Stack of free buffers.
+     */
+    private final ByteBuffer[] free;
+
+    private int freeCount = 0;
+
+    /**
+     * Number of buffers allocated so far.
+     */
+    private long allocated = 0;
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns a cleared buffer. The buffer should be given back
+     * with <code>release</code> when it is no longer used.
+     */
+    public ByteBuffer acquire() {
+        synchronized (this) {
+            if (freeCount > 0) {
+                freeCount--;
+                ByteBuffer buffer = free[freeCount];
+                free[freeCount] = null;
+                return buffer;
+            }
+            allocated++;
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Gives back a buffer obtained with <code>acquire</code>.
+     * The caller must not use the buffer afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer not from this pool");
+        }
+        buffer.clear();
+        synchronized (this) {
+            if (freeCount < free.length) {
+                free[freeCount] = buffer;
+                freeCount++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of buffers allocated so far.
+     */
+    public synchronized long getAllocatedCount() {
+        return allocated;
+    }
+
+    /**
+     * Returns the number of free buffers in the pool.
+     */
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+
+}
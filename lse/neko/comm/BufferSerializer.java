@@ -0,0 +1,30 @@
+package lse.neko.comm;
+
+// java imports:
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// lse.neko imports:
+import lse.neko.NekoMessage;
+
+
+/**
+ * Writes NekoMessages into <code>ByteBuffer</code>s, for networks
+ * that do not use streams. One serializer per connection.
+ *
+ * @see BufferSerializerFactory
+ */
+public interface BufferSerializer {
+
+    /**
+     * Writes a message, with its framing, at the position of
+     * the buffer and advances the position.
+     *
+     * @throws java.nio.BufferOverflowException if the message does not
+     * fit into the buffer. The buffer is left unchanged, so the caller
+     * can send out the buffer and try again.
+     */
+    void writeMessage(NekoMessage m, ByteBuffer buffer)
+        throws IOException;
+
+}
@@ -0,0 +1,16 @@
+package lse.neko.comm;
+
+
+/**
+ * Factory for serializers that work on <code>ByteBuffer</code>s
+ * rather than streams. Serializer factories implement this interface
+ * in addition to <code>SerializerFactory</code> if they support
+ * networks based on buffers.
+ */
+public interface BufferSerializerFactory {
+
+    BufferSerializer createBufferSerializer();
+
+    BufferDeserializer createBufferDeserializer();
+
+}
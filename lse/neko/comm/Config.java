@@ -37,6 +37,32 @@ public class Config
     public static final String CF_NUMPROC = "process.num";
     public static final String CF_MASTER = "master";
 
+    /**
+     * Config file entry for the class name of the
+     * <code>SerializerFactory</code> used by networks.
+     * <code>JavaSerializerFactory</code> by default.
+     */
+    public static final String CF_SERIALIZER = "serializer";
+
+    /**
+     * @return a new serializer factory of the class given
+     * in the configuration.
+     * @see #CF_SERIALIZER
+     */
+    public SerializerFactory getSerializerFactory() {
+        String className =
+            config.getString(CF_SERIALIZER,
+                             JavaSerializerFactory.class.getName());
+        try {
+            Class theClass = Class.forName(className);
+            return (SerializerFactory)
+                theClass.getDeclaredConstructor().newInstance();
+        } catch (Exception ex) {
+            throw new RuntimeException("Cannot create serializer factory "
+                                       + "of type " + className, ex);
+        }
+    }
+
     /**
      * @return the embedded full configuration.
      */
@@ -0,0 +1,36 @@
+package lse.neko.comm;
+
+// java imports:
+import java.io.IOException;
+
+
+/**
+ * Encodes and decodes objects of one class for the binary
+ * message format. Implementations must have a public constructor
+ * without arguments, and must be registered with the same tag
+ * in all processes.
+ *
+ * @see BinaryCodecRegistry
+ * @see BinarySerializerFactory
+ */
+public interface ContentCodec {
+
+    /**
+     * Returns the class of the objects handled by this codec.
+     * Objects of subclasses are not handled.
+     */
+    Class getContentClass();
+
+    /**
+     * Writes an object of the content class.
+     */
+    void write(Object o, BinaryOutput out)
+        throws IOException;
+
+    /**
+     * Reads an object written by <code>write</code>.
+     */
+    Object read(BinaryInput in)
+        throws IOException, ClassNotFoundException;
+
+}
@@ -11,6 +11,7 @@ import java.util.logging.Logger;
 
 // lse.neko imports:
 import lse.neko.NekoMessage;
+import lse.neko.util.ProcessSets;
 import lse.neko.util.logging.NekoLogger;
 
 
@@ -53,10 +54,13 @@ public class JavaDeserializer implements Deserializer {
         // Custom deserialization for NekoMessage
         int from = is.readInt();
         int toLength = is.readInt();
-        int[] to = new int[toLength];
+        if (toBuffer.length < toLength) {
+            toBuffer = new int[toLength];
+        }
         for (int i = 0; i < toLength; i++) {
-            to[i] = is.readInt();
+            toBuffer[i] = is.readInt();
         }
+        int[] to = ProcessSets.intern(toBuffer, toLength);
         int type = is.readInt();
         Object protocolId = is.readObject();
         Object content = is.readObject();
@@ -69,6 +73,11 @@ public class JavaDeserializer implements Deserializer {
 
     private ObjectInput is;
 
+    /**
+     * Scratch buffer for the destinations of a message.
+     */
+    private int[] toBuffer = new int[16];
+
     private static final Logger logger =
         NekoLogger.getLogger(JavaDeserializer.class.getName());
 }
@@ -10,6 +10,7 @@ import lse.neko.NekoMessage;
 import lse.neko.NekoProcess;
 import lse.neko.ReceiverInterface;
 import lse.neko.SenderInterface;
+import lse.neko.util.ProcessSets;
 import lse.neko.util.Timer;
 import lse.neko.util.TimerTask;
 import lse.neko.util.logging.NekoLogger;
@@ -46,7 +47,7 @@ public class RingHeartbeat
      */
     protected void sendHeartbeat() {
         NekoMessage m =
-            new NekoMessage(new int[]{successor},
+            new NekoMessage(ProcessSets.singleton(successor),
                             getId(),
                             null,
                             MessageTypeConst.FD_I_M_ALIVE);
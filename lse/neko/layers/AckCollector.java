@@ -2,8 +2,6 @@ package lse.neko.layers;
 
 // java imports:
 import java.util.Arrays;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.logging.Logger;
 
 // lse.neko imports:
@@ -25,8 +23,13 @@ import lse.neko.util.logging.NekoLogger;
  * @author Ilya Shnaiderman
  */
 public class AckCollector {
-    // maps a receiver to the seq. number of the last acknowledge message.
-    private Map acks;
+    // seq. number of the last acknowledge message, indexed by receiver.
+    // Valid for the receivers marked in hasAcked.
+    private int[] acks = new int[0];
+    private boolean[] hasAcked = new boolean[0];
+
+    // number of receivers that acknowledged a message
+    private int numberOfReceivers = 0;
 
     // seq. number of a message that has been acknowledged by
     // required number of receivers.
@@ -48,52 +51,60 @@ public class AckCollector {
 
     // constructor
     public AckCollector(int requiredAcksNumber) {
-        acks = new LinkedHashMap();
         this.requiredAcksNumber = requiredAcksNumber;
     }
 
     /**
      * Adds an ack from receiver receiver to message with seqNum.
      */
-    public boolean addAckFrom(int receiver, int seqNum) {
-        return addAckFrom(new Integer(receiver), new Integer(seqNum));
+    public boolean addAckFrom(Object receiver, Integer seq) {
+        return addAckFrom(((Integer) receiver).intValue(), seq.intValue());
     }
 
     /**
      * Adds an ack from receiver receiver to message with seqNum.
      */
-    public boolean addAckFrom(Object receiver, Integer seq) {
+    public boolean addAckFrom(int receiver, int seq) {
 
-        if ((((Integer) receiver).intValue()) < 0) {
+        if (receiver < 0) {
             throw new IllegalArgumentException();
         }
-        Integer prevValue = (Integer) acks.get(receiver);
+        if (receiver >= acks.length) {
+            int length = Math.max(receiver + 1, 2 * acks.length);
+            int[] newAcks = new int[length];
+            System.arraycopy(acks, 0, newAcks, 0, acks.length);
+            acks = newAcks;
+            boolean[] newHasAcked = new boolean[length];
+            System.arraycopy(hasAcked, 0, newHasAcked, 0, hasAcked.length);
+            hasAcked = newHasAcked;
+        }
 
         // logger.finest("Received ack from: "
         //               + receiver + " to message " + seq);
 
         // is it something new?
-        if ((prevValue != null) && (prevValue.compareTo(seq) > 0)) {
+        if (hasAcked[receiver] && acks[receiver] > seq) {
             return false; // it is an old ack
         }
 
-        acks.put(receiver, seq);
+        // is it one of the outsiders?
+        int p;
+        if (!hasAcked[receiver]) {
+            p = -1;
+            hasAcked[receiver] = true;
+            numberOfReceivers++;
+        } else {
+            p = acks[receiver];
+        }
+        acks[receiver] = seq;
 
         // do we have enough acks?
-        if (acks.size() < requiredAcksNumber) {
+        if (numberOfReceivers < requiredAcksNumber) {
             return false;
         }
 
-        // is it one of the outsiders?
-        int p, s;
-        if (prevValue == null) {
-            p = -1;
-        } else {
-            p = prevValue.intValue();
-        }
-        s = seq.intValue();
         // at least one of the slowest processors advanced
-        if (p <= limit && s > limit) {
+        if (p <= limit && seq > limit) {
             numberOfOutsiders--;
             if (numberOfOutsiders <= 0) { // ok let's check the limit
                 return recalculateLimit();
@@ -103,26 +114,29 @@ public class AckCollector {
         return false;
     }
 
-    // calculates @limit according to information in the @acks map.
+    // calculates @limit according to information in the @acks array.
     private boolean recalculateLimit() {
 
-        Object []array = acks.values().toArray();
+        int[] array = new int[numberOfReceivers];
+        int len = 0;
+        for (int i = 0; i < acks.length; i++) {
+            if (hasAcked[i]) {
+                array[len++] = acks[i];
+            }
+        }
         Arrays.sort(array);
 
-        int len = array.length;
+        int newLimit = array[len - requiredAcksNumber];
 
-        Integer newLimit =
-            (Integer) array[len - requiredAcksNumber];
-
-        if (newLimit.intValue() <= limit) {
+        if (newLimit <= limit) {
             return false;
         }
 
-        limit = newLimit.intValue();
+        limit = newLimit;
         numberOfOutsiders = 0;
 
         for (int i = len - requiredAcksNumber; i < len; i++) {
-            if (newLimit.compareTo(array[i]) == 0) {
+            if (newLimit == array[i]) {
                 numberOfOutsiders++;
             } else {
                 break;
@@ -140,4 +154,3 @@ public class AckCollector {
         return limit;
     }
 } // end of class AckCollector
-
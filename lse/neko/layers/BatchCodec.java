@@ -0,0 +1,52 @@
+package lse.neko.layers;
+
+// java imports:
+import java.io.IOException;
+
+// lse.neko imports:
+import lse.neko.comm.BinaryInput;
+import lse.neko.comm.BinaryOutput;
+import lse.neko.comm.ContentCodec;
+
+
+/**
+ * Encodes the content of <code>BATCH</code> messages for the binary
+ * message format. The protocol IDs of the batched messages are
+ * interned like the protocol IDs of ordinary messages.
+ *
+ * @see BatchingLayer
+ */
+public class BatchCodec implements ContentCodec {
+
+    public Class getContentClass() {
+        return BatchingLayer.BatchContent.class;
+    }
+
+    public void write(Object o, BinaryOutput out)
+        throws IOException
+    {
+        BatchingLayer.BatchContent batch = (BatchingLayer.BatchContent) o;
+        out.writeVarInt(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            out.writeProtocolId(batch.getProtocolId(i));
+            out.writeSignedVarInt(batch.getType(i));
+            out.writeObject(batch.getContent(i));
+        }
+    }
+
+    public Object read(BinaryInput in)
+        throws IOException, ClassNotFoundException
+    {
+        int size = in.readLength();
+        Object[] protocolIds = new Object[size];
+        Object[] contents = new Object[size];
+        int[] types = new int[size];
+        for (int i = 0; i < size; i++) {
+            protocolIds[i] = in.readProtocolId();
+            types[i] = in.readSignedVarInt();
+            contents[i] = in.readObject();
+        }
+        return new BatchingLayer.BatchContent(protocolIds, contents, types);
+    }
+
+}
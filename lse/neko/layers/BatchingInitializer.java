@@ -0,0 +1,88 @@
+package lse.neko.layers;
+
+// lse.neko imports:
+import lse.neko.AbstractId;
+import lse.neko.NekoProcess;
+import lse.neko.NekoProcessInitializer;
+import lse.neko.NekoSystem;
+import lse.neko.ProcessSender;
+import lse.neko.SenderInterface;
+
+// other imports:
+import org.apache.java.util.Configurations;
+
+
+/**
+ * Process initializer that inserts a <code>BatchingLayer</code>
+ * between each <code>ProcessSender</code> of the process and the
+ * network, and then calls the initializer given by
+ * <code>batching.initializer</code>. Thus the protocols of the process
+ * need no change to have their messages batched.
+ * <p>
+ * Batches are delivered by the process receiver of the network to the
+ * batching layer, which passes the messages in the batch to the process
+ * receiver again. Hence message logs show the sending and the receiving
+ * of each message, with its original source, as well as of the batches,
+ * whose sending the layer logs.
+ */
+public class BatchingInitializer
+    implements NekoProcessInitializer
+{
+
+    /**
+     * Config file entry for the initializer of the protocols.
+     */
+    public static final String CF_INITIALIZER = "batching.initializer";
+
+    /**
+     * Config file entry for the maximum time a message waits
+     * in a batch.
+     */
+    public static final String CF_MAX_DELAY = "batching.maxDelay";
+
+    /**
+     * Config file entry for the maximum number of messages
+     * in a batch.
+     */
+    public static final String CF_MAX_MESSAGES = "batching.maxMessages";
+
+    public static final double DEFAULT_MAX_DELAY = 1.0;
+
+    public static final int DEFAULT_MAX_MESSAGES = 16;
+
+    private static class Id extends AbstractId {
+        public Id(Object name) {
+            super(name);
+        }
+    }
+
+    public void init(NekoProcess process, Configurations config)
+        throws Exception
+    {
+        double maxDelay = config.getDouble(CF_MAX_DELAY, DEFAULT_MAX_DELAY);
+        int maxMessages =
+            config.getInteger(CF_MAX_MESSAGES, DEFAULT_MAX_MESSAGES);
+
+        SenderInterface[] networks = NekoSystem.instance().getNetworks();
+        SenderInterface[] processSenders = process.getNetworks();
+        for (int i = 0; i < networks.length; i++) {
+            BatchingLayer layer = new BatchingLayer(maxDelay, maxMessages);
+            layer.setId(new Id("batching-" + i));
+            layer.setSender(networks[i]);
+            layer.setReceiver(process.getReceivers()[i]);
+            layer.launch();
+            ((ProcessSender) processSenders[i]).setSender(layer);
+        }
+
+        String initializer = config.getString(CF_INITIALIZER, null);
+        if (initializer == null) {
+            throw new RuntimeException("The config entry " + CF_INITIALIZER
+                                       + " is missing");
+        }
+        NekoProcessInitializer init =
+            (NekoProcessInitializer) Class.forName(initializer)
+            .getDeclaredConstructor().newInstance();
+        init.init(process, config);
+    }
+
+}
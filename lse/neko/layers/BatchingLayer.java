@@ -0,0 +1,425 @@
+package lse.neko.layers;
+
+// java imports:
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// lse.neko imports:
+import lse.neko.MessageTypes;
+import lse.neko.NekoMessage;
+import lse.neko.NekoMessageEvent;
+import lse.neko.NekoSystem;
+import lse.neko.ProcessSender;
+import lse.neko.ProtocolImpl;
+import lse.neko.ReceiverInterface;
+import lse.neko.SenderInterface;
+import lse.neko.UnexpectedMessageException;
+import lse.neko.util.TimerTask; // ambiguous with: java.util.TimerTask
+import lse.neko.util.Util;
+import lse.neko.util.logging.NekoLogger;
+
+
+/**
+ * This layer coalesces small messages sent to the same processes.
+ * Outgoing messages are accumulated per set of destinations, and are
+ * sent as one <code>BATCH</code> message when the batch holds
+ * <code>maxMessages</code> messages, or when the first message of the
+ * batch has waited <code>maxDelay</code>. A batch with a single message
+ * is sent as that message. On the receiving side, the layer unpacks
+ * batches and passes the messages to its receiver, usually the
+ * process receiver, which logs each message.
+ * <p>
+ * The layer logs the sending of batches on the <code>messages</code>
+ * logger, as the process sender does for other messages; the messages
+ * in a batch are logged by the process sender when they enter the
+ * layer. Hence the message log matches every send with its receive,
+ * both for batches and for the messages in them.
+ * <p>
+ * The layer keeps the order of the messages between each pair of
+ * processes: whenever a message has a destination in common with a
+ * waiting batch that has other destinations, that batch is sent first.
+ * <p>
+ * Batches are sent without holding the lock of the layer, so that a
+ * network that blocks on a full queue only blocks the thread that
+ * sends, while other threads go on adding messages to batches.
+ * <p>
+ * The layer keeps a histogram of batch sizes and a histogram of the
+ * time that messages wait in batches.
+ *
+ * @see BatchingInitializer
+ */
+public class BatchingLayer
+    extends ProtocolImpl
+    implements SenderInterface, ReceiverInterface
+{
+
+    public static final int BATCH = 1121;
+    static {
+        MessageTypes.instance().register(BATCH, "BATCH");
+    }
+
+    /**
+     * Number of buckets of the latency histogram.
+     */
+    public static final int LATENCY_BUCKETS = 10;
+
+    /**
+     * @param maxDelay the maximum time a message waits in a batch.
+     * @param maxMessages the maximum number of messages in a batch.
+     */
+    public BatchingLayer(double maxDelay, int maxMessages) {
+        if (!(maxDelay >= 0) || maxMessages < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.maxDelay = maxDelay;
+        this.maxMessages = maxMessages;
+        pendingByProcess = new Batch[NekoSystem.instance().getProcessNum()];
+        sizeHistogram = new long[maxMessages + 1];
+        latencyHistogram = new long[LATENCY_BUCKETS + 1];
+    }
+
+    private final double maxDelay;
+    private final int maxMessages;
+
+    private SenderInterface sender;
+
+    public void setSender(SenderInterface sender) {
+        this.sender = sender;
+    }
+
+    private ReceiverInterface receiver;
+
+    public void setReceiver(ReceiverInterface receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * The waiting batch that has a given process among
+     * its destinations, or <code>null</code>.
+     * The destinations of waiting batches are disjoint.
+     */
+    private final Batch[] pendingByProcess;
+
+    /**
+     * Number of batches sent with a given number of messages.
+     */
+    private final long[] sizeHistogram;
+
+    /**
+     * Number of messages that waited a given fraction of
+     * <code>maxDelay</code> in a batch. The last bucket counts messages
+     * that waited longer, because the timer was late.
+     */
+    private final long[] latencyHistogram;
+
+    /**
+     * Messages ready to be sent to the network, in order.
+     */
+    private final LinkedList outgoing = new LinkedList();
+
+    /**
+     * True while a thread is sending the messages in
+     * <code>outgoing</code>.
+     */
+    private boolean isSending = false;
+
+    /**
+     * Messages waiting to be sent to the same processes.
+     */
+    private class Batch {
+
+        public Batch(int[] destinations) {
+            this.destinations = destinations;
+            protocolIds = new Object[maxMessages];
+            contents = new Object[maxMessages];
+            types = new int[maxMessages];
+            messages = new NekoMessage[maxMessages];
+            times = new double[maxMessages];
+        }
+
+        final int[] destinations;
+        final Object[] protocolIds;
+        final Object[] contents;
+        final int[] types;
+        final NekoMessage[] messages;
+        final double[] times;
+        int size = 0;
+
+        final TimerTask timeout = new TimerTask() {
+                public void run() {
+                    synchronized (BatchingLayer.this) {
+                        if (pendingByProcess[destinations[0]] == Batch.this) {
+                            flush(Batch.this);
+                        }
+                    }
+                    sendOutgoing();
+                }
+            };
+
+        void add(NekoMessage m, double now) {
+            protocolIds[size] = m.getProtocolId();
+            contents[size] = m.getContent();
+            types[size] = m.getType();
+            messages[size] = m;
+            times[size] = now;
+            size++;
+        }
+    }
+
+    /**
+     * Content of <code>BATCH</code> messages.
+     */
+    public static class BatchContent
+        implements Serializable
+    {
+        private Object[] protocolIds;
+        private Object[] contents;
+        private int[] types;
+
+        public BatchContent(Object[] protocolIds,
+                            Object[] contents,
+                            int[] types)
+        {
+            if (protocolIds.length != contents.length
+                || protocolIds.length != types.length)
+            {
+                throw new IllegalArgumentException();
+            }
+            this.protocolIds = protocolIds;
+            this.contents = contents;
+            this.types = types;
+        }
+
+        public int size() {
+            return types.length;
+        }
+
+        public Object getProtocolId(int i) {
+            return protocolIds[i];
+        }
+
+        public Object getContent(int i) {
+            return contents[i];
+        }
+
+        public int getType(int i) {
+            return types[i];
+        }
+
+        public String toString() {
+            StringBuffer sb = new StringBuffer("BatchContent[");
+            for (int i = 0; i < types.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(protocolIds[i]);
+                sb.append(" ");
+                sb.append(MessageTypes.instance().getName(types[i]));
+                sb.append(" ");
+                sb.append(Util.toString(contents[i]));
+            }
+            sb.append("]");
+            return sb.toString();
+        }
+    }
+
+    public void send(NekoMessage m) {
+        synchronized (this) {
+            add(m);
+        }
+        sendOutgoing();
+    }
+
+    /**
+     * Adds a message to its batch. The caller holds the lock.
+     */
+    private void add(NekoMessage m) {
+        int[] to = m.getDestinations();
+        if (to.length == 0) {
+            outgoing.addLast(m);
+            return;
+        }
+        Batch batch = pendingByProcess[to[0]];
+        if (batch == null || !Arrays.equals(batch.destinations, to)) {
+            // send earlier messages to the same processes first
+            for (int i = 0; i < to.length; i++) {
+                Batch other = pendingByProcess[to[i]];
+                if (other != null) {
+                    flush(other);
+                }
+            }
+            batch = new Batch(to);
+            for (int i = 0; i < to.length; i++) {
+                pendingByProcess[to[i]] = batch;
+            }
+            if (maxMessages > 1) {
+                NekoSystem.instance().getTimer().schedule(batch.timeout,
+                                                          maxDelay);
+            }
+        }
+        batch.add(m, NekoSystem.instance().clock());
+        if (batch.size >= maxMessages) {
+            flush(batch);
+        }
+    }
+
+    /**
+     * Moves a waiting batch to the messages ready to be sent.
+     * The caller holds the lock.
+     */
+    private void flush(Batch batch) {
+        int[] to = batch.destinations;
+        for (int i = 0; i < to.length; i++) {
+            pendingByProcess[to[i]] = null;
+        }
+        batch.timeout.cancel();
+
+        double now = NekoSystem.instance().clock();
+        int size = batch.size;
+        sizeHistogram[size]++;
+        for (int i = 0; i < size; i++) {
+            double waited = now - batch.times[i];
+            int bucket = (maxDelay > 0)
+                ? (int) (waited / maxDelay * LATENCY_BUCKETS)
+                : LATENCY_BUCKETS;
+            latencyHistogram[Math.min(Math.max(bucket, 0),
+                                      LATENCY_BUCKETS)]++;
+        }
+
+        if (size == 1) {
+            outgoing.addLast(batch.messages[0]);
+            return;
+        }
+        Object[] protocolIds = new Object[size];
+        Object[] contents = new Object[size];
+        int[] types = new int[size];
+        System.arraycopy(batch.protocolIds, 0, protocolIds, 0, size);
+        System.arraycopy(batch.contents, 0, contents, 0, size);
+        System.arraycopy(batch.types, 0, types, 0, size);
+        // all messages come from the process above the layer
+        NekoMessage m =
+            new NekoMessage(batch.messages[0].getSource(), to, getId(),
+                            new BatchContent(protocolIds, contents, types),
+                            BATCH);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "sending batch {0}", m);
+        }
+        outgoing.addLast(m);
+    }
+
+    /**
+     * Sends all waiting batches.
+     */
+    public void flush() {
+        synchronized (this) {
+            for (int i = 0; i < pendingByProcess.length; i++) {
+                if (pendingByProcess[i] != null) {
+                    flush(pendingByProcess[i]);
+                }
+            }
+        }
+        sendOutgoing();
+    }
+
+    /**
+     * Sends the messages ready to be sent, unless another thread
+     * is sending them. Only one thread sends at a time, which keeps
+     * the order of the messages. The caller does not hold the lock.
+     */
+    private void sendOutgoing() {
+        synchronized (this) {
+            if (isSending) {
+                return;
+            }
+            isSending = true;
+        }
+        while (true) {
+            NekoMessage m;
+            synchronized (this) {
+                if (outgoing.isEmpty()) {
+                    isSending = false;
+                    return;
+                }
+                m = (NekoMessage) outgoing.removeFirst();
+            }
+            boolean isBatch = (m.getType() == BATCH);
+            if (isBatch) {
+                logMessage(Level.FINE, ProcessSender.LOG_SEND, m);
+            }
+            boolean sent = false;
+            try {
+                sender.send(m);
+                sent = true;
+            } finally {
+                if (!sent) {
+                    synchronized (this) {
+                        isSending = false;
+                    }
+                }
+            }
+            if (isBatch) {
+                logMessage(Level.FINER, ProcessSender.LOG_SEND_FINISHED, m);
+            }
+        }
+    }
+
+    /**
+     * Logs a message event the way <code>ProcessSender</code> does.
+     * Batches bypass the process sender, but the process receiver
+     * logs them on the receiving side, so the layer logs them here.
+     */
+    private static void logMessage(Level level, String event,
+                                   NekoMessage m)
+    {
+        if (messageLogger.isLoggable(level)) {
+            messageLogger.log(level,
+                              "",
+                              new Object[] {
+                                  new NekoMessageEvent(event, m)
+                              });
+        }
+    }
+
+    public void deliver(NekoMessage m) {
+        if (m.getType() != BATCH) {
+            throw new UnexpectedMessageException(m);
+        }
+        BatchContent content = (BatchContent) m.getContent();
+        for (int i = 0; i < content.size(); i++) {
+            receiver.deliver(new NekoMessage(m.getSource(),
+                                             m.getDestinations(),
+                                             content.getProtocolId(i),
+                                             content.getContent(i),
+                                             content.getType(i)));
+        }
+    }
+
+    /**
+     * Returns the number of batches sent, indexed by the number
+     * of messages in the batch.
+     */
+    public synchronized long[] getBatchSizeHistogram() {
+        return sizeHistogram.clone();
+    }
+
+    /**
+     * Returns the number of messages sent, indexed by the time they
+     * waited in a batch: bucket <code>i</code> counts waiting times
+     * between <code>i</code> and <code>i+1</code> times
+     * <code>maxDelay / LATENCY_BUCKETS</code>. The last bucket counts
+     * the waiting times of at least <code>maxDelay</code>.
+     */
+    public synchronized long[] getLatencyHistogram() {
+        return latencyHistogram.clone();
+    }
+
+    private static final Logger logger =
+        NekoLogger.getLogger(BatchingLayer.class.getName());
+
+    private static final Logger messageLogger =
+        NekoLogger.getLogger("messages");
+
+}
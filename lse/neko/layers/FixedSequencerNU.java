@@ -22,6 +22,7 @@ import lse.neko.ReceiverInterface;
 import lse.neko.SenderInterface;
 import lse.neko.UnexpectedMessageException;
 import lse.neko.util.CompressedIntSet;
+import lse.neko.util.ProcessSets;
 import lse.neko.util.logging.NekoLogger;
 
 // other imports:
@@ -126,6 +127,19 @@ public class FixedSequencerNU
      */
     protected int maxBufferSize;
 
+    /**
+     * Largest number of ORDER messages the sequencer has sent but
+     * not received yet, or 0 for no limit. Sequence numbers assigned
+     * meanwhile are sent together in the next ORDER message.
+     */
+    protected int maxOrdersInFlight;
+
+    /**
+     * Number of ORDER messages the sequencer has sent but not
+     * received yet.
+     */
+    protected int ordersInFlight;
+
     /**
      * Pointer to stable layer in order archive better performance.
      */
@@ -187,6 +201,8 @@ public class FixedSequencerNU
         Configurations config = NekoSystem.instance().getConfig();
         maxBufferSize =
             config.getInteger("FixedSequencerNU.buffer.max.size");
+        maxOrdersInFlight =
+            config.getInteger("FixedSequencerNU.inflight.max.size", 0);
 
     } // end constructor
 
@@ -269,7 +285,7 @@ public class FixedSequencerNU
         OrderedContent c1 = new OrderedContent(aSeqNum.intValue(), c);
 
         NekoMessage m = new
-            NekoMessage(new int[] { process.getID() },
+            NekoMessage(ProcessSets.singleton(process.getID()),
                         getId(), c1, SINGLE_SEQNUM);
         //logger.finest("A new aOrdered message " + c1);
 
@@ -299,7 +315,7 @@ public class FixedSequencerNU
         } // synchronized
         if (ll.size() > 0) {
             NekoMessage m = new
-                NekoMessage(new int[] { process.getID() },
+                NekoMessage(ProcessSets.singleton(process.getID()),
                             getId(), ll, SEND_SEQNUM);
             stableLayer.deliver(m);
         }
@@ -334,6 +350,7 @@ public class FixedSequencerNU
             processes = (int[]) newProcesses.clone();
             setSequencer();
             seqNum = -1;
+            ordersInFlight = 0;
             lastDelivered = -1;
             deliveredPerMember = new CompressedIntSet[process.getN()];
             int i;
@@ -412,6 +429,13 @@ public class FixedSequencerNU
     protected void sendSeqNumbers() {
         Map toSend;
         synchronized (lock) {
+            if (sequenceNumbers.isEmpty()
+                || (maxOrdersInFlight > 0
+                    && ordersInFlight >= maxOrdersInFlight))
+            {
+                return;
+            }
+            ordersInFlight++;
             toSend = sequenceNumbers;
             sequenceNumbers = new LinkedHashMap();
         } // synchronized
@@ -440,6 +464,12 @@ public class FixedSequencerNU
                     ("Amount of messages to store is too big");
             }
             arrangeMessages();
+            if (isSequencer && ordersInFlight > 0) {
+                ordersInFlight--;
+            }
+        }
+        if (isSequencer) {
+            sendSeqNumbers();
         }
     }
 
@@ -17,6 +17,7 @@ import lse.neko.NekoProcess;
 import lse.neko.NekoSystem;
 import lse.neko.UnexpectedMessageException;
 import lse.neko.util.CompressedIntSet;
+import lse.neko.util.IntWindowMap;
 import lse.neko.util.logging.NekoLogger;
 
 // other imports:
@@ -59,9 +60,9 @@ public class FixedSequencerU
     protected AcksContent acks = new AcksContent(0);
 
     /**
-     * Map from sequence numbers (Integer) to AckCollector.
+     * Map from sequence numbers to AckCollector.
      */
-    protected Map stabilityInfo;
+    protected IntWindowMap stabilityInfo;
 
     /**
      * Configurable parameters to limit number of acks to me sent in
@@ -170,7 +171,7 @@ public class FixedSequencerU
 
             receivedSeqNums = new CompressedIntSet();
             stableSeqNum = -1;
-            stabilityInfo = new LinkedHashMap();
+            stabilityInfo = new IntWindowMap();
             acks = new AcksContent(sessionId);
             acks.setSessionId(sessionId);
             super.reset(processes, sessionId);
@@ -368,11 +369,11 @@ public class FixedSequencerU
 
                 if (seqNum > stableSeqNum) {
                     AckCollector collector =
-                        (AckCollector) stabilityInfo.get(n);
+                        (AckCollector) stabilityInfo.get(seqNum);
                     if (collector == null) {
                         collector =
                             new AckCollector(getNumberOfRequiredAcks());
-                        stabilityInfo.put(n, collector);
+                        stabilityInfo.put(seqNum, collector);
                     }
 
                     collector.addAckFrom(m.getSource());
@@ -382,7 +383,7 @@ public class FixedSequencerU
             int prevStable = stableSeqNum;
 
             while (true) {
-                Integer n = new Integer(stableSeqNum + 1);
+                int n = stableSeqNum + 1;
                 AckCollector collector = (AckCollector) stabilityInfo.get(n);
                 if (collector == null) {
                     break;
@@ -49,7 +49,7 @@ public class LeakyBucket
         return sender;
     }
 
-    private NekoMessageQueue queue = new NekoMessageQueue();
+    private NekoMessageQueue queue = NekoMessageQueue.createQueue();
 
     public void send(NekoMessage m) {
         if (logger.isLoggable(Level.FINER)) {
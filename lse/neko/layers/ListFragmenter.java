@@ -24,7 +24,9 @@ import lse.neko.ReceiverInterface;
 import lse.neko.SenderInterface;
 import lse.neko.UnexpectedMessageException;
 import lse.neko.util.IntHolder;
+import lse.neko.util.IntWindowMap;
 import lse.neko.util.ObjectBuffer;
+import lse.neko.util.ProcessSets;
 import lse.neko.util.SerializableIterator;
 import lse.neko.util.Util;
 import lse.neko.util.logging.NekoLogger;
@@ -183,7 +185,7 @@ public class ListFragmenter
             this.list = list;
             this.id = id;
             this.dests = dests;
-            window = new HashMap();
+            window = new IntWindowMap(windowSize);
             synchronized (senderThreads) {
                 Object oldValue = senderThreads.put(id, this);
                 if (oldValue != null) {
@@ -202,7 +204,12 @@ public class ListFragmenter
         private Object id;
         private int[] dests;
 
-        private Map window;
+        /**
+         * Maps the number of each fragment not yet acknowledged
+         * by all destinations to the number of missing acks
+         * (IntHolder).
+         */
+        private IntWindowMap window;
 
         private NekoObjectInterface lock =
             NekoSystem.instance().createObject();
@@ -229,7 +236,7 @@ public class ListFragmenter
                         } catch (InterruptedException ex) {
                         }
                     }
-                    window.put(new Integer(fromIndex),
+                    window.put(fromIndex / fragmentSize,
                                new IntHolder(dests.length));
                 }
                 int toIndex = fromIndex + fragmentSize;
@@ -264,15 +271,15 @@ public class ListFragmenter
 
         public void deliver(NekoMessage m) {
             ListFragmentAck content = (ListFragmentAck) m.getContent();
-            Integer fromIndex = new Integer(content.getFromIndex());
-            IntHolder acks = (IntHolder) window.get(fromIndex);
+            int fragment = content.getFromIndex() / fragmentSize;
+            IntHolder acks = (IntHolder) window.get(fragment);
             acks.value--;
             if (acks.value == 0) {
                 synchronized (lock) {
                     if (window.size() >= windowSize) {
                         lock.doNotify();
                     }
-                    window.remove(fromIndex);
+                    window.remove(fragment);
                     if (window.size() <= 0) {
                         lock.doNotify();
                     }
@@ -359,7 +366,7 @@ public class ListFragmenter
                     ListFragmentAck ackContent =
                         new ListFragmentAck(id, acked);
                     NekoMessage newM =
-                        new NekoMessage(new int[] { m.getSource() },
+                        new NekoMessage(ProcessSets.singleton(m.getSource()),
                                         ListFragmenter.this.getId(),
                                         ackContent,
                                         LIST_FRAGMENT_ACK);
@@ -4,6 +4,7 @@ package lse.neko.layers;
 import lse.neko.NekoMessage;
 import lse.neko.ProtocolImpl;
 import lse.neko.SenderInterface;
+import lse.neko.util.ProcessSets;
 
 
 /**
@@ -30,9 +31,10 @@ public class NoMulticastLayer
         if (dests.length > 1) {
 
             for (int i = 0; i < dests.length; i++) {
-                int[] dest = { dests[i] };
                 NekoMessage m2 =
-                    new NekoMessage(m.getSource(), dest, m.getProtocolId(),
+                    new NekoMessage(m.getSource(),
+                                    ProcessSets.singleton(dests[i]),
+                                    m.getProtocolId(),
                                     m.getContent(), m.getType());
                 sender.send(m2);
             }
@@ -3,8 +3,6 @@ package lse.neko.layers;
 // java imports:
 import java.io.Serializable;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.logging.Logger;
 
 // lse.neko imports:
@@ -392,7 +390,6 @@ public abstract class StabilityLayer
         int[] dest;
         Content c;
         //logger.finest("Callback called");
-        List ll = new LinkedList();
 
         synchronized (lock) {
             waitForOurAck = 0;
@@ -400,24 +397,23 @@ public abstract class StabilityLayer
 
             int filled = delivered.getFilled();
 
+            int count = 0;
+            int[] ll = new int[ackWaitors.length];
             for (int i = 0; i < ackWaitors.length; i++) {
                 int p = ackWaitors[i];
                 if (lastAckThatWasSentToTheProcess[p] < filled) {
                     lastAckThatWasSentToTheProcess[p] = filled;
-                    ll.add(new Integer(p));
+                    ll[count++] = p;
                 }
             }
 
 
-            if (ll.size() == 0) {
+            if (count == 0) {
                 return; // could happend on race conditions;
             }
 
-            dest = new int[ll.size()];
-            Iterator it = ll.iterator();
-            for (int i = 0; i < dest.length; i++) {
-                dest[i] = ((Integer) (it.next())).intValue();
-            }
+            dest = new int[count];
+            System.arraycopy(ll, 0, dest, 0, count);
 
             c = new Content(null, filled, sessionId);
 
@@ -0,0 +1,95 @@
+package lse.neko.layers;
+
+// java imports:
+import java.util.ArrayList;
+import java.util.List;
+
+// lse.neko imports:
+import lse.neko.NekoMessage;
+import lse.neko.ReceiverInterface;
+import lse.neko.SenderInterface;
+import lse.neko.sim.nekosim.NekoSimSystem;
+
+// other imports:
+import org.apache.java.util.Configurations;
+import org.apache.java.util.ExtendedProperties;
+
+
+/**
+ * Unit test for <code>BatchingLayer</code>. Sends messages through
+ * a batching layer to a second batching layer that unpacks them, and
+ * checks the messages that come out.
+ */
+public class TestBatchingLayer {
+
+    public static void assertTrue(boolean condition) {
+        if (!condition) {
+            throw new RuntimeException("Test failed!");
+        }
+    }
+
+    private static final int TYPE = 1;
+    private static final int SOURCE = 0;
+    private static final int[] TO = new int[] { 1 };
+    private static final int MESSAGES = 5;
+
+    // messages that came out of the receiving layer
+    static List delivered = new ArrayList();
+
+    public static void main(String[] args) {
+
+        // initalize the system
+        ExtendedProperties properties = new ExtendedProperties();
+        properties.put("process.num", "2");
+        new NekoSimSystem(new Configurations(properties));
+
+        // three messages fill a batch, the last two are flushed
+        final BatchingLayer sending = new BatchingLayer(1.0, 3);
+        final BatchingLayer receiving = new BatchingLayer(1.0, 3);
+        sending.setSender(new SenderInterface() {
+            public void send(NekoMessage m) {
+                assertTrue(m.getType() == BatchingLayer.BATCH);
+                receiving.deliver(m);
+            }
+            public void launch() {
+            }
+            public void setId(Object id) {
+            }
+            public Object getId() {
+                return "network";
+            }
+        });
+        receiving.setReceiver(new ReceiverInterface() {
+            public void deliver(NekoMessage m) {
+                delivered.add(m);
+            }
+            public void launch() {
+            }
+            public void setId(Object id) {
+            }
+            public Object getId() {
+                return "receiver";
+            }
+        });
+
+        for (int i = 0; i < MESSAGES; i++) {
+            // the source is set by the ProcessSender above the layer
+            sending.send(new NekoMessage(SOURCE, TO, "test",
+                                         new Integer(i), TYPE));
+        }
+        assertTrue(delivered.size() == 3);
+        sending.flush();
+
+        assertTrue(delivered.size() == MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            NekoMessage m = (NekoMessage) delivered.get(i);
+            assertTrue(m.getSource() == SOURCE);
+            assertTrue(m.getDestinations()[0] == TO[0]);
+            assertTrue(m.getType() == TYPE);
+            assertTrue(m.getProtocolId().equals("test"));
+            assertTrue(m.getContent().equals(new Integer(i)));
+        }
+        System.out.println("Test successful");
+    }
+
+}
@@ -3,10 +3,8 @@ package lse.neko.layers;
 // java imports:
 import java.io.Serializable;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Logger;
 
 // lse.neko imports:
@@ -14,6 +12,7 @@ import lse.neko.MessageTypes;
 import lse.neko.NekoMessage;
 import lse.neko.NekoProcess;
 import lse.neko.NekoSystem;
+import lse.neko.util.IntWindowMap;
 import lse.neko.util.logging.NekoLogger;
 
 // other imports:
@@ -60,7 +59,7 @@ public class VSStateTransfer
     /**
      * Keeps messages that has been delivered to upper layer.
      */
-    protected Map messages = new LinkedHashMap();
+    protected IntWindowMap messages = new IntWindowMap();
 
     /**
      * Keeps message that have to be delivered when state transfer finishes.
@@ -147,7 +146,7 @@ public class VSStateTransfer
                         ("Internal Bug");
                 }
                 //logger.finest("Message #" + seqNum + " has been received");
-                messages.put(new Integer(seqNum), c);
+                messages.put(seqNum, c);
                 receiver.deliver(m);
             } else {
                 Content c = new Content(m, seqNum, view.getViewId());
@@ -192,7 +191,7 @@ public class VSStateTransfer
         for (int n = fromSeqNum; true; n++) {
             Content c;
             synchronized (lock) {
-                c = (Content) messages.get(new Integer(n));
+                c = (Content) messages.get(n);
             } // synchronized
 
             if ((c == null) || (c.getViewId() >= tillViewId)) {
@@ -299,7 +298,7 @@ public class VSStateTransfer
                     throw new RuntimeException
                         ("Internal Bug");
                 }
-                messages.put(new Integer(seqNum), newContent);
+                messages.put(seqNum, newContent);
                 receiver.deliver(c.getMessage()); // XXX: was super.deliver
             }
             suspendedMessages.clear();
@@ -349,15 +348,13 @@ public class VSStateTransfer
                 return;
             }
 
-            if (messages.put(new Integer(sn), c) != null) {
+            if (messages.put(sn, c) != null) {
                 logger.fine("It was an known message so nothing to do");
                 return;
             }
 
             // let's deliver all deliverable messages.
-            while ((c = (Content) messages.get(new Integer(seqNum + 1)))
-                   != null)
-            {
+            while ((c = (Content) messages.get(seqNum + 1)) != null) {
                 if (c.getMessage() != null) {
                     seqNum++;
                     if (!super.addMessageToDelivered(seqNum)) {
@@ -366,7 +363,7 @@ public class VSStateTransfer
                     }
                     receiver.deliver(c.getMessage());
                 } else {
-                    messages.remove(new Integer(seqNum + 1));
+                    messages.remove(seqNum + 1);
                     if (c.getRequestId() == currentRequestId) {
                         logger.fine("Finishing state transfer: " + c);
                         finishStateTransfer(currentRequestId);
@@ -406,7 +403,7 @@ public class VSStateTransfer
     protected void updateLimit(int newLimit, int prevLimitParam) {
         int prevLimit = prevLimitParam;
         while (prevLimit < newLimit) {
-            if (messages.remove(new Integer(prevLimit)) == null) {
+            if (messages.remove(prevLimit) == null) {
                 throw new RuntimeException
                     ("Can not find message in messages set " + prevLimit);
             } else {
@@ -0,0 +1,581 @@
+package lse.neko.networks.comm;
+
+// java imports:
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// lse.neko imports:
+import lse.neko.MessageTypes;
+import lse.neko.NekoMessage;
+import lse.neko.NekoMessageQueue;
+import lse.neko.NekoProcess;
+import lse.neko.NekoSystem;
+import lse.neko.NekoThread;
+import lse.neko.PullNetworkInterface;
+import lse.neko.comm.BinarySerializerFactory;
+import lse.neko.comm.BufferDeserializer;
+import lse.neko.comm.BufferPool;
+import lse.neko.comm.BufferSerializer;
+import lse.neko.comm.BufferSerializerFactory;
+import lse.neko.comm.CommNetwork;
+import lse.neko.comm.Config;
+import lse.neko.comm.SerializerFactory;
+import lse.neko.util.logging.NekoLogger;
+
+
+/**
+ * TCP network that serves all connections of a process
+ * with a single thread. The thread waits on a <code>Selector</code>
+ * for non-blocking <code>SocketChannel</code>s to every other process
+ * to become readable or writable.
+ * <p>
+ * Senders encode messages directly into pooled direct buffers of the
+ * connection, each message preceded by its length (see
+ * <code>BufferSerializer</code>). The I/O thread writes all buffers
+ * filled since its last write with a single gathering write, so
+ * messages sent in a burst share system calls and TCP segments.
+ * The I/O thread hands incoming messages, and messages to the sending
+ * process itself, to a delivery thread through an unbounded queue.
+ * The delivery thread delivers them in the order they were received on
+ * each connection. Thus a receiver that blocks, e.g., on a full
+ * bounded message queue, never stops the I/O of the network.
+ * <p>
+ * The serializer factory given by the config file is used if it
+ * supports buffers; otherwise, <code>BinarySerializerFactory</code>
+ * is used.
+ */
+public class NioTCPNetwork
+    extends CommNetwork
+{
+
+    /**
+     * Message type used during <code>init</code> to exchange
+     * the port numbers of the processes.
+     */
+    public static final int NIO_PORT = 1140;
+    static {
+        MessageTypes.instance().register(NIO_PORT, "NIO_PORT");
+    }
+
+    public NioTCPNetwork() {
+    }
+
+    private int me;
+
+    private Connection[] connections;
+
+    private Selector selector;
+
+    private BufferSerializerFactory serializerFactory;
+
+    private BufferPool pool;
+
+    private IOThread thread;
+
+    private DeliveryThread deliveryThread;
+
+    /**
+     * Messages read by the I/O thread, for the delivery thread.
+     */
+    private NekoMessageQueue deliveries;
+
+    /**
+     * Put into <code>deliveries</code> to stop the delivery thread.
+     */
+    private static final NekoMessage END_OF_DELIVERIES =
+        new NekoMessage(new int[0], null, null, 0);
+
+    /**
+     * Connections that have buffers to write. Protected by its lock.
+     */
+    private final List pendingWrites = new ArrayList();
+
+    /**
+     * Messages sent to this process. Protected by the lock
+     * of <code>pendingWrites</code>.
+     */
+    private List loopback = new ArrayList();
+
+    private volatile boolean delivering = false;
+
+    /**
+     * Set when the shutdown starts. From then on, closed connections
+     * are not reported as errors.
+     */
+    private volatile boolean closing = false;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Represents the connection with one other process.
+     */
+    private class Connection {
+
+        public Connection(int peer, SocketChannel channel) {
+            this.peer = peer;
+            this.channel = channel;
+            serializer = serializerFactory.createBufferSerializer();
+            deserializer = serializerFactory.createBufferDeserializer();
+            readBuffer = pool.acquire();
+        }
+
+        final int peer;
+        final SocketChannel channel;
+        SelectionKey key;
+
+        /*
+         * The following fields are protected by the lock on
+         * the connection object.
+         */
+        final BufferSerializer serializer;
+
+        /**
+         * Buffer being filled by senders, or <code>null</code>.
+         */
+        ByteBuffer current = null;
+
+        /**
+         * Buffers ready to be written, flipped.
+         */
+        final LinkedList filled = new LinkedList();
+
+        boolean writePending = false;
+
+        /*
+         * The following fields are only accessed by the I/O thread.
+         */
+        final BufferDeserializer deserializer;
+        ByteBuffer readBuffer;
+
+        /**
+         * Encodes a message into the buffers of the connection.
+         *
+         * @return true if the connection had nothing to write before.
+         */
+        synchronized boolean enqueue(NekoMessage m)
+            throws IOException
+        {
+            if (current == null) {
+                current = pool.acquire();
+            }
+            try {
+                serializer.writeMessage(m, current);
+            } catch (BufferOverflowException ex) {
+                if (current.position() > 0) {
+                    current.flip();
+                    filled.addLast(current);
+                    current = pool.acquire();
+                }
+                int size = current.capacity();
+                while (true) {
+                    try {
+                        serializer.writeMessage(m, current);
+                        break;
+                    } catch (BufferOverflowException ex2) {
+                        // message larger than a pooled buffer
+                        release(current);
+                        size *= 2;
+                        current = ByteBuffer.allocate(size);
+                    }
+                }
+            }
+            boolean wasIdle = !writePending;
+            writePending = true;
+            return wasIdle;
+        }
+
+        /**
+         * Writes as much as possible without blocking.
+         * Called by the I/O thread.
+         */
+        synchronized void flush()
+            throws IOException
+        {
+            if (current != null && current.position() > 0) {
+                current.flip();
+                filled.addLast(current);
+                current = null;
+            }
+            if (!filled.isEmpty()) {
+                ByteBuffer[] buffers = (ByteBuffer[])
+                    filled.toArray(new ByteBuffer[filled.size()]);
+                channel.write(buffers);
+                while (!filled.isEmpty()
+                       && !((ByteBuffer) filled.getFirst()).hasRemaining())
+                {
+                    release((ByteBuffer) filled.removeFirst());
+                }
+            }
+            writePending = !filled.isEmpty();
+            int ops = delivering ? SelectionKey.OP_READ : 0;
+            if (writePending) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        /**
+         * Reads the available messages and hands them to the delivery
+         * thread.
+         * Called by the I/O thread.
+         *
+         * @return false if the peer closed the connection.
+         */
+        boolean read()
+            throws IOException, ClassNotFoundException
+        {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                return false;
+            }
+            readBuffer.flip();
+            NekoMessage m;
+            while ((m = deserializer.readMessage(readBuffer)) != null) {
+                deliverMessage(m);
+            }
+            readBuffer.compact();
+            if (!readBuffer.hasRemaining()) {
+                // the buffer cannot hold the next message
+                ByteBuffer bigger =
+                    ByteBuffer.allocate(2 * readBuffer.capacity());
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                release(readBuffer);
+                readBuffer = bigger;
+            } else if (readBuffer.capacity() > pool.getBufferSize()
+                       && readBuffer.position() < pool.getBufferSize())
+            {
+                // the large message is gone: back to a pooled buffer
+                ByteBuffer pooled = pool.acquire();
+                readBuffer.flip();
+                pooled.put(readBuffer);
+                readBuffer = pooled;
+            }
+            return true;
+        }
+
+        /**
+         * Closes the channel and returns the buffers of the connection
+         * to the pool. Called by the I/O thread.
+         */
+        synchronized void close() {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // ignored
+            }
+            release(readBuffer);
+            readBuffer = null;
+            if (current != null) {
+                release(current);
+                current = null;
+            }
+            while (!filled.isEmpty()) {
+                release((ByteBuffer) filled.removeFirst());
+            }
+        }
+    }
+
+    private void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == pool.getBufferSize()) {
+            pool.release(buffer);
+        }
+    }
+
+    public void init(Config config, PullNetworkInterface controlNetwork) {
+        me = config.getProcessId();
+        int n = config.getNumProcesses();
+        SerializerFactory factory = config.getSerializerFactory();
+        if (factory instanceof BufferSerializerFactory) {
+            serializerFactory = (BufferSerializerFactory) factory;
+        } else {
+            logger.log(Level.INFO, "{0} does not support buffers, using {1}",
+                       new Object[] {
+                           factory.getClass().getName(),
+                           BinarySerializerFactory.class.getName()
+                       });
+            serializerFactory = new BinarySerializerFactory();
+        }
+        pool = BufferPool.getDefault();
+        connections = new Connection[n];
+
+        try {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.socket().bind(new InetSocketAddress(0));
+            int port = server.socket().getLocalPort();
+
+            // exchange port numbers
+            int[] others = new int[n - 1];
+            for (int i = 0, j = 0; i < n; i++) {
+                if (i != me) {
+                    others[j++] = i;
+                }
+            }
+            if (others.length > 0) {
+                controlNetwork.send(new NekoMessage(me, others, getId(),
+                                                    new Integer(port),
+                                                    NIO_PORT));
+            }
+            int[] ports = new int[n];
+            for (int i = 0; i < others.length; i++) {
+                NekoMessage m = controlNetwork.receive();
+                if (m.getType() != NIO_PORT) {
+                    throw new RuntimeException("Unexpected message " + m);
+                }
+                ports[m.getSource()] = ((Integer) m.getContent()).intValue();
+            }
+
+            // each process connects to the processes with smaller IDs
+            // and accepts connections from the processes with larger IDs
+            for (int i = 0; i < me; i++) {
+                SocketChannel channel = SocketChannel.open
+                    (new InetSocketAddress(config.getInetAddress(i),
+                                           ports[i]));
+                ByteBuffer hello = ByteBuffer.allocate(4);
+                hello.putInt(me);
+                hello.flip();
+                while (hello.hasRemaining()) {
+                    channel.write(hello);
+                }
+                connections[i] = new Connection(i, channel);
+            }
+            for (int i = me + 1; i < n; i++) {
+                SocketChannel channel = server.accept();
+                ByteBuffer hello = ByteBuffer.allocate(4);
+                while (hello.hasRemaining()) {
+                    if (channel.read(hello) < 0) {
+                        throw new IOException("Connection closed "
+                                              + "during init");
+                    }
+                }
+                int peer = hello.getInt(0);
+                if (peer <= me || peer >= n || connections[peer] != null) {
+                    throw new IOException("Unexpected connection from "
+                                          + "process " + peer);
+                }
+                connections[peer] = new Connection(peer, channel);
+            }
+            server.close();
+
+            selector = Selector.open();
+            for (int i = 0; i < n; i++) {
+                Connection c = connections[i];
+                if (c != null) {
+                    c.channel.configureBlocking(false);
+                    c.channel.socket().setTcpNoDelay(true);
+                    c.key = c.channel.register(selector, 0, c);
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not initialize network "
+                                       + getId(), ex);
+        }
+
+        NekoProcess owner = NekoSystem.instance().getNekoProcessById(me);
+        deliveries = NekoMessageQueue.createQueue();
+        deliveryThread =
+            new DeliveryThread("NioTCPNetwork-delivery-" + getId());
+        deliveryThread.setProcess(owner);
+        deliveryThread.start();
+        thread = new IOThread("NioTCPNetwork-" + getId());
+        thread.setProcess(owner);
+        thread.start();
+    }
+
+    public void startDelivering() {
+        delivering = true;
+        synchronized (pendingWrites) {
+            // makes the I/O thread register interest in reading
+            for (int i = 0; i < connections.length; i++) {
+                if (connections[i] != null
+                    && !pendingWrites.contains(connections[i]))
+                {
+                    pendingWrites.add(connections[i]);
+                }
+            }
+        }
+        selector.wakeup();
+    }
+
+    public void send(NekoMessage m) {
+        if (closed) {
+            return;
+        }
+        int[] to = m.getDestinations();
+        boolean wakeup = false;
+        for (int i = 0; i < to.length; i++) {
+            if (to[i] == me) {
+                synchronized (pendingWrites) {
+                    loopback.add(m);
+                }
+                wakeup = true;
+                continue;
+            }
+            Connection c = connections[to[i]];
+            try {
+                if (c.enqueue(m)) {
+                    synchronized (pendingWrites) {
+                        pendingWrites.add(c);
+                    }
+                    wakeup = true;
+                }
+            } catch (IOException ex) {
+                error(c, ex);
+            }
+        }
+        if (wakeup) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Hands a message to the delivery thread.
+     * Called by the I/O thread.
+     */
+    private void deliverMessage(NekoMessage m) {
+        deliveries.put(m);
+    }
+
+    private void error(Connection c, Exception ex) {
+        if (closing) {
+            return;
+        }
+        logger.log(Level.SEVERE, "Error on the connection with process "
+                   + c.peer, ex);
+        NekoSystem.instance().shutdown(2);
+    }
+
+    public void shutdown(int phase) {
+        if (phase <= 1) {
+            closing = true;
+        }
+        if (phase <= 0 && !closed) {
+            closed = true;
+            selector.wakeup();
+        }
+    }
+
+    private class IOThread extends NekoThread {
+
+        public IOThread(String name) {
+            super(name);
+        }
+
+        public void run() {
+            List toFlush = new ArrayList();
+            while (!closed) {
+                try {
+                    selector.select();
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, "Selector failed", ex);
+                    break;
+                }
+
+                Iterator it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = (SelectionKey) it.next();
+                    it.remove();
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            if (!c.read()) {
+                                key.cancel();
+                                if (!closing) {
+                                    error(c, new IOException("Connection "
+                                                             + "closed"));
+                                }
+                                continue;
+                            }
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            c.flush();
+                        }
+                    } catch (Exception ex) {
+                        key.cancel();
+                        error(c, ex);
+                    }
+                }
+
+                List messages;
+                synchronized (pendingWrites) {
+                    toFlush.addAll(pendingWrites);
+                    pendingWrites.clear();
+                    if (delivering && !loopback.isEmpty()) {
+                        messages = loopback;
+                        loopback = new ArrayList();
+                    } else {
+                        messages = null;
+                    }
+                }
+                for (int i = 0; i < toFlush.size(); i++) {
+                    Connection c = (Connection) toFlush.get(i);
+                    if (c.key.isValid()) {
+                        try {
+                            c.flush();
+                        } catch (IOException ex) {
+                            c.key.cancel();
+                            error(c, ex);
+                        }
+                    }
+                }
+                toFlush.clear();
+                if (messages != null) {
+                    for (int i = 0; i < messages.size(); i++) {
+                        deliverMessage((NekoMessage) messages.get(i));
+                    }
+                }
+            }
+
+            for (int i = 0; i < connections.length; i++) {
+                if (connections[i] != null) {
+                    connections[i].close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                // ignored
+            }
+            deliveries.put(END_OF_DELIVERIES);
+        }
+    }
+
+    /**
+     * Delivers the messages read by the I/O thread.
+     */
+    private class DeliveryThread extends NekoThread {
+
+        public DeliveryThread(String name) {
+            super(name);
+        }
+
+        public void run() {
+            while (true) {
+                NekoMessage m = deliveries.get();
+                if (m == END_OF_DELIVERIES) {
+                    break;
+                }
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "delivering {0}", m);
+                }
+                receiver.deliver(m);
+            }
+        }
+    }
+
+    private static final Logger logger =
+        NekoLogger.getLogger(NioTCPNetwork.class.getName());
+
+}
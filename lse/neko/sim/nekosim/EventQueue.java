@@ -1,10 +1,9 @@
 package lse.neko.sim.nekosim;
 
 // java imports:
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,14 +14,17 @@ import lse.neko.util.logging.NekoLogger;
 /**
  * Queue that stores events: threads with a time when
  * they should be activated.
+ * Events are ordered by time, then by decreasing priority,
+ * then by order of insertion.
+ * Subclasses provide the data structure that stores the events.
  */
-public class EventQueue {
+public abstract class EventQueue {
 
     /**
      * Returns true if the event queue is empty.
      */
     public boolean isEmpty() {
-        boolean r = set.isEmpty();
+        boolean r = isEmptyImpl();
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("RETURN isEmpty: " + r + "\n" + this);
         }
@@ -39,8 +41,8 @@ public class EventQueue {
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("ENTRY pop\n" + this);
         }
-        SimThread thread = (SimThread) set.first();
-        boolean contained = set.remove(thread);
+        SimThread thread = first();
+        boolean contained = removeImpl(thread);
         if (!contained) {
             throw new RuntimeException("Assertion failed: "
                                        + "queue could not remove "
@@ -59,11 +61,10 @@ public class EventQueue {
      */
     public double nextTime() {
         double r;
-        if (set.isEmpty()) {
+        if (isEmptyImpl()) {
             r = Double.MAX_VALUE;
         } else {
-            SimThread thread = (SimThread) set.first();
-            r = thread.time;
+            r = first().time;
         }
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("RETURN nextTime: " + r + "\n" + this);
@@ -83,7 +84,7 @@ public class EventQueue {
             thread.serialNumberTimed = serialNumber;
             serialNumber++;
         }
-        set.add(thread);
+        addImpl(thread);
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("RETURN add " + thread + " at " + time + "\n" + this);
         }
@@ -96,7 +97,7 @@ public class EventQueue {
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("ENTRY remove " + thread + "\n" + this);
         }
-        set.remove(thread);
+        removeImpl(thread);
         thread.time = Double.NaN;
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("RETURN remove " + thread + "\n" + this);
@@ -104,9 +105,31 @@ public class EventQueue {
     }
 
     /**
-     * Stores all events in an ordered manner.
+     * Returns true if no thread is stored.
      */
-    private SortedSet set = new TreeSet(new TimedComparator());
+    protected abstract boolean isEmptyImpl();
+
+    /**
+     * Returns the earliest thread without removing it.
+     * Only called if the queue is not empty.
+     */
+    protected abstract SimThread first();
+
+    /**
+     * Stores a thread. Its time and serial number are already set.
+     */
+    protected abstract void addImpl(SimThread thread);
+
+    /**
+     * Removes a thread, and returns true if the thread was stored.
+     * Called before the time of the thread is reset.
+     */
+    protected abstract boolean removeImpl(SimThread thread);
+
+    /**
+     * Returns all stored threads, in any order.
+     */
+    protected abstract List getThreads();
 
     /**
      * A unique serial number to all added threads.
@@ -117,11 +140,12 @@ public class EventQueue {
     private long serialNumber = 1;
 
     public String toString() {
+        List threads = getThreads();
+        Collections.sort(threads, COMPARATOR);
         StringBuffer buf = new StringBuffer();
         buf.append("EventQueue:\n");
-        Iterator it = set.iterator();
-        while (it.hasNext()) {
-            SimThread thread = (SimThread) it.next();
+        for (int i = 0; i < threads.size(); i++) {
+            SimThread thread = (SimThread) threads.get(i);
             buf.append("  {" + thread.time + "(pr" + thread.getPriority()
                        + ",#" + thread.serialNumberTimed + "),"
                        + thread + "}\n");
@@ -135,28 +159,65 @@ public class EventQueue {
      */
     public static final double EPS = 1e-8;
 
-    private class TimedComparator
-        implements Comparator
-    {
-        public int compare(Object left, Object right) {
-            SimThread l = (SimThread) left;
-            SimThread r = (SimThread) right;
-            double diff = l.time - r.time;
-            if (diff <= -EPS) {
-                return -1;
-            } else if (diff >= EPS) {
-                return +1;
-            } else if (l.getPriority() > r.getPriority()) {
-                return -1;
-            } else if (l.getPriority() < r.getPriority()) {
-                return +1;
-            } else if (l.serialNumberTimed < r.serialNumberTimed) {
-                return -1;
-            } else if (l.serialNumberTimed > r.serialNumberTimed) {
-                return +1;
-            } else {
-                return 0;
+    /**
+     * Compares two threads in the order of events.
+     *
+     * @return a negative number, zero, or a positive number
+     * if <code>l</code> is earlier than, the same as, or later than
+     * <code>r</code>.
+     */
+    static int compare(SimThread l, SimThread r) {
+        double diff = l.time - r.time;
+        if (diff <= -EPS) {
+            return -1;
+        } else if (diff >= EPS) {
+            return +1;
+        } else if (l.getPriority() > r.getPriority()) {
+            return -1;
+        } else if (l.getPriority() < r.getPriority()) {
+            return +1;
+        } else if (l.serialNumberTimed < r.serialNumberTimed) {
+            return -1;
+        } else if (l.serialNumberTimed > r.serialNumberTimed) {
+            return +1;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Orders threads in the order of events.
+     */
+    static final Comparator COMPARATOR = new Comparator() {
+            public int compare(Object left, Object right) {
+                return EventQueue.compare((SimThread) left,
+                                          (SimThread) right);
             }
+        };
+
+    /**
+     * Config file entry value for <code>TreeEventQueue</code>.
+     */
+    public static final String TREE = "tree";
+
+    /**
+     * Config file entry value for <code>HeapEventQueue</code>.
+     */
+    public static final String HEAP = "heap";
+
+    /**
+     * Returns a new, empty event queue of the given kind.
+     *
+     * @param name <code>TREE</code> or <code>HEAP</code>.
+     */
+    public static EventQueue createQueue(String name) {
+        if (name.equals(TREE)) {
+            return new TreeEventQueue();
+        } else if (name.equals(HEAP)) {
+            return new HeapEventQueue();
+        } else {
+            throw new IllegalArgumentException("Unknown event queue "
+                                               + name);
         }
     }
 
@@ -0,0 +1,139 @@
+package lse.neko.sim.nekosim;
+
+// java imports:
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Event queue that keeps events in an indexed d-ary heap.
+ * Each thread remembers its position in the heap, hence
+ * looking at the earliest event takes O(1) time, and adding
+ * or removing any event takes O(log n) time, without searching.
+ * Suited for simulations with many pending events.
+ */
+public class HeapEventQueue
+    extends EventQueue
+{
+
+    /**
+     * Number of children of each node. 4 makes the heap shallower
+     * than a binary heap, and the children of a node are likely to
+     * share a cache line.
+     */
+    private static final int D = 4;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The heap. The children of the thread at index i are at indices
+     * D*i+1 to D*i+D.
+     */
+    private SimThread[] heap = new SimThread[INITIAL_CAPACITY];
+
+    /**
+     * Number of threads in the heap.
+     */
+    private int size = 0;
+
+    protected boolean isEmptyImpl() {
+        return size == 0;
+    }
+
+    protected SimThread first() {
+        return heap[0];
+    }
+
+    protected void addImpl(SimThread thread) {
+        if (thread.heapIndex >= 0) {
+            // the thread is already stored, with an outdated position
+            removeImpl(thread);
+        }
+        if (size == heap.length) {
+            SimThread[] newHeap = new SimThread[2 * heap.length];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            heap = newHeap;
+        }
+        int i = size;
+        size++;
+        siftUp(i, thread);
+    }
+
+    protected boolean removeImpl(SimThread thread) {
+        int i = thread.heapIndex;
+        if (i < 0 || i >= size || heap[i] != thread) {
+            return false;
+        }
+        thread.heapIndex = -1;
+        size--;
+        SimThread last = heap[size];
+        heap[size] = null;
+        if (i < size) {
+            // put the last thread into the hole
+            if (i > 0 && compare(last, heap[(i - 1) / D]) < 0) {
+                siftUp(i, last);
+            } else {
+                siftDown(i, last);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves <code>thread</code> from the hole at index <code>i</code>
+     * towards the root, until it is not earlier than its parent.
+     */
+    private void siftUp(int i, SimThread thread) {
+        while (i > 0) {
+            int parent = (i - 1) / D;
+            SimThread p = heap[parent];
+            if (compare(thread, p) >= 0) {
+                break;
+            }
+            heap[i] = p;
+            p.heapIndex = i;
+            i = parent;
+        }
+        heap[i] = thread;
+        thread.heapIndex = i;
+    }
+
+    /**
+     * Moves <code>thread</code> from the hole at index <code>i</code>
+     * towards the leaves, until it is not later than its children.
+     */
+    private void siftDown(int i, SimThread thread) {
+        while (true) {
+            int child = D * i + 1;
+            if (child >= size) {
+                break;
+            }
+            // find the earliest child
+            int end = Math.min(child + D, size);
+            int min = child;
+            for (int c = child + 1; c < end; c++) {
+                if (compare(heap[c], heap[min]) < 0) {
+                    min = c;
+                }
+            }
+            SimThread m = heap[min];
+            if (compare(thread, m) <= 0) {
+                break;
+            }
+            heap[i] = m;
+            m.heapIndex = i;
+            i = min;
+        }
+        heap[i] = thread;
+        thread.heapIndex = i;
+    }
+
+    protected List getThreads() {
+        List list = new ArrayList(size);
+        for (int i = 0; i < size; i++) {
+            list.add(heap[i]);
+        }
+        return list;
+    }
+
+}
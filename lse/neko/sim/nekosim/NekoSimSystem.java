@@ -33,8 +33,38 @@ public class NekoSimSystem
         return new SimObject(object);
     }
 
+    /**
+     * Config file entry that specifies what kind of Java threads
+     * execute simulated threads: <code>platform</code> (default)
+     * or <code>virtual</code>. Virtual threads all run on a single
+     * carrier thread, which makes switching between simulated threads
+     * much cheaper and allows for many more simulated threads.
+     * The order of events in the simulation is the same with both.
+     * Virtual threads are only used if the Java platform supports
+     * them well enough; otherwise a warning is logged.
+     */
+    public static final String CF_THREADS = "simulation.threads";
+
+    /**
+     * Config file entry that specifies the data structure
+     * that stores scheduled events: <code>tree</code> (default)
+     * or <code>heap</code>. Both order events the same way.
+     * The heap is faster if many events are pending,
+     * e.g., in simulations with many timers.
+     *
+     * @see EventQueue
+     */
+    public static final String CF_EVENT_QUEUE = "simulation.eventQueue";
+
     public NekoSimSystem(Configurations config) {
         super(config, new NekoSimThreadStatic());
+        String eventQueue =
+            config.getString(CF_EVENT_QUEUE, EventQueue.TREE);
+        SimScheduler.registerEventQueue(EventQueue.createQueue(eventQueue));
+        String threads =
+            config.getString(CF_THREADS, PeerThreadFactory.PLATFORM);
+        SimScheduler.registerPeerThreadFactory
+            (PeerThreadFactory.getFactory(threads));
     }
 
     // FIXME: initialization might need to be reworked
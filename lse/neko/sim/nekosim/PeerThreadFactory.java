@@ -0,0 +1,202 @@
+package lse.neko.sim.nekosim;
+
+// java imports:
+import java.lang.reflect.Method;
+import java.util.logging.Logger;
+
+// lse.neko imports:
+import lse.neko.util.logging.NekoLogger;
+
+
+/**
+ * Creates the <code>java.lang.Thread</code>s that carry the execution
+ * of simulated threads.
+ * Only one simulated thread runs at any time: the scheduler hands
+ * over control explicitly (see <code>SimScheduler.yield</code>).
+ * Hence the carrier of a simulated thread need not be a full
+ * operating system thread; a virtual thread does just as well, and
+ * is much cheaper to create and to switch to.
+ * <p>
+ * Virtual threads are always daemon threads. As the thread that starts
+ * the simulation returns once the scheduler runs, the virtual thread
+ * factory keeps a platform thread blocked, so that the JVM does not
+ * exit before the scheduler ends the simulation with
+ * <code>System.exit</code>.
+ */
+abstract class PeerThreadFactory {
+
+    /**
+     * Returns a new, unstarted thread that runs <code>body</code>.
+     */
+    public abstract Thread newThread(String name, Runnable body);
+
+    /**
+     * Name of the factory that creates one platform thread
+     * for each simulated thread. This is the default.
+     */
+    public static final String PLATFORM = "platform";
+
+    /**
+     * Name of the factory that creates one virtual thread
+     * for each simulated thread. All virtual threads
+     * share a single carrier thread.
+     */
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * Returns the factory with the given name.
+     * If virtual threads are requested but the Java platform
+     * does not support them well enough, a warning is logged and
+     * the platform thread factory is returned.
+     *
+     * @param name <code>PLATFORM</code> or <code>VIRTUAL</code>.
+     */
+    public static PeerThreadFactory getFactory(String name) {
+        if (name.equals(PLATFORM)) {
+            return platformFactory;
+        } else if (name.equals(VIRTUAL)) {
+            try {
+                return new VirtualFactory();
+            } catch (UnsupportedOperationException ex) {
+                logger.warning("Virtual threads are not usable: "
+                               + ex.getMessage()
+                               + ". Using platform threads instead.");
+                return platformFactory;
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown thread factory "
+                                               + name);
+        }
+    }
+
+    /**
+     * Returns the default factory.
+     */
+    public static PeerThreadFactory getDefault() {
+        return platformFactory;
+    }
+
+    private static final PeerThreadFactory platformFactory =
+        new PeerThreadFactory() {
+            public Thread newThread(String name, Runnable body) {
+                return new Thread(body, name);
+            }
+            public String toString() {
+                return PLATFORM;
+            }
+        };
+
+    /**
+     * Creates virtual threads through reflection, so that this
+     * class compiles and runs on Java platforms without them.
+     */
+    private static class VirtualFactory
+        extends PeerThreadFactory
+    {
+
+        /**
+         * The first Java release where a virtual thread that calls
+         * <code>Object.wait</code> gives up its carrier.
+         * Simulated threads wait while holding a monitor
+         * (see <code>SimScheduler.yield</code>); on earlier releases
+         * every waiting simulated thread would pin a carrier.
+         */
+        private static final int MIN_JAVA_VERSION = 24;
+
+        private static final String PARALLELISM_PROPERTY =
+            "jdk.virtualThreadScheduler.parallelism";
+
+        public VirtualFactory() {
+            String spec = System.getProperty("java.specification.version");
+            int version;
+            try {
+                String major =
+                    spec.startsWith("1.") ? spec.substring(2) : spec;
+                int dot = major.indexOf('.');
+                if (dot >= 0) {
+                    major = major.substring(0, dot);
+                }
+                version = Integer.parseInt(major);
+            } catch (RuntimeException ex) {
+                version = 0;
+            }
+            if (version < MIN_JAVA_VERSION) {
+                throw new UnsupportedOperationException
+                    ("Java " + spec + " is older than Java "
+                     + MIN_JAVA_VERSION);
+            }
+            // One carrier is enough, as only one simulated thread runs
+            // at any time. Must be set before the first virtual thread
+            // is created.
+            if (System.getProperty(PARALLELISM_PROPERTY) == null) {
+                System.setProperty(PARALLELISM_PROPERTY, "1");
+            }
+            try {
+                ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]);
+                Class builderClass =
+                    Class.forName("java.lang.Thread$Builder");
+                name = builderClass.getMethod("name",
+                                              new Class[] { String.class });
+                unstarted =
+                    builderClass.getMethod("unstarted",
+                                           new Class[] { Runnable.class });
+            } catch (Exception ex) {
+                throw new UnsupportedOperationException(ex.toString());
+            }
+        }
+
+        private final Method ofVirtual;
+        private final Method name;
+        private final Method unstarted;
+
+        private boolean keepingAlive = false;
+
+        /**
+         * Starts a non-daemon thread that blocks forever,
+         * unless it was started already.
+         */
+        private synchronized void keepAlive() {
+            if (keepingAlive) {
+                return;
+            }
+            keepingAlive = true;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    Object lock = new Object();
+                    synchronized (lock) {
+                        while (true) {
+                            try {
+                                lock.wait();
+                            } catch (InterruptedException ex) {
+                                // ignored
+                            }
+                        }
+                    }
+                }
+            }, "NekoSim-keepAlive");
+            thread.setDaemon(false);
+            thread.start();
+        }
+
+        public Thread newThread(String threadName, Runnable body) {
+            keepAlive();
+            try {
+                Object builder = ofVirtual.invoke(null, new Object[0]);
+                builder = name.invoke(builder, new Object[] { threadName });
+                return (Thread) unstarted.invoke(builder,
+                                                 new Object[] { body });
+            } catch (Exception ex) {
+                throw new RuntimeException("Could not create virtual thread "
+                                           + threadName, ex);
+            }
+        }
+
+        public String toString() {
+            return VIRTUAL;
+        }
+    }
+
+    private static final Logger logger =
+        NekoLogger.getLogger(PeerThreadFactory.class.getName());
+
+}
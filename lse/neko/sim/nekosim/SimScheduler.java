@@ -192,7 +192,22 @@ class SimScheduler {
         return currentThread;
     }
 
-    private static EventQueue queue = new EventQueue();
+    private static EventQueue queue = new TreeEventQueue();
+
+    /**
+     * Replaces the event queue of the scheduler.
+     * Only allowed while no thread is scheduled.
+     */
+    static void registerEventQueue(EventQueue newQueue) {
+        if (!queue.isEmpty()) {
+            throw new IllegalStateException("Cannot replace a non-empty "
+                                            + "event queue");
+        }
+        if (newQueue == null) {
+            throw new NullPointerException();
+        }
+        SimScheduler.queue = newQueue;
+    }
 
     /**
      * The current simulation time.
@@ -218,6 +233,28 @@ class SimScheduler {
         SimScheduler.hook = newHook;
     }
 
+    private static PeerThreadFactory peerThreadFactory =
+        PeerThreadFactory.getDefault();
+
+    /**
+     * Registers the factory that creates the peer threads
+     * of simulated threads. Only affects threads created later.
+     */
+    static void registerPeerThreadFactory(PeerThreadFactory factory) {
+        if (factory == null) {
+            throw new NullPointerException();
+        }
+        SimScheduler.peerThreadFactory = factory;
+    }
+
+    /**
+     * Returns the factory that creates the peer threads
+     * of simulated threads.
+     */
+    static PeerThreadFactory getPeerThreadFactory() {
+        return peerThreadFactory;
+    }
+
     private static final Logger logger =
         NekoLogger.getLogger(SimScheduler.class.getName());
 
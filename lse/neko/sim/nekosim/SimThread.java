@@ -31,7 +31,14 @@ class SimThread
             throw new NullPointerException();
         }
         this.nekoPeer = nekoPeer;
-        peer = new MyThread(name, runnable);
+        // virtual threads all belong to the same thread group:
+        // inherit the group of the creating simulated thread instead
+        SimThread creator = SimScheduler.currentThread();
+        group = (creator != null)
+            ? creator.group
+            : Thread.currentThread().getThreadGroup();
+        peer = SimScheduler.getPeerThreadFactory()
+            .newThread(name, new Body(runnable));
     }
 
     /**
@@ -46,16 +53,27 @@ class SimThread
         return nekoPeer;
     }
 
+    /**
+     * The thread group that handles the uncaught exceptions of this
+     * thread: the group of the thread that started the simulation.
+     * Not the group of the peer thread, which is a shared group if
+     * the peer is a virtual thread.
+     */
+    private final ThreadGroup group;
+
     /**
      * The <code>java.lang.Thread</code> associated with this thread.
+     * Created by the <code>PeerThreadFactory</code> of the scheduler.
      */
     private final Thread peer;
 
-    private class MyThread
-        extends Thread
+    /**
+     * The code executed by the peer thread.
+     */
+    private class Body
+        implements Runnable
     {
-        public MyThread(String name, Runnable runnable) {
-            super(name);
+        public Body(Runnable runnable) {
             this.runnable = runnable;
         }
 
@@ -65,7 +83,7 @@ class SimThread
             try {
                 runnable.run();
             } catch (Throwable ex) {
-                getThreadGroup().uncaughtException(this, ex);
+                group.uncaughtException(Thread.currentThread(), ex);
             } finally {
                 SimThread.this.isStopped = true;
                 // this is to wake up the threads waiting in join
@@ -181,6 +199,13 @@ class SimThread
      */
     long serialNumberTimed;
 
+    /**
+     * Position of this thread in the heap of a
+     * <code>HeapEventQueue</code>, or -1 if it is not stored there.
+     * Only used by <code>HeapEventQueue</code>.
+     */
+    int heapIndex = -1;
+
     /**
      * Serial number modified by <code>ObjectQueue.add</code>.
      * Needed to ensure a well-defined order of threads
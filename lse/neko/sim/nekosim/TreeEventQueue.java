@@ -0,0 +1,43 @@
+package lse.neko.sim.nekosim;
+
+// java imports:
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+
+/**
+ * Event queue that keeps events in a sorted tree.
+ * All operations take O(log n) time.
+ */
+public class TreeEventQueue
+    extends EventQueue
+{
+
+    /**
+     * Stores all events in an ordered manner.
+     */
+    private SortedSet set = new TreeSet(COMPARATOR);
+
+    protected boolean isEmptyImpl() {
+        return set.isEmpty();
+    }
+
+    protected SimThread first() {
+        return (SimThread) set.first();
+    }
+
+    protected void addImpl(SimThread thread) {
+        set.add(thread);
+    }
+
+    protected boolean removeImpl(SimThread thread) {
+        return set.remove(thread);
+    }
+
+    protected List getThreads() {
+        return new ArrayList(set);
+    }
+
+}
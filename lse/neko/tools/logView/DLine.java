@@ -3,6 +3,7 @@ package lse.neko.tools.logView;
 // java imports:
 import java.awt.Color;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
 
@@ -184,6 +185,25 @@ class DLine extends Line2D.Double {
         this.color = c;
     }
 
+    /**
+     * Returns a rectangle that contains everything drawn for this
+     * line: the line, its head and its label.
+     */
+    Rectangle getDrawingBounds() {
+        Rectangle r = getBounds();
+        // the heads are at most 18 pixels long
+        r.grow(20, 20);
+        if (label != null) {
+            for (int i = 0; i < labelx.length; i++) {
+                r.add(labelx[i], labely[i]);
+            }
+            // the text may be wider than the box
+            r.add(new Rectangle(labellocation.x, labellocation.y - 15,
+                                label.length() * 8, 20));
+        }
+        return r;
+    }
+
     /**
      * Sets the terminaison of the LostMessage which have to have a
      * different "head" from the real messages' terminaison.
@@ -93,7 +93,11 @@ class DataReader {
         if (logFile.size() >= 1) {
             // create the nekoReader object that will read the log files
             neko = new NekoReader(anXmlData);
-            neko.run();
+            if (StartLogView.getFollowMode()) {
+                neko.follow(LiveMatcher.DEFAULT_CAPACITY);
+            } else {
+                neko.run();
+            }
             // retrieve the information from nekoReader
             arrowsList = neko.getListOfArrows();
             lostMessages = neko.getLostMessages();
@@ -179,6 +183,18 @@ class DataReader {
         return lostMessages;
     }
 
+    /**
+     * Returns the reader of the log files if it reads them
+     * incrementally, from a trace index or following the files as they
+     * grow, <code>null</code> otherwise. The arrows are then obtained
+     * with <code>NekoReader.loadViewport</code> or
+     * <code>NekoReader.readMore</code>.
+     */
+    public NekoReader getIncrementalReader() {
+        return (neko != null && (neko.isIndexed() || neko.isFollowing()))
+            ? neko : null;
+    }
+
     /**
      * Method which returns the state of the reading. I means, if an
      * error has happened during the parsing of the XML file then we
@@ -12,6 +12,7 @@ import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
+import java.awt.image.BufferedImage;
 import java.awt.print.Book;
 import java.awt.print.PageFormat;
 import java.awt.print.Printable;
@@ -20,8 +21,11 @@ import java.awt.print.PrinterJob;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List; // ambiguous with: java.awt.List
 import java.util.Map;
 
@@ -36,6 +40,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
 
 
 /**
@@ -46,6 +51,21 @@ import javax.swing.JViewport;
  * displayed, with their corresponding process line. Arrow objects and
  * LostMessage objects are first transformed to DLine objects, what
  * can be displayed.
+ * <p>
+ * If the messages are read from a trace index, only the messages
+ * around the visible part of the drawing area are loaded, and they are
+ * loaded again when the drawing area is scrolled. If the log files are
+ * followed, a background thread reads the new messages and passes them
+ * to the event dispatch thread, which only repaints the area where they
+ * are drawn.
+ * <p>
+ * The drawing area is painted from images of {@link #TILE_WIDTH} pixels
+ * wide tiles, drawn once and kept in a cache, so that scrolling does
+ * not draw the messages again. A tile only draws the messages found in
+ * its range by a <code>LineIndex</code>. If a tile has more than
+ * {@link #LOD_ARROWS_PER_PIXEL} messages per pixel column, it shows
+ * the density of the messages sent by each process instead of the
+ * messages.
  */
 class GraphicPanel
     extends JPanel
@@ -171,6 +191,105 @@ class GraphicPanel
      */
     private File printfile;
 
+    /**
+     * Reader of the trace index or of the followed log files,
+     * <code>null</code> if all the messages are given to the
+     * constructor.
+     */
+    private NekoReader reader;
+
+    /**
+     * Whether the messages are read from a trace index.
+     */
+    private boolean indexed;
+
+    /**
+     * Whether the log files are followed.
+     */
+    private boolean following;
+
+    /**
+     * Whether the time axis is extended when messages arrive after
+     * its end, i.e., if the log files are followed and the end of the
+     * time axis is not specified.
+     */
+    private boolean extendTime;
+
+    /**
+     * Milliseconds between two reads of the followed log files,
+     * if the last read found no new events.
+     */
+    private static final int FOLLOW_DELAY = 500;
+
+    /**
+     * Shortest time interval displayed when following log files.
+     */
+    private static final int FOLLOW_MIN_TIME = 10;
+
+    /**
+     * Width of the cached tiles of the drawing area, in pixels.
+     */
+    static final int TILE_WIDTH = 512;
+
+    /**
+     * Largest number of pixels of the cached tiles.
+     */
+    private static final int MAX_CACHED_PIXELS = 16 * 1024 * 1024;
+
+    /**
+     * Tiles with more messages per pixel column show
+     * the density of the messages.
+     */
+    static final int LOD_ARROWS_PER_PIXEL = 2;
+
+    /**
+     * Width of the columns in which the messages are counted
+     * to show their density, in pixels.
+     */
+    private static final int DENSITY_WIDTH = 4;
+
+    /**
+     * Number of messages in a column shown with the darkest color.
+     */
+    private static final int DENSITY_SATURATION = 256;
+
+    /**
+     * Cached images of the tiles of the drawing area, least recently
+     * used first. The keys combine the scale (ppm) and the index of
+     * the tile, so that tiles of different scales can be cached.
+     */
+    private final Map tiles = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * Height of the cached tiles.
+     */
+    private int tileHeight = 0;
+
+    /**
+     * Indexes of the DLines in messages and lost,
+     * <code>null</code> if they must be built again.
+     */
+    private LineIndex messageIndex = null;
+    private LineIndex lostIndex = null;
+
+    /**
+     * Smallest number of processes that the default height of the
+     * process lines is computed for when following log files, as
+     * more processes may appear.
+     */
+    private static final int FOLLOW_MIN_PROCESSES = 4;
+
+    /**
+     * The process IDs (Integer objects), in the order of
+     * the process lines.
+     */
+    private List processIds;
+
+    /**
+     * The x-coordinates between which the messages are loaded.
+     */
+    private int loadedFrom, loadedTo;
+
     /**
      * Constructs a GraphicPanel object with the specified messages
      * (msg), lost messages and displaying specifications.
@@ -178,12 +297,34 @@ class GraphicPanel
     public GraphicPanel(XmlInformation displayInfo,
                         List msg,
                         List lostMessages)
+    {
+        this(displayInfo, msg, lostMessages, null);
+    }
+
+    /**
+     * Constructs a GraphicPanel object that loads the messages
+     * around the visible area from a reader of a trace index, or
+     * reads new messages from a reader that follows the log files.
+     */
+    public GraphicPanel(XmlInformation displayInfo, NekoReader reader) {
+        this(displayInfo, reader.getListOfArrows(),
+             reader.getLostMessages(), reader);
+    }
+
+    private GraphicPanel(XmlInformation displayInfo,
+                         List msg,
+                         List lostMessages,
+                         NekoReader reader)
     {
         super();
 
         this.displayInfo = displayInfo;
         this.msg = msg;
         this.lostMessages = lostMessages;
+        this.reader = reader;
+        indexed = reader != null && reader.isIndexed();
+        following = reader != null && reader.isFollowing();
+        extendTime = following && displayInfo.getTimeAxisEnd() == -1;
 
         Dimension screenSize = displayInfo.getScreenSize();
         int w = (int) screenSize.width;
@@ -218,71 +359,13 @@ class GraphicPanel
         printfile = displayInfo.getPrinterFile();
 
         // Set up the drawing area.
-        // This JPanel draws on the screen all the DLines, labels.
+        // This JPanel draws on the screen all the DLines, labels,
+        // through the tile cache.
         drawingArea =
             new JPanel() {
-                protected void paintComponent(Graphics g1D)  {
-
-                    Graphics2D g = (Graphics2D) g1D;
-
+                protected void paintComponent(Graphics g)  {
                     super.paintComponent(g);
-                    BasicStroke lineStroke =
-                        new BasicStroke(2.0f,
-                                        BasicStroke.CAP_BUTT,
-                                        BasicStroke.JOIN_ROUND);
-                    g.setStroke(lineStroke);
-                    DLine l;
-                    // Drawing the process line
-                    for (int i = 0; i < process.size(); i++) {
-                        l = (DLine) process.get(i);
-                        g.setColor(Color.black);
-                        g.drawLine(l.x1, l.y1, l.x2, l.y2);
-                    }
-                    Rectangle view = myViewport.getViewRect();
-                    view.grow(200, 0);
-                    if (lost != null) {
-                        for (int h = 0; h < lost.size(); h++) {
-                            DLine lm = (DLine) lost.get(h);
-                            g.setColor(Color.black);
-                            g.drawLine(lm.x1, lm.y1, lm.x2, lm.y2);
-                            Polygon p = new Polygon(lm.xpoints, lm.ypoints, 5);
-                            g.drawPolygon(p);
-                        }
-                    }
-                    //Drawing the arrow's line
-                    for (int k = 0; k < messages.size(); k++) {
-
-                        l = (DLine) messages.get(k);
-
-                        if (l.intersects(view)) {
-
-                            // Drawing the label of the message.
-                            if (l.label != null) {
-                                Polygon lab =
-                                    new Polygon(l.labelx, l.labely, 5);
-                                g.setColor(Color.blue);
-                                g.drawPolygon(lab);
-                                g.drawString(l.label,
-                                             l.labellocation.x,
-                                             l.labellocation.y);
-                                g.drawLine((int) l.connection[0].getX(),
-                                           (int) l.connection[0].getY(),
-                                           (int) l.connection[1].getX(),
-                                           (int) l.connection[1].getY());
-                            }
-                            //Drawing the line
-                            g.setColor(l.color);
-                            g.drawLine(l.x1, l.y1, l.x2, l.y2);
-
-                            // Drawing the arrow's edge contained in
-                            // instance variables of DLine.
-                            if (view.contains(l.xpoints[0], l.ypoints[0])) {
-                                Polygon p = new Polygon(l.xpoints,
-                                                        l.ypoints, 5);
-                                g.fillPolygon(p);
-                            }
-                        }
-                    }
+                    paintTiles(g);
                 }
             };
 
@@ -382,6 +465,16 @@ class GraphicPanel
         drawAxe();
 
         //     SimpleBook sb = new SimpleBook(messages,process,lost);
+
+        if (following) {
+            Thread follower = new Thread("logView follower") {
+                    public void run() {
+                        follow();
+                    }
+                };
+            follower.setDaemon(true);
+            follower.start();
+        }
     }
 
     /**
@@ -391,6 +484,37 @@ class GraphicPanel
      */
     private void setDefaultTimes() {
 
+        if (following) {
+            // there may be no messages yet
+            float min = 0;
+            float max = 0;
+            for (int i = 0; i < msg.size(); i++) {
+                Arrow arrow = (Arrow) msg.get(i);
+                if (i == 0 || arrow.getDepartureTime() < min) {
+                    min = arrow.getDepartureTime();
+                }
+                max = Math.max(max, arrow.getArrivalTime());
+            }
+            if (timeStart == -1) {
+                timeStart = (int) min;
+            }
+            if (timeEnd == -1) {
+                timeEnd = Math.max((int) max + 1,
+                                   timeStart + FOLLOW_MIN_TIME);
+            }
+            return;
+        }
+
+        if (indexed) {
+            if (timeEnd == -1) {
+                timeEnd = (int) reader.getEndTime() + 1;
+            }
+            if (timeStart == -1) {
+                timeStart = (int) reader.getStartTime();
+            }
+            return;
+        }
+
         Arrow arrow = null;
 
         Collections.sort(msg);
@@ -416,23 +540,17 @@ class GraphicPanel
      */
     private void setDefaultSizes(int w, int h) {
 
-        Arrow arrow = null;
-
         if (ppm == -1) {
             ppm = w / time + 1;
         }
 
         if (ppp == -1) {
 
-            for (int i = 0; i < msg.size(); i++) {
-                arrow = (Arrow) msg.get(i);
-                int s = arrow.getFromProcess();
-                int r = arrow.getToProcess();
-                setProcessID(s);
-                setProcessID(r);
-            }
+            collectProcesses();
 
-            ppp = h / nbproc - 200 / nbproc;
+            int n = following
+                ? Math.max(nbproc, FOLLOW_MIN_PROCESSES) : nbproc;
+            ppp = h / n - 200 / n;
 
             if (ppp > 600) {
                 ppp = 600;
@@ -448,6 +566,7 @@ class GraphicPanel
         // tmp given in milliseconds
 
         DLine li;
+        process.clear();
         for (int i = 0; i < nbproc; i++) {
 
             li = new DLine(0, ppp + ppp * i, ppm * time, ppp + ppp * i);
@@ -470,33 +589,121 @@ class GraphicPanel
      */
     void drawMessages() {
 
-        DLine line = null;
-        Arrow m;
-
         // this parses the arrows in order to collect all the
         // processes to display, and then sort them.
-
-        for (int i = 0; i < msg.size(); i++) {
-            m = (Arrow) msg.get(i);
-            int s = m.getFromProcess();
-            int r = m.getToProcess();
-            setProcessID(s);
-            setProcessID(r);
-        }
+        collectProcesses();
 
         // Now the process list will be sorted, to let them displayed
         // ordered.
         Collections.sort(processList);
+        // drawLabels replaces the IDs by names in processList
+        processIds = new ArrayList(processList);
 
-        // This constructs the DLine objects (what could be displayed)
+        if (indexed) {
+            loadMessages();
+        }
+        buildLines();
+
+        drawingArea.revalidate();
+        // Let the scroll pane know to update itself and its
+        // scrollbars.
+        drawingArea.repaint();
+    }
+
+    /**
+     * Puts the processes of all the messages into processList.
+     */
+    private void collectProcesses() {
+        if (indexed) {
+            int[] processes = reader.getProcesses();
+            for (int i = 0; i < processes.length; i++) {
+                setProcessID(processes[i]);
+            }
+            return;
+        }
         for (int i = 0; i < msg.size(); i++) {
+            Arrow m = (Arrow) msg.get(i);
+            setProcessID(m.getFromProcess());
+            setProcessID(m.getToProcess());
+        }
+    }
+
+    /**
+     * Loads the messages around the tiles of the visible part of the
+     * drawing area: one screen to the left and one screen to the
+     * right of them.
+     */
+    private void loadMessages() {
+        Rectangle view = myViewport.getViewRect();
+        int width = view.width;
+        if (width <= 0) {
+            // not displayed yet
+            width = displayInfo.getScreenSize().width;
+        }
+        loadedFrom = tileStart(view.x) - width;
+        loadedTo = tileEnd(view.x + width) + width;
+        loadMessages((float) loadedFrom / ppm + timeStart,
+                     (float) loadedTo / ppm + timeStart);
+    }
+
+    private void loadMessages(float start, float end) {
+        reader.loadViewport(start, end);
+        msg = reader.getListOfArrows();
+        lostMessages = reader.getLostMessages();
+    }
 
-            m = (Arrow) msg.get(i);
+    /**
+     * Loads the messages again if the visible part of the
+     * drawing area is no longer within the loaded part.
+     */
+    private void updateMessages() {
+        Rectangle view = myViewport.getViewRect();
+        // cached tiles must not miss messages
+        if (tileStart(view.x) >= loadedFrom
+            && tileEnd(view.x + view.width) <= loadedTo)
+        {
+            return;
+        }
+        loadMessages();
+        buildLines();
+        drawingArea.repaint();
+    }
+
+    /**
+     * Constructs the DLine objects of the messages and lost messages.
+     */
+    private void buildLines() {
+        messages.clear();
+        lost.clear();
+        messageIndex = null;
+        lostIndex = null;
+        addLines(msg, lostMessages);
+        clearTiles();
+    }
+
+    /**
+     * Constructs the DLine objects of some messages and lost messages.
+     *
+     * @return the area where they are drawn,
+     * <code>null</code> if there are none.
+     */
+    private Rectangle addLines(List arrows, List lostList) {
+
+        DLine line = null;
+        Arrow m;
+        Rectangle bounds = null;
+        int oldMessages = messages.size();
+        int oldLost = lost.size();
+
+        // This constructs the DLine objects (what could be displayed)
+        for (int i = 0; i < arrows.size(); i++) {
+
+            m = (Arrow) arrows.get(i);
 
             int s = m.getFromProcess();
             int r = m.getToProcess();
-            int spi = processList.indexOf(new Integer(s));
-            int rpi = processList.indexOf(new Integer(r));
+            int spi = processIds.indexOf(new Integer(s));
+            int rpi = processIds.indexOf(new Integer(r));
 
             int mst = (int) (ppm * (m.getDepartureTime()));
             int mrt = (int) (ppm * (m.getArrivalTime()));
@@ -522,13 +729,14 @@ class GraphicPanel
 
             line.setLabel(m.getLabel());
             messages.add(line);
+            bounds = union(bounds, line.getDrawingBounds());
         }
 
-        if (lostMessages != null) {
+        if (lostList != null) {
 
-            for (int i = 0; i < lostMessages.size(); i++) {
+            for (int i = 0; i < lostList.size(); i++) {
 
-                LostMessage lm = (LostMessage) lostMessages.get(i);
+                LostMessage lm = (LostMessage) lostList.get(i);
 
                 NekoEvent ne = lm.getEvent();
 
@@ -548,8 +756,8 @@ class GraphicPanel
                 int toProcess = ne.getToProcess()[0];
                 int fromProcess = ne.getFromProcess();
 
-                int spi = processList.indexOf(new Integer(fromProcess));
-                int rpi = processList.indexOf(new Integer(toProcess));
+                int spi = processIds.indexOf(new Integer(fromProcess));
+                int rpi = processIds.indexOf(new Integer(toProcess));
 
                 if (id == 's') {
 
@@ -583,13 +791,326 @@ class GraphicPanel
                 }
 
                 lost.add(line);
+                bounds = union(bounds, line.getDrawingBounds());
             }
         }
 
-        drawingArea.revalidate();
-        // Let the scroll pane know to update itself and its
-        // scrollbars.
-        drawingArea.repaint();
+        // indexes that were built already only get the new lines
+        if (messageIndex != null) {
+            messageIndex.addAll(messages.subList(oldMessages,
+                                                 messages.size()));
+        }
+        if (lostIndex != null) {
+            lostIndex.addAll(lost.subList(oldLost, lost.size()));
+        }
+        return bounds;
+    }
+
+    private static Rectangle union(Rectangle r1, Rectangle r2) {
+        return (r1 == null) ? r2 : r1.union(r2);
+    }
+
+    /**
+     * Forgets all the cached tiles.
+     */
+    private void clearTiles() {
+        tiles.clear();
+    }
+
+    /**
+     * Forgets the cached tiles that intersect <code>area</code>.
+     */
+    private void clearTiles(Rectangle area) {
+        int first = Math.max(0, area.x / TILE_WIDTH);
+        int last = (area.x + area.width) / TILE_WIDTH;
+        for (int i = first; i <= last; i++) {
+            tiles.remove(tileKey(i));
+        }
+    }
+
+    /**
+     * Returns the left edge of the tile that contains <code>x</code>.
+     */
+    private static int tileStart(int x) {
+        return Math.max(0, x / TILE_WIDTH) * TILE_WIDTH;
+    }
+
+    /**
+     * Returns the right edge of the tile that contains <code>x</code>.
+     */
+    private static int tileEnd(int x) {
+        return tileStart(x) + TILE_WIDTH;
+    }
+
+    private Long tileKey(int tile) {
+        return new Long(((long) ppm << 32) | tile);
+    }
+
+    /**
+     * Paints the drawing area from the tiles
+     * that intersect the area to paint.
+     */
+    private void paintTiles(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, drawingArea.getWidth(),
+                                 drawingArea.getHeight());
+        }
+        // the labels can go beyond the last process line
+        int height = Math.max(drawingArea.getHeight(), size.height + ppp);
+        if (height != tileHeight) {
+            clearTiles();
+            tileHeight = height;
+        }
+        int first = Math.max(0, clip.x / TILE_WIDTH);
+        int last = (clip.x + clip.width - 1) / TILE_WIDTH;
+        for (int i = first; i <= last; i++) {
+            g.drawImage(getTile(i), i * TILE_WIDTH, 0, null);
+        }
+    }
+
+    /**
+     * Returns the image of a tile, drawing it if it is not cached.
+     */
+    private BufferedImage getTile(int tile) {
+        Long key = tileKey(tile);
+        BufferedImage image = (BufferedImage) tiles.get(key);
+        if (image == null) {
+            image = drawTile(tile);
+            tiles.put(key, image);
+            int maxTiles =
+                Math.max(1, MAX_CACHED_PIXELS / (TILE_WIDTH * tileHeight));
+            Iterator it = tiles.keySet().iterator();
+            while (tiles.size() > maxTiles) {
+                it.next();
+                it.remove();
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Draws the process lines, the lost messages and the messages
+     * of a tile.
+     */
+    private BufferedImage drawTile(int tile) {
+        BufferedImage image = new BufferedImage(TILE_WIDTH, tileHeight,
+                                                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(drawingArea.getBackground());
+        g.fillRect(0, 0, TILE_WIDTH, tileHeight);
+        g.setFont(drawingArea.getFont());
+        int from = tile * TILE_WIDTH;
+        int to = from + TILE_WIDTH;
+        g.translate(-from, 0);
+
+        BasicStroke lineStroke =
+            new BasicStroke(2.0f,
+                            BasicStroke.CAP_BUTT,
+                            BasicStroke.JOIN_ROUND);
+        g.setStroke(lineStroke);
+        DLine l;
+        // Drawing the process line
+        for (int i = 0; i < process.size(); i++) {
+            l = (DLine) process.get(i);
+            g.setColor(Color.black);
+            g.drawLine(l.x1, l.y1, l.x2, l.y2);
+        }
+
+        if (messageIndex == null) {
+            messageIndex = new LineIndex(messages);
+        }
+        if (lostIndex == null) {
+            lostIndex = new LineIndex(lost);
+        }
+        List lostLines = lostIndex.find(from, to);
+        for (int h = 0; h < lostLines.size(); h++) {
+            DLine lm = (DLine) lostLines.get(h);
+            g.setColor(Color.black);
+            g.drawLine(lm.x1, lm.y1, lm.x2, lm.y2);
+            Polygon p = new Polygon(lm.xpoints, lm.ypoints, 5);
+            g.drawPolygon(p);
+        }
+
+        List lines = messageIndex.find(from, to);
+        if (lines.size() > LOD_ARROWS_PER_PIXEL * TILE_WIDTH) {
+            drawDensity(g, lines, from);
+            g.dispose();
+            return image;
+        }
+        //Drawing the arrow's line
+        for (int k = 0; k < lines.size(); k++) {
+
+            l = (DLine) lines.get(k);
+
+            // Drawing the label of the message.
+            if (l.label != null) {
+                Polygon lab =
+                    new Polygon(l.labelx, l.labely, 5);
+                g.setColor(Color.blue);
+                g.drawPolygon(lab);
+                g.drawString(l.label,
+                             l.labellocation.x,
+                             l.labellocation.y);
+                g.drawLine((int) l.connection[0].getX(),
+                           (int) l.connection[0].getY(),
+                           (int) l.connection[1].getX(),
+                           (int) l.connection[1].getY());
+            }
+            //Drawing the line
+            g.setColor(l.color);
+            g.drawLine(l.x1, l.y1, l.x2, l.y2);
+
+            // Drawing the arrow's edge contained in
+            // instance variables of DLine.
+            Polygon p = new Polygon(l.xpoints, l.ypoints, 5);
+            g.fillPolygon(p);
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Draws the density of the messages of a tile instead of the
+     * messages: the number of messages sent by a process in a
+     * column of the tile determines how dark the column is, on the
+     * line of the process.
+     */
+    private void drawDensity(Graphics2D g, List lines, int from) {
+        int columns = TILE_WIDTH / DENSITY_WIDTH;
+        int[][] counts = new int[nbproc][columns];
+        for (int i = 0; i < lines.size(); i++) {
+            DLine l = (DLine) lines.get(i);
+            // the lines start on the line of the sender
+            int row = l.y1 / ppp - 1;
+            int column = (l.x1 - from) / DENSITY_WIDTH;
+            if (row >= 0 && row < nbproc
+                && l.x1 >= from && column < columns)
+            {
+                counts[row][column]++;
+            }
+        }
+        double scale = Math.log(1 + DENSITY_SATURATION);
+        int height = Math.max(2, ppp / 2);
+        for (int row = 0; row < nbproc; row++) {
+            for (int column = 0; column < columns; column++) {
+                int count = counts[row][column];
+                if (count == 0) {
+                    continue;
+                }
+                double level = Math.min(1.0, Math.log(1 + count) / scale);
+                int gray = (int) (224 * (1.0 - level));
+                g.setColor(new Color(gray, gray, gray));
+                g.fillRect(from + column * DENSITY_WIDTH,
+                           ppp + ppp * row - height / 2,
+                           DENSITY_WIDTH, height);
+            }
+        }
+    }
+
+    /**
+     * Reads the followed log files until the thread is interrupted,
+     * outside the event dispatch thread, because reading parses up to
+     * a large number of events. Each part read is passed to
+     * <code>addNewMessages</code> on the event dispatch thread, and the
+     * next part is read once it is drawn.
+     */
+    private void follow() {
+        try {
+            while (true) {
+                boolean read = reader.readMore();
+                final List newArrows = reader.getListOfArrows();
+                final List newLost = reader.getLostMessages();
+                if (!newArrows.isEmpty() || !newLost.isEmpty()) {
+                    SwingUtilities.invokeAndWait(new Runnable() {
+                            public void run() {
+                                addNewMessages(newArrows, newLost);
+                            }
+                        });
+                }
+                if (!read) {
+                    Thread.sleep(FOLLOW_DELAY);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // stop following
+        } catch (InvocationTargetException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Adds the messages read from the followed log files,
+     * and repaints the area where they are drawn.
+     * Called on the event dispatch thread.
+     */
+    private void addNewMessages(List newArrows, List newLost) {
+        msg.addAll(newArrows);
+        lostMessages.addAll(newLost);
+
+        // new processes shift the process lines: draw everything again
+        boolean newProcesses = false;
+        float max = timeEnd;
+        for (int i = 0; i < newArrows.size(); i++) {
+            Arrow m = (Arrow) newArrows.get(i);
+            newProcesses |= !processIds.contains(
+                new Integer(m.getFromProcess()));
+            newProcesses |= !processIds.contains(
+                new Integer(m.getToProcess()));
+            max = Math.max(max, m.getDepartureTime());
+            max = Math.max(max, m.getArrivalTime());
+        }
+        for (int i = 0; i < newLost.size(); i++) {
+            LostMessage lm = (LostMessage) newLost.get(i);
+            max = Math.max(max, lm.getTime().floatValue());
+        }
+
+        Rectangle view = myViewport.getViewRect();
+        int oldWidth = size.width;
+        boolean extended = extendTime && max >= timeEnd;
+        if (extended) {
+            timeEnd = (int) max + 1;
+            time = timeEnd - timeStart;
+            drawAxe();
+        }
+
+        if (newProcesses) {
+            // processList contains names: start again from the IDs
+            processList = new ArrayList(processIds);
+            for (int i = 0; i < newArrows.size(); i++) {
+                Arrow m = (Arrow) newArrows.get(i);
+                setProcessID(m.getFromProcess());
+                setProcessID(m.getToProcess());
+            }
+            Collections.sort(processList);
+            processIds = new ArrayList(processList);
+            drawProcess();
+            drawLabels();
+            buildLines();
+            drawingArea.revalidate();
+            drawingArea.repaint();
+        } else {
+            Rectangle dirty = addLines(newArrows, newLost);
+            if (extended) {
+                drawProcess();
+                drawingArea.revalidate();
+                // the process lines are longer
+                dirty = union(dirty,
+                              new Rectangle(oldWidth, 0,
+                                            size.width - oldWidth,
+                                            size.height + ppp));
+            }
+            if (dirty != null) {
+                clearTiles(dirty);
+                drawingArea.repaint(dirty);
+            }
+        }
+
+        // keep on showing the end of the log, like tail -f
+        if (extended && view.x + view.width >= oldWidth) {
+            drawingArea.scrollRectToVisible(
+                new Rectangle(size.width - 1, view.y, 1, view.height));
+        }
     }
 
     /**
@@ -675,6 +1196,9 @@ class GraphicPanel
         if (o == s4) {
             s3.setValue(s4.getValue());
         }
+        if (indexed && (o == s3 || o == s4)) {
+            updateMessages();
+        }
     }
 
     /**
@@ -685,6 +1209,11 @@ class GraphicPanel
      */
     public void print() {
 
+        if (indexed) {
+            // print all the messages, not only the loaded ones
+            loadMessages(timeStart, timeEnd);
+            buildLines();
+        }
         // SimpleBook sb = new SimpleBook(messages, process, lost, processList);
         PrinterJob job = PrinterJob.getPrinterJob();
         String psMimeType = "application/postscript";
@@ -752,6 +1281,12 @@ class GraphicPanel
             System.out.println("something is wrong");
             // FIXME
         }
+
+        if (indexed) {
+            loadMessages();
+            buildLines();
+            drawingArea.repaint();
+        }
     }
 
     /**
@@ -0,0 +1,176 @@
+package lse.neko.tools.logView;
+
+// java imports:
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List; // ambiguous with: java.awt.List
+
+
+/**
+ * Index of DLine objects by the x-coordinates of the area where they
+ * are drawn. It finds the lines drawn in a range of x-coordinates
+ * without looking at all lines.
+ * <p>
+ * The lines are sorted by their left edge. A range query starts at the
+ * first line that can reach the range, i.e., that starts at most the
+ * width of the widest line before it. Lines wider than
+ * {@link #LONG_WIDTH} are kept apart and always looked at, so that a
+ * few long arrows do not make every query slow.
+ * <p>
+ * Lines can be added to an index, which is cheap for lines that start
+ * to the right of all sorted lines, as the new lines of followed log
+ * files usually do.
+ */
+class LineIndex {
+
+    /**
+     * Lines wider than this (in pixels) are not sorted.
+     */
+    static final int LONG_WIDTH = 2048;
+
+    private DLine[] lines;
+    private int[] left;
+    private int[] right;
+
+    /**
+     * Number of sorted lines; the arrays may be longer.
+     */
+    private int count;
+
+    /**
+     * Width of the widest sorted line.
+     */
+    private int maxWidth = 0;
+
+    private final List longLines = new ArrayList();
+    private final List longBounds = new ArrayList();
+
+    /**
+     * Constructs an index of the DLine objects in <code>list</code>.
+     */
+    LineIndex(List list) {
+        int n = list.size();
+        long[] keys = new long[n];
+        int[] rights = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            DLine line = (DLine) list.get(i);
+            Rectangle r = line.getDrawingBounds();
+            if (r.width > LONG_WIDTH) {
+                longLines.add(line);
+                longBounds.add(r);
+                continue;
+            }
+            maxWidth = Math.max(maxWidth, r.width);
+            // sort by the left edge, then by position in the list
+            keys[count] = ((long) r.x << 32) | i;
+            rights[i] = r.x + r.width;
+            count++;
+        }
+        Arrays.sort(keys, 0, count);
+        this.count = count;
+        lines = new DLine[count];
+        left = new int[count];
+        right = new int[count];
+        for (int k = 0; k < count; k++) {
+            int i = (int) keys[k];
+            lines[k] = (DLine) list.get(i);
+            left[k] = (int) (keys[k] >> 32);
+            right[k] = rights[i];
+        }
+    }
+
+    /**
+     * Adds the DLine objects in <code>list</code> to the index.
+     * Lines that start at the same x-coordinate as lines already in
+     * the index are found after them.
+     */
+    void addAll(List list) {
+        for (int i = 0; i < list.size(); i++) {
+            DLine line = (DLine) list.get(i);
+            Rectangle r = line.getDrawingBounds();
+            if (r.width > LONG_WIDTH) {
+                longLines.add(line);
+                longBounds.add(r);
+                continue;
+            }
+            maxWidth = Math.max(maxWidth, r.width);
+            if (count == lines.length) {
+                int capacity = Math.max(16, 2 * count);
+                DLine[] newLines = new DLine[capacity];
+                int[] newLeft = new int[capacity];
+                int[] newRight = new int[capacity];
+                System.arraycopy(lines, 0, newLines, 0, count);
+                System.arraycopy(left, 0, newLeft, 0, count);
+                System.arraycopy(right, 0, newRight, 0, count);
+                lines = newLines;
+                left = newLeft;
+                right = newRight;
+            }
+            // the first line whose left edge is after r.x
+            int low = 0;
+            int high = count;
+            if (count > 0 && left[count - 1] <= r.x) {
+                low = count;
+            }
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (left[mid] <= r.x) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int moved = count - low;
+            System.arraycopy(lines, low, lines, low + 1, moved);
+            System.arraycopy(left, low, left, low + 1, moved);
+            System.arraycopy(right, low, right, low + 1, moved);
+            lines[low] = line;
+            left[low] = r.x;
+            right[low] = r.x + r.width;
+            count++;
+        }
+    }
+
+    /**
+     * Returns the lines drawn between the x-coordinates
+     * <code>from</code> (included) and <code>to</code> (excluded),
+     * sorted by their left edge, the long lines last.
+     */
+    List find(int from, int to) {
+        List found = new ArrayList();
+        // the first line whose left edge is at from - maxWidth or later
+        int low = 0;
+        int high = count;
+        long start = (long) from - maxWidth;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (left[mid] < start) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < count && left[i] < to; i++) {
+            if (right[i] > from) {
+                found.add(lines[i]);
+            }
+        }
+        for (int i = 0; i < longLines.size(); i++) {
+            Rectangle r = (Rectangle) longBounds.get(i);
+            if (r.x < to && r.x + r.width > from) {
+                found.add(longLines.get(i));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the number of lines in the index.
+     */
+    int size() {
+        return count + longLines.size();
+    }
+
+}
@@ -0,0 +1,233 @@
+package lse.neko.tools.logView;
+
+// java imports:
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List; // ambiguous with: java.awt.List
+import java.util.Map;
+
+
+/**
+ * Matches the sends and receives of a log while it is being read, for
+ * logs that are followed as they grow. Unlike <code>NekoReader</code>,
+ * which matches the events once all of them are read, this class
+ * creates an arrow as soon as both ends of a message are known.
+ * <p>
+ * The i-th send of an event is matched with the i-th receive of the
+ * event at each destination, like in <code>NekoReader</code>. The
+ * number of events waiting for the other end is bounded: if it
+ * exceeds the capacity, the oldest events are given up as lost
+ * messages. The new arrows and lost messages are collected until they
+ * are taken by the reader.
+ *
+ * @see NekoReader
+ */
+class LiveMatcher {
+
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private static final char SENDER = 's';
+    private static final char RECEIVER = 'r';
+
+    /**
+     * Events waiting for the other end of a message:
+     * NekoEvent -> Waiting[], one for each destination.
+     */
+    private final Map waiting = new HashMap();
+
+    /**
+     * All waiting events, oldest first. Events that have been matched
+     * stay in this list until they reach its head.
+     */
+    private final LinkedList age = new LinkedList();
+
+    private int waitingCount = 0;
+
+    private final int capacity;
+
+    private List arrows = new ArrayList();
+    private List lostMessages = new ArrayList();
+
+    /**
+     * An event waiting for the other end of its message.
+     */
+    private static class Item {
+        final float time;
+        final Waiting queue;
+        boolean done = false;
+
+        Item(float time, Waiting queue) {
+            this.time = time;
+            this.queue = queue;
+        }
+    }
+
+    /**
+     * Events of one message type and destination waiting for the
+     * other end, in the order they were read. They are either all
+     * sends or all receives.
+     */
+    private static class Waiting {
+        final NekoEvent event;
+        final int destination;
+        char identifier;
+        final LinkedList items = new LinkedList();
+
+        Waiting(NekoEvent event, int destination) {
+            this.event = event;
+            this.destination = destination;
+        }
+    }
+
+    LiveMatcher(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity "
+                                               + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Handles the send of <code>event</code> at <code>time</code>.
+     */
+    void send(float time, NekoEvent event) {
+        Waiting[] queues = getQueues(event);
+        for (int i = 0; i < queues.length; i++) {
+            handle(time, queues[i], SENDER);
+        }
+    }
+
+    /**
+     * Handles the receive of <code>event</code> by
+     * <code>destination</code> at <code>time</code>.
+     */
+    void receive(float time, NekoEvent event, int destination) {
+        Waiting[] queues = getQueues(event);
+        for (int i = 0; i < queues.length; i++) {
+            if (queues[i].destination == destination) {
+                handle(time, queues[i], RECEIVER);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Process " + destination
+                                           + " is not a destination of "
+                                           + event);
+    }
+
+    private Waiting[] getQueues(NekoEvent event) {
+        Waiting[] queues = (Waiting[]) waiting.get(event);
+        if (queues == null) {
+            int[] to = event.getToProcess();
+            queues = new Waiting[to.length];
+            for (int i = 0; i < to.length; i++) {
+                queues[i] = new Waiting(event, to[i]);
+            }
+            waiting.put(event, queues);
+        }
+        return queues;
+    }
+
+    private void handle(float time, Waiting queue, char identifier) {
+        if (!queue.items.isEmpty() && queue.identifier != identifier) {
+            Item other = (Item) queue.items.removeFirst();
+            other.done = true;
+            waitingCount--;
+            float sendTime = (identifier == SENDER) ? time : other.time;
+            float receiveTime = (identifier == SENDER) ? other.time : time;
+            arrows.add(new Arrow(sendTime, receiveTime,
+                                 queue.event, queue.destination));
+            release(queue);
+            return;
+        }
+        queue.identifier = identifier;
+        Item item = new Item(time, queue);
+        queue.items.addLast(item);
+        age.addLast(item);
+        waitingCount++;
+        while (waitingCount > capacity) {
+            giveUpOldest();
+        }
+        // drop the matched items at the head, and compact the list
+        // if the oldest event waits for long
+        while (!age.isEmpty() && ((Item) age.getFirst()).done) {
+            age.removeFirst();
+        }
+        if (age.size() > 2 * capacity) {
+            compact();
+        }
+    }
+
+    /**
+     * Gives up the oldest waiting event as a lost message.
+     */
+    private void giveUpOldest() {
+        Item item;
+        do {
+            item = (Item) age.removeFirst();
+        } while (item.done);
+        Waiting queue = item.queue;
+        // the oldest event is also the oldest of its queue
+        queue.items.removeFirst();
+        item.done = true;
+        waitingCount--;
+        int process = (queue.identifier == SENDER)
+            ? queue.event.getFromProcess() : queue.destination;
+        lostMessages.add(new LostMessage(item.time, queue.identifier,
+                                         queue.event, process));
+        release(queue);
+    }
+
+    /**
+     * Forgets the event of <code>queue</code> if nothing waits for it.
+     */
+    private void release(Waiting queue) {
+        if (!queue.items.isEmpty()) {
+            return;
+        }
+        Waiting[] queues = (Waiting[]) waiting.get(queue.event);
+        for (int i = 0; i < queues.length; i++) {
+            if (!queues[i].items.isEmpty()) {
+                return;
+            }
+        }
+        waiting.remove(queue.event);
+    }
+
+    private void compact() {
+        LinkedList items = new LinkedList();
+        while (!age.isEmpty()) {
+            Item item = (Item) age.removeFirst();
+            if (!item.done) {
+                items.addLast(item);
+            }
+        }
+        age.addAll(items);
+    }
+
+    /**
+     * Returns the number of events waiting for the other end.
+     */
+    int getWaitingCount() {
+        return waitingCount;
+    }
+
+    /**
+     * Returns the arrows created since the last call.
+     */
+    List takeArrows() {
+        List l = arrows;
+        arrows = new ArrayList();
+        return l;
+    }
+
+    /**
+     * Returns the lost messages given up since the last call.
+     */
+    List takeLostMessages() {
+        List l = lostMessages;
+        lostMessages = new ArrayList();
+        return l;
+    }
+
+}
@@ -125,9 +125,14 @@ class MainFrame
      */
     private JPanel createGraphicPanel(DataReader dataReader) {
         XmlInformation xmlData = dataReader.getXmlData();
-        List arrows = dataReader.getArrowsToDraw();
-        List lostMessages = dataReader.getLostMessages();
-        graphicPane = new GraphicPanel(xmlData, arrows, lostMessages);
+        NekoReader reader = dataReader.getIncrementalReader();
+        if (reader != null) {
+            graphicPane = new GraphicPanel(xmlData, reader);
+        } else {
+            List arrows = dataReader.getArrowsToDraw();
+            List lostMessages = dataReader.getLostMessages();
+            graphicPane = new GraphicPanel(xmlData, arrows, lostMessages);
+        }
         return (JPanel) graphicPane;
     }
 
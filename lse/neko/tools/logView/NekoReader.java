@@ -7,6 +7,7 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -15,6 +16,10 @@ import java.util.List; // ambiguous with: java.awt.List
 import java.util.Map;
 import java.util.StringTokenizer;
 
+// lse.neko imports:
+import lse.neko.util.logging.MessageTrace;
+import lse.neko.util.logging.MessageTraceReader;
+
 
 /**
  * Class NekoReader read traces files of Neko. It reads all files
@@ -32,6 +37,15 @@ import java.util.StringTokenizer;
  * Because the amount of data to read can be huge we use a lot of
  * HashMap and HashSet to optimize the time the thread work, so we try
  * to avoid any loop that could slow the execution of LogView.
+ * <p>
+ * If the log is a single binary message trace, nothing is read into
+ * memory: the events are matched once by a <code>TraceIndex</code>,
+ * and <code>loadViewport</code> creates the arrows of the time interval
+ * being displayed.
+ * <p>
+ * The log files can also be followed while they grow, with
+ * <code>follow</code> and <code>readMore</code>. The events are then
+ * matched as they are read, by a <code>LiveMatcher</code>.
  *
  * @author Jennifer Muller [parsing, storage, matching of event
  * together (creation of arrows)]
@@ -70,6 +84,35 @@ class NekoReader implements Runnable {
     private List lostMessages = new ArrayList();
     private List listOfArrows = new ArrayList();
 
+    /**
+     * Index of the trace, if the log is a single binary trace.
+     * Only the arrows of a time interval are read then.
+     */
+    private TraceIndex index = null;
+
+    private MessageTraceReader trace = null;
+
+    /**
+     * Matches the events if the log files are followed,
+     * <code>null</code> otherwise.
+     */
+    private LiveMatcher matcher = null;
+
+    /**
+     * The followed log files (Tail objects).
+     */
+    private List tails = null;
+
+    /**
+     * Largest part of a followed text log read at once.
+     */
+    private static final int MAX_BYTES = 1024 * 1024;
+
+    /**
+     * Largest number of records of a followed trace read at once.
+     */
+    private static final int MAX_RECORDS = 20000;
+
     /**
      * The constructor takes only one argument, the XML Data. It
      * initializes three variables for the following work.
@@ -92,11 +135,33 @@ class NekoReader implements Runnable {
      */
     public void run() {
 
+        // A single binary trace is not read into memory: the arrows
+        // are read from its index when they are displayed
+        if (nekoDataFile.size() == 1) {
+            File toRead = (File) nekoDataFile.get(0);
+            if (MessageTraceReader.isTrace(toRead)) {
+                try {
+                    index = new TraceIndex(toRead);
+                    trace = new MessageTraceReader(toRead);
+                    return;
+                } catch (IOException ex) {
+                    System.out.println("Cannot index " + toRead
+                                       + ": " + ex.getMessage());
+                    index = null;
+                }
+            }
+        }
+
         BufferedReader nekoStream = null;
         boolean loop = true;
 
         for (int i = 0; i < nekoDataFile.size(); i++) {
             File toRead = (File) nekoDataFile.get(i);
+            // Binary message traces are read without parsing text
+            if (MessageTraceReader.isTrace(toRead)) {
+                readTrace(toRead);
+                continue;
+            }
             // Trying to open a stream on the file. Since the file
             // exists, we have checked before, it should minimize IO
             // Exception, but Exception are always possible...
@@ -230,6 +295,334 @@ class NekoReader implements Runnable {
         }
     }
 
+    /**
+     * Reads all records of a binary message trace.
+     */
+    private void readTrace(File file) {
+        try {
+            MessageTraceReader reader = new MessageTraceReader(file);
+            while (reader.next()) {
+                handleRecord(reader);
+            }
+            reader.close();
+        } catch (IOException ex) {
+            System.out.println("Stream problems in NekoTreatment");
+            // FIXME
+        }
+    }
+
+    /**
+     * Handles the current record of a trace.
+     */
+    private void handleRecord(MessageTraceReader reader) {
+        String content = reader.getContent();
+        handleEvent(new Float((float) reader.getTime()),
+                    reader.getProcessId(),
+                    reader.getEventName(),
+                    reader.getSource(),
+                    sortedDestinations(reader),
+                    reader.getTypeName(),
+                    // the content is not always recorded
+                    (content != null) ? content : "");
+    }
+
+    /**
+     * Returns the destinations of the current record of a trace,
+     * in increasing order.
+     */
+    private static int[] sortedDestinations(MessageTraceReader reader) {
+        int[] toProcess = reader.getDestinations();
+        for (int i = 1; i < toProcess.length; i++) {
+            if (toProcess[i - 1] > toProcess[i]) {
+                // the array is shared by the reader
+                toProcess = (int[]) toProcess.clone();
+                Arrays.sort(toProcess);
+                break;
+            }
+        }
+        return toProcess;
+    }
+
+    /**
+     * Starts following the log files as they grow, instead of
+     * reading them with <code>run</code>. The events are matched
+     * as they are read, and the lists of arrows and lost messages
+     * contain those of the events read so far.
+     * <code>readMore</code> reads the events written later.
+     *
+     * @param capacity the largest number of events waiting for
+     * the other end of a message. Older events are shown as lost
+     * messages.
+     */
+    public void follow(int capacity) {
+        matcher = new LiveMatcher(capacity);
+        tails = new ArrayList();
+        for (int i = 0; i < nekoDataFile.size(); i++) {
+            tails.add(new Tail((File) nekoDataFile.get(i)));
+        }
+        List arrows = new ArrayList();
+        List lost = new ArrayList();
+        while (readMore()) {
+            arrows.addAll(listOfArrows);
+            lost.addAll(lostMessages);
+        }
+        listOfArrows = arrows;
+        lostMessages = lost;
+    }
+
+    /**
+     * Returns <code>true</code> if the log files are followed.
+     */
+    public boolean isFollowing() {
+        return matcher != null;
+    }
+
+    /**
+     * Reads a part of the events appended to the followed log files.
+     * Replaces the lists of arrows and lost messages by those
+     * created from the events, filtered according to the user
+     * options.
+     *
+     * @return <code>true</code> if events were read.
+     */
+    public boolean readMore() {
+        boolean read = false;
+        for (int i = 0; i < tails.size(); i++) {
+            Tail tail = (Tail) tails.get(i);
+            try {
+                if (tail.read()) {
+                    read = true;
+                }
+            } catch (IOException ex) {
+                System.out.println("Stream problems in NekoTreatment");
+                // FIXME
+            }
+        }
+        listOfArrows = matcher.takeArrows();
+        lostMessages = matcher.takeLostMessages();
+        processOptionHandler();
+        arrowOptionHandler();
+        return read;
+    }
+
+    /**
+     * A followed log file, and the position up to which it is read.
+     */
+    private class Tail {
+
+        private final File file;
+
+        /**
+         * The text log, if the file is a text log.
+         */
+        private RandomAccessFile text = null;
+        private long position = 0;
+
+        /**
+         * The trace, if the file is a binary trace.
+         */
+        private MessageTraceReader reader = null;
+
+        Tail(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Reads a part of the events appended to the file.
+         *
+         * @return <code>true</code> if events were read.
+         */
+        boolean read() throws IOException {
+            if (text == null && reader == null) {
+                // the format is known once the file starts
+                RandomAccessFile f = new RandomAccessFile(file, "r");
+                int magic = (f.length() >= 4) ? f.readInt() : 0;
+                if (magic == MessageTrace.MAGIC) {
+                    f.close();
+                    reader = new MessageTraceReader(file);
+                } else if ((magic >>> 24) != 0) {
+                    text = f;
+                } else {
+                    f.close();
+                    return false;
+                }
+            }
+            return (reader != null) ? readRecords() : readLines();
+        }
+
+        private boolean readRecords() throws IOException {
+            reader.refresh();
+            int n = 0;
+            while (n < MAX_RECORDS && reader.next()) {
+                handleRecord(reader);
+                n++;
+            }
+            return n > 0;
+        }
+
+        private boolean readLines() throws IOException {
+            long length = text.length();
+            if (length < position) {
+                // the log was written again: start over
+                position = 0;
+            }
+            int n = (int) Math.min(length - position, MAX_BYTES);
+            if (n <= 0) {
+                return false;
+            }
+            byte[] bytes = new byte[n];
+            text.seek(position);
+            text.readFully(bytes);
+            // only read complete lines
+            int end = n;
+            while (end > 0 && bytes[end - 1] != '\n') {
+                end--;
+            }
+            if (end == 0) {
+                if (n < MAX_BYTES) {
+                    return false;
+                }
+                // a line longer than MAX_BYTES
+                end = n;
+            }
+            position += end;
+            StringTokenizer st =
+                new StringTokenizer(new String(bytes, 0, end), "\r\n");
+            while (st.hasMoreTokens()) {
+                String aLine = st.nextToken();
+                if (!aLine.equals("")) {
+                    parseLine(aLine);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the log is read from a trace
+     * index. The lists of arrows and lost messages are empty then,
+     * until <code>loadViewport</code> is called.
+     */
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * Returns the earliest time of an arrow in the trace index.
+     */
+    public float getStartTime() {
+        return (float) index.getStartTime();
+    }
+
+    /**
+     * Returns the latest time of an arrow in the trace index.
+     */
+    public float getEndTime() {
+        return (float) index.getEndTime();
+    }
+
+    /**
+     * Returns the processes of the trace index that are displayed,
+     * in increasing order.
+     */
+    public int[] getProcesses() {
+        int[] processes = index.getProcesses();
+        int n = 0;
+        for (int i = 0; i < processes.length; i++) {
+            DisplayProcess dp = (DisplayProcess)
+                xmlDisplayProcess.get(String.valueOf(processes[i]));
+            if (dp == null || dp.getDisplayBoolean()) {
+                processes[n] = processes[i];
+                n++;
+            }
+        }
+        int[] displayed = new int[n];
+        System.arraycopy(processes, 0, displayed, 0, n);
+        return displayed;
+    }
+
+    /**
+     * Replaces the lists of arrows and lost messages by those that
+     * intersect the interval from <code>start</code> to
+     * <code>end</code>, read from the trace index, and filters them
+     * according to the user options.
+     */
+    public void loadViewport(float start, float end) {
+        listOfArrows = new ArrayList();
+        lostMessages = new ArrayList();
+        // the arrows of a multicast message share the event
+        Map events = new HashMap();
+        try {
+            int n = index.getArrowCount();
+            for (int i = index.firstArrow(start - index.getMaxSpan());
+                 i < n && index.getArrowStart(i) <= end;
+                 i++)
+            {
+                if (index.getArrowEnd(i) < start) {
+                    continue;
+                }
+                Integer record = new Integer(index.getSendRecord(i));
+                NekoEvent event = (NekoEvent) events.get(record);
+                if (event == null) {
+                    trace.seek(record.intValue());
+                    trace.next();
+                    event = readEvent();
+                    events.put(record, event);
+                }
+                Arrow arrow = new Arrow((float) index.getDeparture(i),
+                                        (float) index.getArrival(i),
+                                        event,
+                                        index.getDestination(i));
+                if (event.getContent().length() == 0) {
+                    // the content is not recorded
+                    arrow.setLabel(null);
+                }
+                listOfArrows.add(arrow);
+            }
+
+            n = index.getLostCount();
+            for (int i = index.firstLost(start);
+                 i < n && index.getLostTime(i) <= end;
+                 i++)
+            {
+                trace.seek(index.getLostRecord(i));
+                trace.next();
+                char identifier = (trace.getEventName().charAt(0) == RECEIVER)
+                    ? RECEIVER : SENDER;
+                lostMessages.add(new LostMessage((float) trace.getTime(),
+                                                 identifier,
+                                                 readEvent(),
+                                                 index.getLostProcess(i)));
+            }
+        } catch (IOException ex) {
+            System.out.println("Stream problems in NekoTreatment");
+            // FIXME
+        }
+        processOptionHandler();
+        arrowOptionHandler();
+    }
+
+    /**
+     * Creates an event out of the current record of the trace.
+     */
+    private NekoEvent readEvent() {
+        String action = trace.getEventName();
+        switch (action.charAt(0)) {
+        case SENDER:
+        case RECEIVER:
+            action = action.substring(1);
+            break;
+        default:
+            break;
+        }
+        String content = trace.getContent();
+        return new NekoEvent(action,
+                             trace.getSource(),
+                             sortedDestinations(trace),
+                             (content != null) ? content : "",
+                             trace.getTypeName());
+    }
+
     /**
      * Reads a line and extracts tokens from it.
      */
@@ -252,26 +645,7 @@ class NekoReader implements Runnable {
             return;
         }
 
-        // I have decomposed the action of time sn snf in a sender
-        // action "s" and the rest, which I name cAction, and s is
-        // called identifier
         String action = st.nextToken();
-        int actionType;
-        String cAction;
-        switch (action.charAt(0)) {
-        case SENDER:
-            actionType = SENDER_ACTION;
-            cAction = action.substring(1);
-            break;
-        case RECEIVER:
-            actionType = RECEIVER_ACTION;
-            cAction = action.substring(1);
-            break;
-        default:
-            actionType = OTHER_ACTION;
-            cAction = action;
-            break;
-        }
 
         int fromProcess = processToId(st.nextToken());
 
@@ -300,6 +674,46 @@ class NekoReader implements Runnable {
             contentOfMessage = null;
         }
 
+        handleEvent(time,
+                    pInUse,
+                    action,
+                    fromProcess,
+                    toProcess,
+                    typeOfMessage,
+                    contentOfMessage);
+    }
+
+    /**
+     * Handles a message event read from a text log or a binary trace.
+     */
+    private void handleEvent(Float time,
+                             int pInUse,
+                             String action,
+                             int fromProcess,
+                             int[] toProcess,
+                             String typeOfMessage,
+                             String contentOfMessage)
+    {
+        // I have decomposed the action of time sn snf in a sender
+        // action "s" and the rest, which I name cAction, and s is
+        // called identifier
+        int actionType;
+        String cAction;
+        switch (action.charAt(0)) {
+        case SENDER:
+            actionType = SENDER_ACTION;
+            cAction = action.substring(1);
+            break;
+        case RECEIVER:
+            actionType = RECEIVER_ACTION;
+            cAction = action.substring(1);
+            break;
+        default:
+            actionType = OTHER_ACTION;
+            cAction = action;
+            break;
+        }
+
         // ask create Event to work now..
         createEvent(time,
                     cAction,
@@ -391,6 +805,15 @@ class NekoReader implements Runnable {
                             NekoEvent eventKey,
                             int identifierKey)
     {
+        if (matcher != null) {
+            if (identifierKey == 0) {
+                matcher.send(time.floatValue(), eventKey);
+            } else {
+                matcher.receive(time.floatValue(), eventKey,
+                                eventKey.getToProcess()[identifierKey - 1]);
+            }
+            return;
+        }
 
         List[] timeLists = (List[]) mapOnEvent.get(eventKey);
         if (timeLists == null) {
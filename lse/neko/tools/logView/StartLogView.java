@@ -24,6 +24,8 @@ public class StartLogView {
 
     private static boolean commandLineMode = false;
 
+    private static boolean followMode = false;
+
     /**
      * The main method of our project, it can accepts argument. Only
      * one which specify the xml file location/name. If no arguments,
@@ -43,6 +45,8 @@ public class StartLogView {
             } else if (arg.equals("-h") || arg.equals("-h")) {
                 System.out.print(HELP_MESSAGE);
                 System.exit(0);
+            } else if (arg.equals("-f") || arg.equals("--follow")) {
+                followMode = true;
             } else if (arg.startsWith("-")) {
                 usage();
             } else {
@@ -93,10 +97,15 @@ public class StartLogView {
                                    + " is being created... Please wait");
                 // Here is the code to output the
                 // postcript file in command line mode
-                List arrows = dataReader.getArrowsToDraw();
-                List losts = dataReader.getLostMessages();
-                GraphicPanel graphicPane =
-                    new GraphicPanel(info, arrows, losts);
+                NekoReader reader = dataReader.getIncrementalReader();
+                GraphicPanel graphicPane;
+                if (reader != null) {
+                    graphicPane = new GraphicPanel(info, reader);
+                } else {
+                    List arrows = dataReader.getArrowsToDraw();
+                    List losts = dataReader.getLostMessages();
+                    graphicPane = new GraphicPanel(info, arrows, losts);
+                }
                 graphicPane.print();
                 System.out.println(printerFile.toString()
                                    + " is available. Good Bye !");
@@ -138,12 +147,23 @@ public class StartLogView {
         return commandLineMode;
     }
 
+    /**
+     * Returns <code>true</code> if the log files are followed while
+     * they grow, like with <code>tail -f</code>. Printing only shows
+     * the messages logged when the log files are opened.
+     */
+    public static boolean getFollowMode() {
+        return followMode;
+    }
+
     private static final String HELP_MESSAGE =
         "LogView: Visualization of Neko message logs\n"
         + "Usage: java lse.neko.tools.logView.StartLogView"
         + " [options] [option files]\n"
         + "Options:\n"
         + "  - h, --help  Displays this help message.\n"
+        + "  -f, --follow Displays the messages logged while the log\n"
+        + "               files grow.\n"
         + "Displays or prints Neko message logs.\n"
         + "Display options are specified by the option files.\n"
         + "No GUI appears if the option files only specify printing.\n";
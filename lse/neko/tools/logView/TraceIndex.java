@@ -0,0 +1,1145 @@
+package lse.neko.tools.logView;
+
+// java imports:
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List; // ambiguous with: java.awt.List
+import java.util.Map;
+import java.util.Set;
+
+// lse.neko imports:
+import lse.neko.util.logging.MessageTraceReader;
+
+
+/**
+ * Index of a binary message trace, which lets logView display traces
+ * too large to be read into memory. The index lists the arrows (a send
+ * matched with the receive at one destination) and the lost messages
+ * of the trace, sorted by time. Only the record index of the send is
+ * kept for an arrow; the rest is read from the trace when the arrow is
+ * displayed.
+ * <p>
+ * The index is built when the trace is first opened. Sends and
+ * receives are matched in one pass over the trace, with a hash table
+ * of the messages in transit, keyed by the identity of the message and
+ * the destination. The index is stored next to the trace, in a file
+ * whose name is that of the trace followed by {@link #SUFFIX}, and it
+ * is built again if the trace changes. Its tables are memory mapped
+ * one window at a time; a sparse index of their times, kept in memory,
+ * locates the entries of a time interval.
+ * <p>
+ * The tables are sorted with an external merge sort: the entries are
+ * sorted in runs of {@link #RUN_ENTRIES} entries, kept in temporary
+ * files, and the runs are merged into the index file. Thus building
+ * the index holds in memory one run of each table and the messages in
+ * transit, not all the entries.
+ * <p>
+ * The index file starts with a header:
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   long   number of records in the trace
+ *   long   length of the trace file
+ *   long   modification time of the trace file
+ *   int    number of arrows
+ *   int    number of lost messages
+ *   int    number of processes
+ *   double earliest time of an arrow
+ *   double latest time of an arrow
+ *   double largest duration of an arrow
+ * </pre>
+ * followed by the IDs of the processes (ints), the sparse indexes
+ * of the arrows and of the lost messages (the time of every
+ * {@link #STEP}-th entry, doubles), the arrows:
+ * <pre>
+ *   double departure time
+ *   double arrival time
+ *   int    record index of the send
+ *   int    destination process
+ * </pre>
+ * sorted by the earlier of the two times, and the lost messages:
+ * <pre>
+ *   double time
+ *   int    record index of the send or receive
+ *   int    process
+ * </pre>
+ * sorted by time.
+ */
+class TraceIndex {
+
+    public static final String SUFFIX = ".index";
+
+    private static final int MAGIC = 0x4e4b4958; // "NKIX"
+
+    private static final int VERSION = 1;
+
+    /**
+     * Number of entries of a table for each entry of its sparse index.
+     */
+    static final int STEP = 1024;
+
+    private static final int ARROW_SIZE = 24;
+
+    private static final int LOST_SIZE = 16;
+
+    /**
+     * Number of entries in the memory mapped windows.
+     */
+    private static final int WINDOW_ENTRIES = 1024 * 1024;
+
+    /**
+     * Largest number of entries of a table kept in memory while the
+     * index is built.
+     */
+    private static final int RUN_ENTRIES = 1024 * 1024;
+
+    private static final String RUN_SUFFIX = ".run";
+
+    private final RandomAccessFile file;
+
+    private final int[] processes;
+
+    private final double startTime;
+    private final double endTime;
+    private final double maxSpan;
+
+    private final Table arrows;
+    private final Table lost;
+
+    /**
+     * Opens the index of <code>traceFile</code>, building it
+     * if it is missing or out of date.
+     */
+    TraceIndex(File traceFile) throws IOException {
+        File indexFile = new File(traceFile.getPath() + SUFFIX);
+        RandomAccessFile f = open(traceFile, indexFile);
+        if (f == null) {
+            indexFile = build(traceFile, indexFile);
+            f = open(traceFile, indexFile);
+            if (f == null) {
+                throw new IOException("Cannot read index " + indexFile);
+            }
+        }
+        file = f;
+
+        int arrowCount = file.readInt();
+        int lostCount = file.readInt();
+        processes = new int[file.readInt()];
+        startTime = file.readDouble();
+        endTime = file.readDouble();
+        maxSpan = file.readDouble();
+        for (int i = 0; i < processes.length; i++) {
+            processes[i] = file.readInt();
+        }
+        double[] sparseArrows = readDoubles(sparseLength(arrowCount));
+        double[] sparseLost = readDoubles(sparseLength(lostCount));
+        long offset = file.getFilePointer();
+        arrows = new Table(offset, ARROW_SIZE, arrowCount, sparseArrows);
+        offset += (long) arrowCount * ARROW_SIZE;
+        lost = new Table(offset, LOST_SIZE, lostCount, sparseLost);
+    }
+
+    /**
+     * Opens the index file and reads the header up to the number of
+     * arrows. Returns <code>null</code> if the index is missing or
+     * does not describe the current trace.
+     */
+    private static RandomAccessFile open(File traceFile, File indexFile)
+        throws IOException
+    {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        RandomAccessFile f = new RandomAccessFile(indexFile, "r");
+        boolean valid = false;
+        try {
+            if (f.length() >= 4 + 4 + 8 + 8 + 8
+                && f.readInt() == MAGIC
+                && f.readInt() == VERSION)
+            {
+                long count = f.readLong();
+                long length = f.readLong();
+                long modified = f.readLong();
+                MessageTraceReader reader =
+                    new MessageTraceReader(traceFile);
+                valid = count == reader.getCount()
+                    && length == traceFile.length()
+                    && modified == traceFile.lastModified();
+                reader.close();
+            }
+        } finally {
+            if (!valid) {
+                f.close();
+            }
+        }
+        return valid ? f : null;
+    }
+
+    private static int sparseLength(int count) {
+        return (count + STEP - 1) / STEP;
+    }
+
+    private double[] readDoubles(int length) throws IOException {
+        double[] a = new double[length];
+        for (int i = 0; i < length; i++) {
+            a[i] = file.readDouble();
+        }
+        return a;
+    }
+
+    /**
+     * Returns the IDs of the processes that send or
+     * receive messages, in increasing order.
+     */
+    int[] getProcesses() {
+        return processes.clone();
+    }
+
+    /**
+     * Returns the earliest time of an arrow.
+     */
+    double getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the latest time of an arrow.
+     */
+    double getEndTime() {
+        return endTime;
+    }
+
+    int getArrowCount() {
+        return arrows.count;
+    }
+
+    /**
+     * Returns the index of the first arrow that starts at
+     * <code>time</code> or later. The arrows that intersect an
+     * interval start at most {@link #getMaxSpan} before it.
+     */
+    int firstArrow(double time) {
+        return arrows.first(time);
+    }
+
+    /**
+     * Returns the largest duration of an arrow.
+     */
+    double getMaxSpan() {
+        return maxSpan;
+    }
+
+    double getDeparture(int arrow) {
+        return arrows.getDouble(arrow, 0);
+    }
+
+    double getArrival(int arrow) {
+        return arrows.getDouble(arrow, 8);
+    }
+
+    /**
+     * Returns the earlier of the departure and arrival time.
+     */
+    double getArrowStart(int arrow) {
+        return arrows.time(arrow);
+    }
+
+    /**
+     * Returns the later of the departure and arrival time.
+     */
+    double getArrowEnd(int arrow) {
+        return Math.max(getDeparture(arrow), getArrival(arrow));
+    }
+
+    /**
+     * Returns the index of the trace record of the send.
+     */
+    int getSendRecord(int arrow) {
+        return arrows.getInt(arrow, 16);
+    }
+
+    int getDestination(int arrow) {
+        return arrows.getInt(arrow, 20);
+    }
+
+    int getLostCount() {
+        return lost.count;
+    }
+
+    /**
+     * Returns the index of the first lost message at
+     * <code>time</code> or later.
+     */
+    int firstLost(double time) {
+        return lost.first(time);
+    }
+
+    double getLostTime(int message) {
+        return lost.time(message);
+    }
+
+    /**
+     * Returns the index of the trace record of the
+     * send or receive that was not matched.
+     */
+    int getLostRecord(int message) {
+        return lost.getInt(message, 8);
+    }
+
+    /**
+     * Returns the sender of a lost send,
+     * and the destination of a lost receive.
+     */
+    int getLostProcess(int message) {
+        return lost.getInt(message, 12);
+    }
+
+    void close() throws IOException {
+        arrows.window = null;
+        lost.window = null;
+        file.close();
+    }
+
+    /**
+     * A table of the index file. Each entry starts with the
+     * time used to sort the table, or with two times if the
+     * table is sorted by the earlier one.
+     */
+    private class Table {
+
+        private final long offset;
+        private final int entrySize;
+        private final int count;
+        private final double[] sparse;
+        private final boolean twoTimes;
+
+        private MappedByteBuffer window = null;
+        private int windowStart = 0;
+        private int windowCount = 0;
+
+        Table(long offset, int entrySize, int count, double[] sparse) {
+            this.offset = offset;
+            this.entrySize = entrySize;
+            this.count = count;
+            this.sparse = sparse;
+            twoTimes = (entrySize == ARROW_SIZE);
+        }
+
+        /**
+         * Maps the window that contains <code>entry</code>
+         * and returns the position of the entry in the window.
+         */
+        private int position(int entry) {
+            if (entry < 0 || entry >= count) {
+                throw new IndexOutOfBoundsException("Invalid index entry "
+                                                    + entry);
+            }
+            if (window == null
+                || entry < windowStart
+                || entry >= windowStart + windowCount)
+            {
+                windowStart = entry - entry % WINDOW_ENTRIES;
+                windowCount = Math.min(WINDOW_ENTRIES, count - windowStart);
+                try {
+                    window = file.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY,
+                        offset + (long) windowStart * entrySize,
+                        (long) windowCount * entrySize);
+                } catch (IOException ex) {
+                    throw new RuntimeException("Cannot read trace index", ex);
+                }
+            }
+            return (entry - windowStart) * entrySize;
+        }
+
+        double getDouble(int entry, int field) {
+            // map the window before reading it
+            int position = position(entry);
+            return window.getDouble(position + field);
+        }
+
+        int getInt(int entry, int field) {
+            int position = position(entry);
+            return window.getInt(position + field);
+        }
+
+        double time(int entry) {
+            int position = position(entry);
+            double time = window.getDouble(position);
+            return twoTimes
+                ? Math.min(time, window.getDouble(position + 8))
+                : time;
+        }
+
+        /**
+         * Returns the first entry whose time is
+         * <code>time</code> or later.
+         */
+        int first(double time) {
+            // the last sparse entry before the time
+            int low = 0;
+            int high = sparse.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sparse[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int i = (low == 0) ? 0 : (low - 1) * STEP;
+            while (i < count && time(i) < time) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    /*
+     * Building the index.
+     */
+
+    private static final boolean SEND = true;
+    private static final boolean RECEIVE = false;
+
+    /**
+     * Identity of a message, together with one of its destinations.
+     * The strings come from the trace reader, which returns the same
+     * string objects for the same names.
+     */
+    private static class MessageKey {
+
+        private final String action;
+        private final int source;
+        private final int[] destinations;
+        private final String type;
+        private final String protocolId;
+        private final String content;
+        private final int destination;
+        private final int hash;
+
+        MessageKey(String action, MessageTraceReader reader,
+                   int destination)
+        {
+            this.action = action;
+            this.source = reader.getSource();
+            this.destinations = reader.getDestinations();
+            this.type = reader.getTypeName();
+            this.protocolId = reader.getProtocolId();
+            this.content = reader.getContent();
+            this.destination = destination;
+            int h = action.hashCode();
+            h = 31 * h + source;
+            h = 31 * h + type.hashCode();
+            h = 31 * h + protocolId.hashCode();
+            h = 31 * h + ((content == null) ? 0 : content.hashCode());
+            h = 31 * h + destination;
+            hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof MessageKey)) {
+                return false;
+            }
+            MessageKey k = (MessageKey) o;
+            return hash == k.hash
+                && source == k.source
+                && destination == k.destination
+                && action.equals(k.action)
+                && type.equals(k.type)
+                && protocolId.equals(k.protocolId)
+                && ((content == null)
+                    ? k.content == null
+                    : content.equals(k.content))
+                && Arrays.equals(destinations, k.destinations);
+        }
+    }
+
+    /**
+     * Sends waiting for their receives, or receives waiting for their
+     * sends, in the order of the trace.
+     */
+    private static class Transit {
+
+        final boolean sends;
+        private int[] records = new int[2];
+        private double[] times = new double[2];
+        private int head = 0;
+        private int size = 0;
+
+        Transit(boolean sends) {
+            this.sends = sends;
+        }
+
+        void add(int record, double time) {
+            if (head + size == records.length) {
+                int[] newRecords = new int[Math.max(2, size * 2)];
+                double[] newTimes = new double[newRecords.length];
+                System.arraycopy(records, head, newRecords, 0, size);
+                System.arraycopy(times, head, newTimes, 0, size);
+                records = newRecords;
+                times = newTimes;
+                head = 0;
+            }
+            records[head + size] = record;
+            times[head + size] = time;
+            size++;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int firstRecord() {
+            return records[head];
+        }
+
+        double firstTime() {
+            return times[head];
+        }
+
+        void removeFirst() {
+            head++;
+            size--;
+        }
+    }
+
+    /**
+     * Entries of a table being built, sorted with an external merge
+     * sort. At most {@link #RUN_ENTRIES} entries are kept in memory;
+     * when there are more, those in memory are sorted and written to a
+     * temporary file, called a run. <code>merge</code> merges the runs
+     * and the entries in memory into the index file.
+     */
+    private static class Entries {
+
+        private final boolean twoTimes;
+
+        /**
+         * Directory of the runs, <code>null</code> for
+         * the default temporary directory.
+         */
+        private final File dir;
+
+        private final List runs = new ArrayList();
+
+        double[] times = new double[1024];
+        double[] times2;
+        int[] records = new int[1024];
+        int[] processes = new int[1024];
+
+        /**
+         * Number of entries in memory.
+         */
+        int size = 0;
+
+        /**
+         * Number of entries, in the runs and in memory.
+         */
+        int count = 0;
+
+        /**
+         * Earliest key, latest end time and largest duration
+         * of an entry, where the end time is the later of the
+         * two times.
+         */
+        double start = 0;
+        double end = 0;
+        double maxSpan = 0;
+
+        Entries(boolean twoTimes, File dir) {
+            this.twoTimes = twoTimes;
+            this.dir = dir;
+            times2 = twoTimes ? new double[1024] : null;
+        }
+
+        void add(double time, double time2, int record, int process)
+            throws IOException
+        {
+            if (size == records.length) {
+                if (size >= RUN_ENTRIES) {
+                    writeRun();
+                } else {
+                    int length = Math.min(size * 2, RUN_ENTRIES);
+                    times = grow(times, length);
+                    if (twoTimes) {
+                        times2 = grow(times2, length);
+                    }
+                    records = grow(records, length);
+                    processes = grow(processes, length);
+                }
+            }
+            times[size] = time;
+            if (twoTimes) {
+                times2[size] = time2;
+            }
+            records[size] = record;
+            processes[size] = process;
+
+            double first = key(size);
+            double last = twoTimes ? Math.max(time, time2) : time;
+            if (count == 0 || first < start) {
+                start = first;
+            }
+            if (count == 0 || last > end) {
+                end = last;
+            }
+            maxSpan = Math.max(maxSpan, last - first);
+            size++;
+            count++;
+        }
+
+        private static double[] grow(double[] a, int length) {
+            double[] b = new double[length];
+            System.arraycopy(a, 0, b, 0, a.length);
+            return b;
+        }
+
+        private static int[] grow(int[] a, int length) {
+            int[] b = new int[length];
+            System.arraycopy(a, 0, b, 0, a.length);
+            return b;
+        }
+
+        /**
+         * Returns the time the entry in memory is sorted by.
+         */
+        double key(int i) {
+            return twoTimes ? Math.min(times[i], times2[i]) : times[i];
+        }
+
+        /**
+         * Sorts the entries in memory and writes them to a new run:
+         * their number, then the entries in the format of the table.
+         */
+        private void writeRun() throws IOException {
+            int[] order = sortedOrder(this);
+            File run;
+            try {
+                run = File.createTempFile("logView", RUN_SUFFIX, dir);
+            } catch (IOException ex) {
+                run = File.createTempFile("logView", RUN_SUFFIX);
+            }
+            run.deleteOnExit();
+            runs.add(run);
+            DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(run), 64 * 1024));
+            try {
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    writeEntry(out, order[i]);
+                }
+            } finally {
+                out.close();
+            }
+            size = 0;
+        }
+
+        void writeEntry(DataOutputStream out, int i) throws IOException {
+            out.writeDouble(times[i]);
+            if (twoTimes) {
+                out.writeDouble(times2[i]);
+            }
+            out.writeInt(records[i]);
+            out.writeInt(processes[i]);
+        }
+
+        /**
+         * Writes all the entries to <code>out</code>, sorted by their
+         * key, and returns the sparse index of the table. The sort is
+         * stable: the runs hold earlier entries than the entries in
+         * memory, and ties are broken in the order of the runs.
+         */
+        double[] merge(DataOutputStream out) throws IOException {
+            Run[] sources = new Run[runs.size() + 1];
+            for (int i = 0; i < runs.size(); i++) {
+                sources[i] = new Run((File) runs.get(i), twoTimes);
+            }
+            sources[runs.size()] = new Run(this, sortedOrder(this));
+            try {
+                // binary heap of the sources that have entries left
+                int[] heap = new int[sources.length];
+                int heapSize = 0;
+                for (int i = 0; i < sources.length; i++) {
+                    if (sources[i].next()) {
+                        heap[heapSize++] = i;
+                    }
+                }
+                for (int i = heapSize / 2 - 1; i >= 0; i--) {
+                    siftDown(sources, heap, heapSize, i);
+                }
+                double[] sparse = new double[sparseLength(count)];
+                for (int n = 0; heapSize > 0; n++) {
+                    Run source = sources[heap[0]];
+                    if (n % STEP == 0) {
+                        sparse[n / STEP] = source.key;
+                    }
+                    source.write(out);
+                    if (!source.next()) {
+                        heap[0] = heap[--heapSize];
+                    }
+                    siftDown(sources, heap, heapSize, 0);
+                }
+                return sparse;
+            } finally {
+                for (int i = 0; i < sources.length; i++) {
+                    sources[i].close();
+                }
+            }
+        }
+
+        private static void siftDown(Run[] sources, int[] heap,
+                                     int heapSize, int i)
+        {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < heapSize
+                    && before(sources, heap[left], heap[smallest]))
+                {
+                    smallest = left;
+                }
+                if (right < heapSize
+                    && before(sources, heap[right], heap[smallest]))
+                {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                int swap = heap[i];
+                heap[i] = heap[smallest];
+                heap[smallest] = swap;
+                i = smallest;
+            }
+        }
+
+        private static boolean before(Run[] sources, int a, int b) {
+            return sources[a].key < sources[b].key
+                || (sources[a].key == sources[b].key && a < b);
+        }
+
+        /**
+         * Deletes the runs.
+         */
+        void delete() {
+            for (int i = 0; i < runs.size(); i++) {
+                ((File) runs.get(i)).delete();
+            }
+            runs.clear();
+        }
+    }
+
+    /**
+     * Sorted entries being merged, read from a run or
+     * from the entries in memory.
+     */
+    private static class Run {
+
+        private final boolean twoTimes;
+        private final DataInputStream in;
+        private final Entries entries;
+        private final int[] order;
+        private int remaining;
+        private int next = 0;
+
+        /**
+         * The current entry.
+         */
+        double key;
+        private double time;
+        private double time2;
+        private int record;
+        private int process;
+
+        Run(File file, boolean twoTimes) throws IOException {
+            this.twoTimes = twoTimes;
+            in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 64 * 1024));
+            entries = null;
+            order = null;
+            remaining = in.readInt();
+        }
+
+        Run(Entries entries, int[] order) {
+            twoTimes = entries.twoTimes;
+            in = null;
+            this.entries = entries;
+            this.order = order;
+            remaining = entries.size;
+        }
+
+        /**
+         * Moves to the next entry.
+         *
+         * @return <code>false</code> if there is none.
+         */
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            if (in == null) {
+                key = entries.key(order[next]);
+                next++;
+                return true;
+            }
+            time = in.readDouble();
+            time2 = twoTimes ? in.readDouble() : 0;
+            record = in.readInt();
+            process = in.readInt();
+            key = twoTimes ? Math.min(time, time2) : time;
+            return true;
+        }
+
+        /**
+         * Writes the current entry in the format of the table.
+         */
+        void write(DataOutputStream out) throws IOException {
+            if (in == null) {
+                entries.writeEntry(out, order[next - 1]);
+                return;
+            }
+            out.writeDouble(time);
+            if (twoTimes) {
+                out.writeDouble(time2);
+            }
+            out.writeInt(record);
+            out.writeInt(process);
+        }
+
+        void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Builds the index of <code>traceFile</code>.
+     *
+     * @return the index file, which is <code>indexFile</code> unless
+     * the directory of the trace is not writable.
+     */
+    private static File build(File traceFile, File indexFile)
+        throws IOException
+    {
+        MessageTraceReader reader = new MessageTraceReader(traceFile);
+        // read before the trace, so that a trace that changes
+        // while the index is built is indexed again next time
+        long traceLength = traceFile.length();
+        long traceModified = traceFile.lastModified();
+        long count = reader.getCount();
+        if (count > Integer.MAX_VALUE) {
+            reader.close();
+            throw new IOException("Trace too large to be indexed: "
+                                  + traceFile);
+        }
+
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        Entries arrowEntries = new Entries(true, dir);
+        Entries lostEntries = new Entries(false, dir);
+        try {
+            return build(reader, traceFile, indexFile, dir,
+                         count, traceLength, traceModified,
+                         arrowEntries, lostEntries);
+        } finally {
+            arrowEntries.delete();
+            lostEntries.delete();
+        }
+    }
+
+    /**
+     * Builds the index from <code>reader</code>, sorting the tables
+     * with <code>arrowEntries</code> and <code>lostEntries</code>.
+     * Closes the reader.
+     */
+    private static File build(MessageTraceReader reader,
+                              File traceFile, File indexFile, File dir,
+                              long count, long traceLength,
+                              long traceModified,
+                              Entries arrowEntries, Entries lostEntries)
+        throws IOException
+    {
+        Map inTransit = new HashMap();
+        boolean[] isProcess = new boolean[64];
+
+        try {
+            for (int record = 0; reader.next(); record++) {
+                String event = reader.getEventName();
+                char c = event.charAt(0);
+                String action = (c == 's' || c == 'r')
+                    ? event.substring(1) : event;
+                double time = reader.getTime();
+                int[] to = reader.getDestinations();
+                isProcess = mark(isProcess, reader.getSource());
+                for (int i = 0; i < to.length; i++) {
+                    isProcess = mark(isProcess, to[i]);
+                }
+                if (c == 'r') {
+                    int process = reader.getProcessId();
+                    if (process == Integer.MIN_VALUE && to.length == 1) {
+                        process = to[0];
+                    }
+                    if (!contains(to, process)) {
+                        // like LiveMatcher.receive
+                        throw new IOException("Record " + record
+                                              + " of " + traceFile
+                                              + ": process " + process
+                                              + " is not a destination"
+                                              + " of the message");
+                    }
+                    match(new MessageKey(action, reader, process),
+                          RECEIVE, record, time,
+                          inTransit, arrowEntries);
+                } else {
+                    for (int i = 0; i < to.length; i++) {
+                        match(new MessageKey(action, reader, to[i]),
+                              SEND, record, time,
+                              inTransit, arrowEntries);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        // whatever is still in transit is lost
+        Set lostSends = new HashSet();
+        Iterator it = inTransit.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry) it.next();
+            MessageKey key = (MessageKey) entry.getKey();
+            Transit transit = (Transit) entry.getValue();
+            for (; !transit.isEmpty(); transit.removeFirst()) {
+                int record = transit.firstRecord();
+                if (transit.sends
+                    && !lostSends.add(new Integer(record)))
+                {
+                    // already lost for another destination
+                    continue;
+                }
+                lostEntries.add(transit.firstTime(), 0, record,
+                                transit.sends ? key.source
+                                : key.destination);
+            }
+        }
+
+        File tmp;
+        try {
+            tmp = File.createTempFile("logView", SUFFIX, dir);
+        } catch (IOException ex) {
+            // the index is used, but not kept
+            tmp = File.createTempFile("logView", SUFFIX);
+            tmp.deleteOnExit();
+            indexFile = tmp;
+        }
+        write(tmp, count, traceLength, traceModified,
+              arrowEntries, lostEntries, isProcess);
+        if (tmp != indexFile) {
+            indexFile.delete();
+            if (!tmp.renameTo(indexFile)) {
+                tmp.deleteOnExit();
+                return tmp;
+            }
+        }
+        return indexFile;
+    }
+
+    private static boolean contains(int[] a, int x) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == x) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean[] mark(boolean[] isProcess, int process) {
+        if (process < 0) {
+            return isProcess;
+        }
+        if (process >= isProcess.length) {
+            boolean[] b = new boolean[Math.max(process + 1,
+                                               isProcess.length * 2)];
+            System.arraycopy(isProcess, 0, b, 0, isProcess.length);
+            isProcess = b;
+        }
+        isProcess[process] = true;
+        return isProcess;
+    }
+
+    /**
+     * Matches a send or a receive with the first event of the other
+     * kind in transit, or puts it in transit.
+     */
+    private static void match(MessageKey key, boolean kind,
+                              int record, double time,
+                              Map inTransit, Entries arrowEntries)
+        throws IOException
+    {
+        Transit transit = (Transit) inTransit.get(key);
+        if (transit != null && transit.sends != kind) {
+            if (kind == SEND) {
+                arrowEntries.add(time, transit.firstTime(),
+                                 record, key.destination);
+            } else {
+                arrowEntries.add(transit.firstTime(), time,
+                                 transit.firstRecord(), key.destination);
+            }
+            transit.removeFirst();
+            if (transit.isEmpty()) {
+                inTransit.remove(key);
+            }
+            return;
+        }
+        if (transit == null) {
+            transit = new Transit(kind);
+            inTransit.put(key, transit);
+        }
+        transit.add(record, time);
+    }
+
+    /**
+     * Writes the index file. The sparse indexes are written after the
+     * tables are merged, in the space left for them after the header.
+     */
+    private static void write(File file,
+                              long count, long traceLength,
+                              long traceModified,
+                              Entries arrowEntries, Entries lostEntries,
+                              boolean[] isProcess)
+        throws IOException
+    {
+        int processCount = 0;
+        for (int i = 0; i < isProcess.length; i++) {
+            if (isProcess[i]) {
+                processCount++;
+            }
+        }
+
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 64 * 1024));
+        int sparseOffset;
+        double[] sparseArrows;
+        double[] sparseLost;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(count);
+            out.writeLong(traceLength);
+            out.writeLong(traceModified);
+            out.writeInt(arrowEntries.count);
+            out.writeInt(lostEntries.count);
+            out.writeInt(processCount);
+            out.writeDouble(arrowEntries.start);
+            out.writeDouble(arrowEntries.end);
+            out.writeDouble(arrowEntries.maxSpan);
+            for (int i = 0; i < isProcess.length; i++) {
+                if (isProcess[i]) {
+                    out.writeInt(i);
+                }
+            }
+            sparseOffset = out.size();
+            int sparseCount = sparseLength(arrowEntries.count)
+                + sparseLength(lostEntries.count);
+            for (int i = 0; i < sparseCount; i++) {
+                out.writeDouble(0);
+            }
+            sparseArrows = arrowEntries.merge(out);
+            sparseLost = lostEntries.merge(out);
+        } finally {
+            out.close();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream sparse = new DataOutputStream(bytes);
+        for (int i = 0; i < sparseArrows.length; i++) {
+            sparse.writeDouble(sparseArrows[i]);
+        }
+        for (int i = 0; i < sparseLost.length; i++) {
+            sparse.writeDouble(sparseLost[i]);
+        }
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        try {
+            f.seek(sparseOffset);
+            f.write(bytes.toByteArray());
+        } finally {
+            f.close();
+        }
+    }
+
+    /**
+     * Returns the indexes of the entries, sorted by their key. The
+     * sort is stable, and fast if the entries are almost sorted,
+     * which is usually the case.
+     */
+    private static int[] sortedOrder(Entries entries) {
+        int n = entries.size;
+        int[] order = new int[n];
+        boolean sorted = true;
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            if (i > 0 && entries.key(i - 1) > entries.key(i)) {
+                sorted = false;
+            }
+        }
+        if (sorted) {
+            return order;
+        }
+        int[] tmp = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int low = 0; low < n; low += 2 * width) {
+                int mid = Math.min(low + width, n);
+                int high = Math.min(low + 2 * width, n);
+                if (mid == high
+                    || entries.key(order[mid - 1])
+                       <= entries.key(order[mid]))
+                {
+                    System.arraycopy(order, low, tmp, low, high - low);
+                    continue;
+                }
+                int i = low;
+                int j = mid;
+                for (int k = low; k < high; k++) {
+                    if (j >= high
+                        || (i < mid
+                            && entries.key(order[i])
+                               <= entries.key(order[j])))
+                    {
+                        tmp[k] = order[i++];
+                    } else {
+                        tmp[k] = order[j++];
+                    }
+                }
+            }
+            int[] swap = order;
+            order = tmp;
+            tmp = swap;
+        }
+        return order;
+    }
+
+}
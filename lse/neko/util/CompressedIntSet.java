@@ -1,50 +1,120 @@
 package lse.neko.util;
 
 // java imports:
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.Iterator;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 
 /**
  * Stores a set of non-negative integers.
- * The subset of type 0, 1, 2, ..., k takes up only a small constant amount
- * of memory.
+ * The set is stored as runs of consecutive integers, in a
+ * primitive array. Hence the subset of type 0, 1, 2, ..., k,
+ * or any other interval, takes up only a small constant amount
+ * of memory, and no integer is boxed.
  */
 public class CompressedIntSet
     implements Serializable
 {
-    transient SortedSet set;
-    int filled;
+    static final long serialVersionUID = 3623578269292107711L;
+
+    /**
+     * The runs of the set: run k contains the integers from
+     * <code>runs[2*k]</code> (included) to <code>runs[2*k+1]</code>
+     * (excluded). Runs are sorted, and neither overlap nor touch.
+     */
+    transient int[] runs;
+
+    /**
+     * Number of runs.
+     */
+    transient int count;
 
     // Does not implement the SortedSet interface.
     // Provides similar type safe methods instead.
     // XXX: provide a full set of methods.
 
     public CompressedIntSet() {
-        set = new TreeSet();
-        filled = 0;
+        runs = new int[2];
+        count = 0;
     }
 
     public CompressedIntSet(CompressedIntSet right) {
-        set = new TreeSet(right.set);
-        filled = right.filled;
+        runs = new int[Math.max(2, 2 * right.count)];
+        System.arraycopy(right.runs, 0, runs, 0, 2 * right.count);
+        count = right.count;
+    }
+
+    /**
+     * Creates a set that contains 0, 1, ..., filled-1 and
+     * the elements of sparse, which must all be larger than filled.
+     */
+    public CompressedIntSet(int filled, int[] sparse) {
+        if (filled < 0) {
+            throw new IllegalArgumentException();
+        }
+        runs = new int[2];
+        count = 0;
+        if (filled > 0) {
+            append(0, filled);
+        }
+        for (int i = 0; i < sparse.length; i++) {
+            if (sparse[i] <= filled) {
+                throw new IllegalArgumentException();
+            }
+            add(sparse[i]);
+        }
+    }
+
+    /**
+     * Creates a set from the runs returned by <code>getRuns</code>.
+     */
+    public static CompressedIntSet fromRuns(int[] runs) {
+        if (runs.length % 2 != 0) {
+            throw new IllegalArgumentException("Odd length of runs");
+        }
+        CompressedIntSet set = new CompressedIntSet();
+        int previous = -1;
+        for (int i = 0; i < runs.length; i += 2) {
+            if (runs[i] <= previous || runs[i + 1] <= runs[i]) {
+                throw new IllegalArgumentException("Invalid run "
+                                                   + runs[i] + "-"
+                                                   + runs[i + 1]);
+            }
+            set.append(runs[i], runs[i + 1]);
+            previous = runs[i + 1];
+        }
+        return set;
     }
 
     public void add(int i) {
-        if (i < 0) {
+        if (i < 0 || i == Integer.MAX_VALUE) {
             throw new IllegalArgumentException();
         }
-        if (i < filled) {
+        int k = find(i);
+        if (k >= 0 && i < runs[2 * k + 1]) {
             return;
-        } else if (i == filled) {
-            do {
-                filled++;
-            } while (set.remove(new Integer(filled)));
+        }
+        boolean extendsPrevious = k >= 0 && runs[2 * k + 1] == i;
+        boolean extendsNext = k + 1 < count && runs[2 * k + 2] == i + 1;
+        if (extendsPrevious && extendsNext) {
+            // i fills the gap between two runs
+            runs[2 * k + 1] = runs[2 * k + 3];
+            System.arraycopy(runs, 2 * k + 4, runs, 2 * k + 2,
+                             2 * (count - k - 2));
+            count--;
+        } else if (extendsPrevious) {
+            runs[2 * k + 1]++;
+        } else if (extendsNext) {
+            runs[2 * k + 2]--;
         } else {
-            // assert i > filled;
-            set.add(new Integer(i));
+            ensureCapacity(count + 1);
+            System.arraycopy(runs, 2 * k + 2, runs, 2 * k + 4,
+                             2 * (count - k - 1));
+            runs[2 * k + 2] = i;
+            runs[2 * k + 3] = i + 1;
+            count++;
         }
     }
 
@@ -52,7 +122,8 @@ public class CompressedIntSet
         if (i < 0) {
             throw new IllegalArgumentException();
         }
-        return (i < filled) ? true : set.contains(new Integer(i));
+        int k = find(i);
+        return k >= 0 && i < runs[2 * k + 1];
     }
 
     /**
@@ -60,14 +131,161 @@ public class CompressedIntSet
      * if this method returns k, then the set contains 0, 1, 2, ..., k-1.
      */
     public int getFilled() {
-        return filled;
+        return (count > 0 && runs[0] == 0) ? runs[1] : 0;
     }
 
+    /**
+     * Returns the elements not counted by <code>getFilled</code>,
+     * in increasing order.
+     */
+    public int[] getSparse() {
+        int first = (getFilled() > 0) ? 1 : 0;
+        int size = 0;
+        for (int k = first; k < count; k++) {
+            size += runs[2 * k + 1] - runs[2 * k];
+        }
+        int[] r = new int[size];
+        int j = 0;
+        for (int k = first; k < count; k++) {
+            for (int i = runs[2 * k]; i < runs[2 * k + 1]; i++) {
+                r[j++] = i;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Returns the runs of consecutive integers in the set, in
+     * increasing order: the set contains the integers from
+     * <code>r[2*k]</code> (included) to <code>r[2*k+1]</code>
+     * (excluded) for each k.
+     */
+    public int[] getRuns() {
+        int[] r = new int[2 * count];
+        System.arraycopy(runs, 0, r, 0, r.length);
+        return r;
+    }
+
+    /**
+     * Returns the number of elements.
+     */
+    public int size() {
+        int size = 0;
+        for (int k = 0; k < count; k++) {
+            size += runs[2 * k + 1] - runs[2 * k];
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of elements smaller than <code>i</code>.
+     */
+    public int rank(int i) {
+        int rank = 0;
+        for (int k = 0; k < count && runs[2 * k] < i; k++) {
+            rank += Math.min(i, runs[2 * k + 1]) - runs[2 * k];
+        }
+        return rank;
+    }
+
+    /**
+     * Returns a new set with the elements of this set and
+     * <code>right</code>.
+     */
+    public CompressedIntSet union(CompressedIntSet right) {
+        CompressedIntSet r = new CompressedIntSet();
+        int a = 0;
+        int b = 0;
+        while (a < count || b < right.count) {
+            if (b >= right.count
+                || (a < count && runs[2 * a] <= right.runs[2 * b]))
+            {
+                r.append(runs[2 * a], runs[2 * a + 1]);
+                a++;
+            } else {
+                r.append(right.runs[2 * b], right.runs[2 * b + 1]);
+                b++;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Returns a new set with the elements that are both in this set
+     * and in <code>right</code>.
+     */
+    public CompressedIntSet intersection(CompressedIntSet right) {
+        CompressedIntSet r = new CompressedIntSet();
+        int a = 0;
+        int b = 0;
+        while (a < count && b < right.count) {
+            int start = Math.max(runs[2 * a], right.runs[2 * b]);
+            int end = Math.min(runs[2 * a + 1], right.runs[2 * b + 1]);
+            if (start < end) {
+                r.append(start, end);
+            }
+            if (runs[2 * a + 1] < right.runs[2 * b + 1]) {
+                a++;
+            } else {
+                b++;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Returns the index of the last run that starts at or before
+     * <code>i</code>, or -1 if there is none.
+     */
+    private int find(int i) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (runs[2 * mid] <= i) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Adds the run from <code>start</code> to <code>end</code>,
+     * which must not start before the last run.
+     */
+    private void append(int start, int end) {
+        if (count > 0 && start <= runs[2 * count - 1]) {
+            runs[2 * count - 1] = Math.max(end, runs[2 * count - 1]);
+            return;
+        }
+        ensureCapacity(count + 1);
+        runs[2 * count] = start;
+        runs[2 * count + 1] = end;
+        count++;
+    }
+
+    private void ensureCapacity(int runCount) {
+        if (2 * runCount > runs.length) {
+            int[] newRuns = new int[Math.max(2 * runCount, 2 * runs.length)];
+            System.arraycopy(runs, 0, newRuns, 0, 2 * count);
+            runs = newRuns;
+        }
+    }
+
+    /**
+     * Returns the set in the format that the set had before it was
+     * stored as runs, e.g., <code>[0-3,6,8,9]</code>: the integers
+     * counted by <code>getFilled</code> as a range, then each other
+     * element.
+     */
     public String toString() {
         StringBuffer sb = new StringBuffer();
         sb.append("[");
 
         boolean first = true;
+        int filled = getFilled();
         if (filled > 0) {
             if (filled == 1) {
                 sb.append("0");
@@ -77,14 +295,15 @@ public class CompressedIntSet
             first = false;
         }
 
-        Iterator it = set.iterator();
-        while (it.hasNext()) {
-            if (!first) {
-                sb.append(",");
-            } else {
-                first = false;
+        for (int k = (filled > 0) ? 1 : 0; k < count; k++) {
+            for (int i = runs[2 * k]; i < runs[2 * k + 1]; i++) {
+                if (!first) {
+                    sb.append(",");
+                } else {
+                    first = false;
+                }
+                sb.append(i);
             }
-            sb.append(it.next());
         }
 
         sb.append("]");
@@ -92,7 +311,11 @@ public class CompressedIntSet
     }
 
     public int hashCode() {
-        return 31 * filled + set.hashCode();
+        int h = count;
+        for (int i = 0; i < 2 * count; i++) {
+            h = 31 * h + runs[i];
+        }
+        return h;
     }
 
     public boolean equals(Object o) {
@@ -100,20 +323,35 @@ public class CompressedIntSet
             return false;
         }
         CompressedIntSet right = (CompressedIntSet) o;
-        return filled == right.filled && set.equals(right.set);
+        if (count != right.count) {
+            return false;
+        }
+        for (int i = 0; i < 2 * count; i++) {
+            if (runs[i] != right.runs[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
+    /**
+     * Writes the runs as variable length integers: the number of runs,
+     * then the gap before each run and its length.
+     * This form is not compatible with the form of the sets that
+     * stored a filled prefix and the other elements, hence the
+     * explicit <code>serialVersionUID</code>.
+     */
     private synchronized void writeObject(java.io.ObjectOutputStream s)
         throws java.io.IOException
     {
         s.defaultWriteObject();
 
-        s.writeInt(set.size());
-
-        Iterator it = set.iterator();
-        while (it.hasNext()) {
-            int next = ((Integer) it.next()).intValue();
-            s.writeInt(next);
+        writeVarInt(s, count);
+        int previous = 0;
+        for (int k = 0; k < count; k++) {
+            writeVarInt(s, runs[2 * k] - previous);
+            writeVarInt(s, runs[2 * k + 1] - runs[2 * k]);
+            previous = runs[2 * k + 1];
         }
     }
 
@@ -122,13 +360,45 @@ public class CompressedIntSet
     {
         s.defaultReadObject();
 
-        // XXX: add sanity checks
-        int size = s.readInt();
-        set = new TreeSet();
-        for (int i = 0; i < size; i++) {
-            int next = s.readInt();
-            set.add(new Integer(next));
+        int n = readVarInt(s);
+        runs = new int[2];
+        count = 0;
+        int previous = 0;
+        for (int k = 0; k < n; k++) {
+            int start = previous + readVarInt(s);
+            int end = start + readVarInt(s);
+            if ((k > 0 && start <= previous) || end <= start || start < 0) {
+                throw new java.io.InvalidObjectException("Invalid run "
+                                                         + start + "-"
+                                                         + end);
+            }
+            append(start, end);
+            previous = end;
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int i)
+        throws IOException
+    {
+        while ((i & ~0x7f) != 0) {
+            out.writeByte((i & 0x7f) | 0x80);
+            i >>>= 7;
+        }
+        out.writeByte(i);
+    }
+
+    private static int readVarInt(DataInput in)
+        throws IOException
+    {
+        int i = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            i |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return i;
+            }
         }
+        throw new java.io.InvalidObjectException("Malformed integer");
     }
 
     /**
@@ -155,6 +425,17 @@ public class CompressedIntSet
         check("" + set.contains(5), "false");
         check("" + set.contains(6), "true");
         check("" + set.contains(7), "false");
+        set.add(8);
+        set.add(9);
+        check(set.toString(), "[0-3,6,8,9]");
+        check("" + set.size(), "7");
+        check("" + set.rank(7), "5");
+        check("" + set.rank(9), "6");
+        CompressedIntSet other = new CompressedIntSet(2, new int[] {5, 9});
+        check(other.toString(), "[0-1,5,9]");
+        check(set.union(other).toString(), "[0-3,5,6,8,9]");
+        check(set.intersection(other).toString(), "[0-1,9]");
+        check(fromRuns(set.getRuns()).toString(), set.toString());
         System.out.println("Test successful");
     }
 
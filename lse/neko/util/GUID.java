@@ -44,6 +44,14 @@ public class GUID
         this(NekoThread.currentThread().getProcess());
     }
 
+    /**
+     * Recreates an existing identifier, e.g., when decoding a message.
+     */
+    public GUID(int processId, int time) {
+        this.processId = processId;
+        this.time = time;
+    }
+
     public int getProcess() {
         return this.processId;
     }
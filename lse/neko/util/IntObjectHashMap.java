@@ -0,0 +1,171 @@
+package lse.neko.util;
+
+
+/**
+ * Hash map from ints to objects that does not box its keys.
+ * It uses open addressing with linear probing. Values cannot be
+ * <code>null</code>: <code>get</code> returns <code>null</code>
+ * for absent keys.
+ *
+ * @see IntWindowMap
+ */
+public class IntObjectHashMap {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntObjectHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a map that holds <code>capacity</code> entries
+     * without growing.
+     */
+    public IntObjectHashMap(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        int length = 2;
+        while (length < 2 * capacity) {
+            length <<= 1;
+        }
+        keys = new int[length];
+        values = new Object[length];
+        size = 0;
+    }
+
+    /**
+     * Returns the slot where <code>key</code> is or would be stored.
+     */
+    private int slot(int key) {
+        int mask = values.length - 1;
+        int h = key * 0x9e3779b9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    public Object get(int key) {
+        return values[slot(key)];
+    }
+
+    public boolean containsKey(int key) {
+        return values[slot(key)] != null;
+    }
+
+    /**
+     * Maps <code>key</code> to <code>value</code> and returns the
+     * previous value, or <code>null</code> if there was none.
+     */
+    public Object put(int key, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null value");
+        }
+        int i = slot(key);
+        Object old = values[i];
+        keys[i] = key;
+        values[i] = value;
+        if (old == null) {
+            size++;
+            if (2 * size > values.length) {
+                rehash(2 * values.length);
+            }
+        }
+        return old;
+    }
+
+    /**
+     * Removes the mapping of <code>key</code> and returns its value,
+     * or <code>null</code> if there was none.
+     */
+    public Object remove(int key) {
+        int mask = values.length - 1;
+        int i = slot(key);
+        Object old = values[i];
+        if (old == null) {
+            return null;
+        }
+        values[i] = null;
+        size--;
+        // move back the following entries of the probe sequence
+        // that cannot be found any more because of the hole at i
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int h = keys[j] * 0x9e3779b9;
+            int home = (h ^ (h >>> 16)) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns the keys of the map, in no particular order.
+     */
+    public int[] keys() {
+        int[] r = new int[size];
+        int j = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                r[j++] = keys[i];
+            }
+        }
+        return r;
+    }
+
+    private void rehash(int length) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[length];
+        values = new Object[length];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("{");
+        boolean first = true;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                sb.append(keys[i] + "=" + values[i]);
+            }
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+
+}
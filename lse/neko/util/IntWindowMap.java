@@ -0,0 +1,191 @@
+package lse.neko.util;
+
+// java imports:
+import java.util.NoSuchElementException;
+
+
+/**
+ * Sorted map from ints to objects, for keys that lie in a sliding
+ * window, like the sequence numbers of the messages that are not
+ * yet stable. The values are stored in a circular array indexed by
+ * the key, so that no key is boxed and the smallest key is found
+ * quickly. The array covers the range between the smallest and the
+ * largest key, thus the keys should be dense. Values cannot be
+ * <code>null</code>: <code>get</code> returns <code>null</code>
+ * for absent keys.
+ *
+ * @see IntObjectHashMap
+ */
+public class IntWindowMap {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * The value of key k is at index k & (values.length - 1).
+     */
+    private Object[] values;
+
+    /**
+     * Smallest and largest key, if the map is not empty.
+     */
+    private int low;
+    private int high;
+
+    private int size;
+
+    public IntWindowMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a map that holds a window of <code>capacity</code>
+     * keys without growing.
+     */
+    public IntWindowMap(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        int length = 1;
+        while (length < capacity) {
+            length <<= 1;
+        }
+        values = new Object[length];
+        size = 0;
+    }
+
+    public Object get(int key) {
+        if (size == 0 || key < low || key > high) {
+            return null;
+        }
+        return values[key & (values.length - 1)];
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps <code>key</code> to <code>value</code> and returns the
+     * previous value, or <code>null</code> if there was none.
+     */
+    public Object put(int key, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null value");
+        }
+        if (size == 0) {
+            low = key;
+            high = key;
+        } else {
+            int newLow = Math.min(low, key);
+            int newHigh = Math.max(high, key);
+            long width = (long) newHigh - newLow + 1;
+            if (width > values.length) {
+                grow(width);
+            }
+            low = newLow;
+            high = newHigh;
+        }
+        int i = key & (values.length - 1);
+        Object old = values[i];
+        values[i] = value;
+        if (old == null) {
+            size++;
+        }
+        return old;
+    }
+
+    /**
+     * Removes the mapping of <code>key</code> and returns its value,
+     * or <code>null</code> if there was none.
+     */
+    public Object remove(int key) {
+        Object old = get(key);
+        if (old == null) {
+            return null;
+        }
+        int mask = values.length - 1;
+        values[key & mask] = null;
+        size--;
+        if (size > 0) {
+            while (values[low & mask] == null) {
+                low++;
+            }
+            while (values[high & mask] == null) {
+                high--;
+            }
+        }
+        return old;
+    }
+
+    /**
+     * Returns the smallest key.
+     *
+     * @throws NoSuchElementException if the map is empty.
+     */
+    public int firstKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return low;
+    }
+
+    /**
+     * Returns the largest key.
+     *
+     * @throws NoSuchElementException if the map is empty.
+     */
+    public int lastKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return high;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    private void grow(long width) {
+        if (width > (1 << 30)) {
+            throw new IllegalStateException("Window too wide: " + width);
+        }
+        int length = values.length;
+        while (length < width) {
+            length <<= 1;
+        }
+        Object[] newValues = new Object[length];
+        int mask = values.length - 1;
+        for (long k = low; k <= high; k++) {
+            newValues[(int) k & (length - 1)] = values[(int) k & mask];
+        }
+        values = newValues;
+    }
+
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("{");
+        for (long k = low; size > 0 && k <= high; k++) {
+            Object value = values[(int) k & (values.length - 1)];
+            if (value != null) {
+                if (k != low) {
+                    sb.append(", ");
+                }
+                sb.append(k + "=" + value);
+            }
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+
+}
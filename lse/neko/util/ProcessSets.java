@@ -0,0 +1,260 @@
+package lse.neko.util;
+
+
+/**
+ * Shared destination sets for <code>NekoMessage</code>s. A destination
+ * set is an <code>int[]</code> of process IDs. Most messages are sent
+ * to the same few sets, such as a single process, all processes or
+ * all processes but one, so protocols and deserializers can get the
+ * arrays from here rather than allocating a new array per message.
+ * <p>
+ * The arrays returned by this class are shared: they must not be
+ * modified. This is the same rule as for arrays passed to
+ * <code>NekoMessage</code>, which keeps its destination array
+ * without copying it.
+ * <p>
+ * Sets of processes with IDs below {@link #MASK_SIZE} can also be
+ * represented as a <code>long</code> bit mask, bit <code>i</code>
+ * standing for process <code>i</code>.
+ */
+public class ProcessSets {
+
+    private ProcessSets() {
+    }
+
+    /**
+     * The number of process IDs that fit into a bit mask.
+     */
+    public static final int MASK_SIZE = 64;
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * Number of singletons kept. Singletons of higher process IDs
+     * are allocated on each call.
+     */
+    private static final int SINGLETONS = 1024;
+
+    private static final int[][] singletons = new int[SINGLETONS][];
+    static {
+        for (int i = 0; i < SINGLETONS; i++) {
+            singletons[i] = new int[] { i };
+        }
+    }
+
+    /**
+     * An entry of the cache of shared sets. It is immutable, so that
+     * the cache can be read and written without synchronization:
+     * the final field guarantees that readers see the whole array.
+     */
+    private static class Entry {
+
+        public Entry(int[] set, long mask) {
+            this.set = set;
+            this.mask = mask;
+        }
+
+        final int[] set;
+
+        /**
+         * The bit mask of the set, if the set is a mask in
+         * <code>fromMask</code>, or 0.
+         */
+        final long mask;
+    }
+
+    /**
+     * Size of the cache of shared sets. A power of two.
+     */
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * Direct mapped cache of shared sets. An entry is replaced
+     * when another set maps to the same slot, thus equal sets
+     * are usually, but not always, the same array.
+     */
+    private static final Entry[] cache = new Entry[CACHE_SIZE];
+
+    private static final Entry[] maskCache = new Entry[CACHE_SIZE];
+
+    /**
+     * Returns the empty set.
+     */
+    public static int[] empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns the set <code>{ process }</code>.
+     */
+    public static int[] singleton(int process) {
+        if (process >= 0 && process < SINGLETONS) {
+            return singletons[process];
+        }
+        return new int[] { process };
+    }
+
+    /**
+     * Returns the set <code>{ 0, ..., n-1 }</code>.
+     */
+    public static int[] all(int n) {
+        return allExcept(n, -1);
+    }
+
+    /**
+     * Returns the set <code>{ 0, ..., n-1 }</code> without
+     * <code>process</code>.
+     */
+    public static int[] allExcept(int n, int process) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Invalid number of processes "
+                                               + n);
+        }
+        int length = (process >= 0 && process < n) ? n - 1 : n;
+        int[] buffer = new int[length];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            if (i != process) {
+                buffer[j] = i;
+                j++;
+            }
+        }
+        return intern(buffer, length);
+    }
+
+    /**
+     * Returns an array equal to <code>set</code> that is
+     * shared with other callers, if possible. <code>set</code> itself
+     * may be stored and handed out to later callers, so the caller
+     * must not modify it after this call.
+     */
+    public static int[] intern(int[] set) {
+        return intern(set, set.length, true);
+    }
+
+    /**
+     * Returns an array equal to the first <code>length</code> elements
+     * of <code>buffer</code>. The array is shared with other callers,
+     * if possible. <code>buffer</code> itself is never returned,
+     * so deserializers can read destinations into a scratch buffer
+     * and only allocate an array for sets that are not in the cache.
+     */
+    public static int[] intern(int[] buffer, int length) {
+        return intern(buffer, length, false);
+    }
+
+    private static int[] intern(int[] buffer, int length, boolean mayShare) {
+        if (length == 0) {
+            return EMPTY;
+        }
+        if (length == 1) {
+            return singleton(buffer[0]);
+        }
+        int hash = hash(buffer, length);
+        int slot = hash & (CACHE_SIZE - 1);
+        Entry entry = cache[slot];
+        if (entry != null && equals(entry.set, buffer, length)) {
+            return entry.set;
+        }
+        int[] set;
+        if (mayShare) {
+            set = buffer;
+        } else {
+            set = new int[length];
+            System.arraycopy(buffer, 0, set, 0, length);
+        }
+        cache[slot] = new Entry(set, 0);
+        return set;
+    }
+
+    private static int hash(int[] buffer, int length) {
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(int[] set, int[] buffer, int length) {
+        if (set.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (set[i] != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if all processes of
+     * <code>set</code> fit into a bit mask.
+     */
+    public static boolean fitsMask(int[] set) {
+        for (int i = 0; i < set.length; i++) {
+            if (set[i] < 0 || set[i] >= MASK_SIZE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the bit mask of <code>set</code>.
+     *
+     * @throws IllegalArgumentException if a process of the set
+     * does not fit into a bit mask.
+     */
+    public static long toMask(int[] set) {
+        long mask = 0;
+        for (int i = 0; i < set.length; i++) {
+            int process = set[i];
+            if (process < 0 || process >= MASK_SIZE) {
+                throw new IllegalArgumentException("Process " + process
+                                                   + " does not fit into"
+                                                   + " a bit mask");
+            }
+            mask |= 1L << process;
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the set of the bit mask <code>mask</code>, in
+     * increasing order. The array is shared with other callers,
+     * if possible.
+     */
+    public static int[] fromMask(long mask) {
+        if (mask == 0) {
+            return EMPTY;
+        }
+        if ((mask & (mask - 1)) == 0) {
+            return singleton(Long.numberOfTrailingZeros(mask));
+        }
+        int hash = (int) (mask ^ (mask >>> 32));
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        Entry entry = maskCache[slot];
+        if (entry != null && entry.mask == mask) {
+            return entry.set;
+        }
+        int[] set = new int[Long.bitCount(mask)];
+        int j = 0;
+        for (long m = mask; m != 0; m &= m - 1) {
+            set[j] = Long.numberOfTrailingZeros(m);
+            j++;
+        }
+        maskCache[slot] = new Entry(set, mask);
+        return set;
+    }
+
+    /**
+     * Returns <code>true</code> if <code>process</code> is
+     * in the bit mask <code>mask</code>.
+     */
+    public static boolean contains(long mask, int process) {
+        return process >= 0 && process < MASK_SIZE
+            && (mask & (1L << process)) != 0;
+    }
+
+}
@@ -1,30 +1,36 @@
 package lse.neko.util;
 
 // java imports:
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 // lse.neko imports:
-import lse.neko.NekoMessage;
 import lse.neko.NekoSystem;
-import lse.neko.NekoThread;
 // import lse.neko.util.TimerTask;
 // ambiguous with: java.util.TimerTask
 import lse.neko.util.logging.NekoLogger;
 
+/**
+ * A facility to schedule <code>TimerTask</code>s for later execution
+ * in a background thread. It is like <code>java.util.Timer</code>,
+ * but uses <code>double</code> for representing times.
+ * The data structure that stores the tasks, and whether timers share
+ * their background thread, is specified in the config file.
+ *
+ * @see TimerTask
+ * @see TimerQueue#CF_QUEUE
+ * @see TimerDispatcher#CF_SHARED
+ */
 public class Timer {
 
-    private SortedSet queue = new TreeSet(TimerTask.COMPARATOR);
-    private TimerThread thread = new TimerThread();
+    private final TimerDispatcher dispatcher;
 
     public Timer() {
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("creating timer " + this + " at time "
                         + NekoSystem.instance().clock());
         }
-        thread.start();
+        dispatcher = TimerDispatcher.getDispatcher(this);
     }
 
     public void schedule(TimerTask task, double delay) {
@@ -33,82 +39,58 @@ public class Timer {
             logger.fine("scheduling task " + task + " on timer " + this
                         + " delay " + delay + " at time " + time);
         }
-        synchronized (queue) {
-            task.schedule(this, time + delay);
-            queue.add(task);
-            synchronized (thread) {
-                thread.doNotify();
-            }
-        }
+        dispatcher.schedule(task, this, time + delay);
     }
 
     void cancel(TimerTask task) {
-        synchronized (queue) {
-            boolean removed = queue.remove(task);
-            task.doCancel();
-        }
+        dispatcher.cancel(task);
     }
 
-    private class TimerThread extends NekoThread {
+    TimerDispatcher getDispatcher() {
+        return dispatcher;
+    }
 
-        public TimerThread() {
-            super("TimerThread");
-        }
+    /*
+     * Statistics of the thread that executes the tasks of this timer.
+     * If timers share the thread, the statistics cover all timers.
+     */
 
-        public void run() {
-            while (true) {
-                TimerTask task;
-                double waitDelay;
-                synchronized (queue) {
-                    if (queue.isEmpty()) {
-                        task = null;
-                        waitDelay = Double.NaN; // ignored
-                        if (logger.isLoggable(Level.FINER)) {
-                            logger.finer("timer " + Timer.this
-                                         + " woke up / no task scheduled");
-                        }
-                    } else {
-                        task = (TimerTask) queue.first();
-                        waitDelay = task.getNextExecutionTime()
-                            - NekoSystem.instance().clock();
-                        if (logger.isLoggable(Level.FINER)) {
-                            logger.finer("timer " + Timer.this
-                                         + " woke up / top task is " + task
-                                         + " scheduled in "
-                                         + waitDelay + " time");
-                        }
-                        if (waitDelay <= 0) {
-                            queue.remove(task);
-                            task.prepareRun();
-                        }
-                    }
-                }
-
-                NekoMessage m;
-                if (task == null) {
-                    synchronized (this) {
-                        try {
-                            doWait();
-                        } catch (InterruptedException ex) {
-                        }
-                    }
-                } else if (waitDelay <= 0) {
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine("timer " + Timer.this + " running task "
-                                    + task + " at time "
-                                    + NekoSystem.instance().clock());
-                    }
-                    task.run();
-                } else {
-                    synchronized (this) {
-                        try {
-                            doWait(waitDelay);
-                        } catch (InterruptedException ex) {
-                        }
-                    }
-                }
-            }
-        }
+    /**
+     * Returns the number of tasks waiting for execution.
+     */
+    public int getQueueSize() {
+        return dispatcher.getQueueSize();
+    }
+
+    /**
+     * Returns the largest number of tasks waiting for execution so far.
+     */
+    public int getMaxQueueSize() {
+        return dispatcher.getMaxQueueSize();
+    }
+
+    /**
+     * Returns the number of task executions so far.
+     */
+    public long getExecutionCount() {
+        return dispatcher.getExecutionCount();
+    }
+
+    /**
+     * Returns the mean time between the scheduled execution time of
+     * tasks and the start of their execution,
+     * or 0 if no task has been executed.
+     */
+    public double getMeanLag() {
+        return dispatcher.getMeanLag();
+    }
+
+    /**
+     * Returns the largest time between the scheduled execution time
+     * of a task and the start of its execution so far.
+     */
+    public double getMaxLag() {
+        return dispatcher.getMaxLag();
     }
 
     static Logger getLogger() {
@@ -0,0 +1,247 @@
+package lse.neko.util;
+
+// java imports:
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// lse.neko imports:
+import lse.neko.NekoSystem;
+import lse.neko.NekoThread;
+// import lse.neko.util.TimerTask;
+// ambiguous with: java.util.TimerTask
+
+
+/**
+ * Executes the tasks of one or more <code>Timer</code>s
+ * in a single thread.
+ * By default, each timer has its own dispatcher. If the config file
+ * says so, all timers share one dispatcher, which saves one thread
+ * per timer. Each task is run in the context of the process that
+ * created it (see <code>TimerTask.prepareRun</code>), so tasks
+ * of all processes can share the dispatcher.
+ * <p>
+ * The dispatcher keeps statistics about the number of
+ * pending tasks and about the lag of executions: the time between
+ * the scheduled execution time of a task and the start of its
+ * execution.
+ *
+ * @see Timer
+ */
+class TimerDispatcher {
+
+    /**
+     * Config file entry that specifies if all timers share
+     * one dispatcher thread. False by default.
+     */
+    public static final String CF_SHARED = "timer.shared";
+
+    private static TimerDispatcher shared = null;
+    private static final Object staticLock = new Object();
+
+    /**
+     * Returns the dispatcher for a new timer: either the shared
+     * dispatcher or a new one, as specified in the config file.
+     */
+    public static TimerDispatcher getDispatcher(Timer timer) {
+        if (!NekoSystem.instance().getConfig().getBoolean(CF_SHARED, false)) {
+            return new TimerDispatcher(timer);
+        }
+        synchronized (staticLock) {
+            if (shared == null) {
+                shared = new TimerDispatcher("shared");
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * Creates and starts a dispatcher.
+     *
+     * @param name used by <code>toString</code>.
+     */
+    private TimerDispatcher(Object name) {
+        this.name = name;
+        thread = new DispatcherThread();
+        thread.start();
+    }
+
+    private final Object name;
+
+    private TimerQueue queue = TimerQueue.createQueue();
+    private DispatcherThread thread;
+
+    /*
+     * Statistics. Protected by the lock on queue.
+     */
+    private int maxQueueSize = 0;
+    private long executions = 0;
+    private double totalLag = 0;
+    private double maxLag = 0;
+
+    public void schedule(TimerTask task, Timer timer, double time) {
+        synchronized (queue) {
+            task.schedule(timer, time);
+            queue.add(task);
+            if (queue.size() > maxQueueSize) {
+                maxQueueSize = queue.size();
+            }
+            synchronized (thread) {
+                thread.doNotify();
+            }
+        }
+    }
+
+    public void cancel(TimerTask task) {
+        synchronized (queue) {
+            queue.remove(task);
+            task.doCancel();
+        }
+    }
+
+    /**
+     * Returns the number of pending tasks.
+     */
+    public int getQueueSize() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Returns the largest number of pending tasks so far.
+     */
+    public int getMaxQueueSize() {
+        synchronized (queue) {
+            return maxQueueSize;
+        }
+    }
+
+    /**
+     * Returns the number of task executions so far.
+     */
+    public long getExecutionCount() {
+        synchronized (queue) {
+            return executions;
+        }
+    }
+
+    /**
+     * Returns the mean lag of task executions,
+     * or 0 if no task has been executed.
+     */
+    public double getMeanLag() {
+        synchronized (queue) {
+            return (executions == 0) ? 0 : totalLag / executions;
+        }
+    }
+
+    /**
+     * Returns the largest lag of task executions so far.
+     */
+    public double getMaxLag() {
+        synchronized (queue) {
+            return maxLag;
+        }
+    }
+
+    public String toString() {
+        return name.toString();
+    }
+
+    private class DispatcherThread extends NekoThread {
+
+        public DispatcherThread() {
+            super("TimerThread");
+        }
+
+        /**
+         * Expired tasks, removed from the queue together.
+         */
+        private List batch = new ArrayList();
+
+        public void run() {
+            while (true) {
+                double waitDelay;
+                synchronized (queue) {
+                    if (queue.isEmpty()) {
+                        waitDelay = Double.NaN; // ignored
+                        if (logger.isLoggable(Level.FINER)) {
+                            logger.finer("timer " + TimerDispatcher.this
+                                         + " woke up / no task scheduled");
+                        }
+                    } else {
+                        double now = NekoSystem.instance().clock();
+                        waitDelay = queue.nextTime() - now;
+                        if (logger.isLoggable(Level.FINER)) {
+                            logger.finer("timer " + TimerDispatcher.this
+                                         + " woke up / top task scheduled in "
+                                         + waitDelay + " time");
+                        }
+                        if (waitDelay <= 0) {
+                            queue.removeExpired(now, batch);
+                        }
+                    }
+                }
+
+                if (Double.isNaN(waitDelay)) {
+                    synchronized (this) {
+                        try {
+                            doWait();
+                        } catch (InterruptedException ex) {
+                        }
+                    }
+                } else if (waitDelay <= 0) {
+                    runBatch();
+                } else {
+                    synchronized (this) {
+                        try {
+                            doWait(waitDelay);
+                        } catch (InterruptedException ex) {
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Runs the expired tasks in order.
+         */
+        private void runBatch() {
+            for (int i = 0; i < batch.size(); i++) {
+                TimerTask task = (TimerTask) batch.get(i);
+                double now;
+                synchronized (queue) {
+                    // an earlier task of the batch might have cancelled
+                    // or rescheduled this task
+                    Timer timer = task.getTimer();
+                    if (timer == null
+                        || timer.getDispatcher() != TimerDispatcher.this
+                        || queue.contains(task))
+                    {
+                        continue;
+                    }
+                    task.prepareRun();
+                    now = NekoSystem.instance().clock();
+                    double lag = now - task.scheduledExecutionTime();
+                    executions++;
+                    totalLag += lag;
+                    if (lag > maxLag) {
+                        maxLag = lag;
+                    }
+                }
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("timer " + TimerDispatcher.this
+                                + " running task " + task + " at time "
+                                + now);
+                }
+                task.run();
+            }
+            batch.clear();
+        }
+    }
+
+    private static final Logger logger = Timer.getLogger();
+
+}
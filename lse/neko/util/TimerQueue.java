@@ -0,0 +1,108 @@
+package lse.neko.util;
+
+// java imports:
+import java.util.List;
+
+// lse.neko imports:
+import lse.neko.NekoSystem;
+
+// other imports:
+import org.apache.java.util.Configurations;
+
+
+/**
+ * Stores the tasks scheduled on a <code>Timer</code>.
+ * Tasks are ordered by execution time, then by order of scheduling.
+ * All methods are called with the lock of the queue held.
+ *
+ * @see Timer
+ */
+abstract class TimerQueue {
+
+    /**
+     * Returns true if no task is stored.
+     */
+    public abstract boolean isEmpty();
+
+    /**
+     * Returns the number of stored tasks.
+     */
+    public abstract int size();
+
+    /**
+     * Returns the earliest execution time of all stored tasks,
+     * or <code>Double.MAX_VALUE</code> if no task is stored.
+     */
+    public abstract double nextTime();
+
+    /**
+     * Stores a task. Its execution time and serial number are
+     * already set.
+     */
+    public abstract void add(TimerTask task);
+
+    /**
+     * Removes a task. Does nothing if the task is not stored.
+     */
+    public abstract void remove(TimerTask task);
+
+    /**
+     * Returns true if the task is stored.
+     */
+    public abstract boolean contains(TimerTask task);
+
+    /**
+     * Removes all tasks with an execution time not later than
+     * <code>time</code>, and appends them to <code>tasks</code>
+     * in the order of execution.
+     */
+    public abstract void removeExpired(double time, List tasks);
+
+    /**
+     * Config file entry that specifies the data structure
+     * that stores the tasks of timers: <code>tree</code> (default)
+     * or <code>wheel</code>.
+     *
+     * @see TreeTimerQueue
+     * @see WheelTimerQueue
+     */
+    public static final String CF_QUEUE = "timer.queue";
+
+    public static final String TREE = "tree";
+
+    public static final String WHEEL = "wheel";
+
+    /**
+     * Config file entry for the duration of one slot
+     * of <code>WheelTimerQueue</code>s.
+     */
+    public static final String CF_WHEEL_TICK = "timer.wheel.tick";
+
+    /**
+     * Config file entry for the number of slots
+     * of <code>WheelTimerQueue</code>s.
+     */
+    public static final String CF_WHEEL_SIZE = "timer.wheel.size";
+
+    /**
+     * Returns a new, empty queue, as specified in the config file.
+     */
+    public static TimerQueue createQueue() {
+        Configurations config = NekoSystem.instance().getConfig();
+        String name = config.getString(CF_QUEUE, TREE);
+        if (name.equals(TREE)) {
+            return new TreeTimerQueue();
+        } else if (name.equals(WHEEL)) {
+            return new WheelTimerQueue
+                (config.getDouble(CF_WHEEL_TICK,
+                                  WheelTimerQueue.DEFAULT_TICK),
+                 config.getInteger(CF_WHEEL_SIZE,
+                                   WheelTimerQueue.DEFAULT_SIZE));
+        } else {
+            throw new IllegalArgumentException("The config entry "
+                                               + CF_QUEUE
+                                               + " is invalid: " + name);
+        }
+    }
+
+}
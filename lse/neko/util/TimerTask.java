@@ -44,8 +44,24 @@ public abstract class TimerTask
     /**
      * The next execution time for this task.
      * Invalid if this task is not scheduled for execution.
+     * Read by the <code>TimerQueue</code>s, which hold the lock
+     * of the queue while the task is scheduled.
      */
-    private double nextExecutionTime;
+    double nextExecutionTime;
+
+    /**
+     * Links of the task list the task is in.
+     * Only used by <code>WheelTimerQueue</code>.
+     */
+    TimerTask wheelPrev;
+    TimerTask wheelNext;
+
+    /**
+     * Slot of the task list the task is in, or -1 if the task
+     * is in no list.
+     * Only used by <code>WheelTimerQueue</code>.
+     */
+    int wheelSlot = -1;
 
     /**
      * Returns the next execution time for this task.  Returns
@@ -62,6 +78,16 @@ public abstract class TimerTask
         }
     }
 
+    /**
+     * Returns the timer the task is scheduled in, or <code>null</code>
+     * if the task is not scheduled for execution.
+     */
+    Timer getTimer() {
+        synchronized (lock) {
+            return timer;
+        }
+    }
+
     /**
      * Serial number set when the task is scheduled.
      * Needed because we want to make Timer's behavior deterministic
@@ -0,0 +1,57 @@
+package lse.neko.util;
+
+// java imports:
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+
+/**
+ * Timer queue that keeps tasks in a sorted tree.
+ * All operations take O(log n) time.
+ */
+class TreeTimerQueue
+    extends TimerQueue
+{
+
+    private SortedSet set = new TreeSet(TimerTask.COMPARATOR);
+
+    public boolean isEmpty() {
+        return set.isEmpty();
+    }
+
+    public int size() {
+        return set.size();
+    }
+
+    public double nextTime() {
+        if (set.isEmpty()) {
+            return Double.MAX_VALUE;
+        }
+        return ((TimerTask) set.first()).nextExecutionTime;
+    }
+
+    public void add(TimerTask task) {
+        set.add(task);
+    }
+
+    public void remove(TimerTask task) {
+        set.remove(task);
+    }
+
+    public boolean contains(TimerTask task) {
+        return set.contains(task);
+    }
+
+    public void removeExpired(double time, List tasks) {
+        while (!set.isEmpty()) {
+            TimerTask task = (TimerTask) set.first();
+            if (task.nextExecutionTime > time) {
+                break;
+            }
+            set.remove(task);
+            tasks.add(task);
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package lse.neko.util;
+
+// java imports:
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Timer queue based on a hashed timing wheel.
+ * Time is divided into ticks of equal duration, and each tick
+ * is mapped to one of a fixed number of slots.
+ * Each slot holds a doubly linked list of tasks, linked through
+ * fields of <code>TimerTask</code>, so adding and removing a task
+ * takes O(1) time and allocates nothing.
+ * This suits workloads that schedule and cancel tasks much more often
+ * than tasks expire, like failure detectors that reset a timeout
+ * whenever a heartbeat arrives.
+ * <p>
+ * Expired tasks are removed in one batch, and then sorted
+ * by execution time, so tasks are executed in the same order
+ * and at the same times as with <code>TreeTimerQueue</code>.
+ */
+class WheelTimerQueue
+    extends TimerQueue
+{
+
+    /**
+     * Default duration of a tick.
+     */
+    public static final double DEFAULT_TICK = 1.0;
+
+    /**
+     * Default number of slots.
+     */
+    public static final int DEFAULT_SIZE = 1024;
+
+    /**
+     * Creates an empty timer queue.
+     *
+     * @param tick the duration of a tick.
+     * @param size the number of slots. Rounded up to a power of 2.
+     */
+    public WheelTimerQueue(double tick, int size) {
+        if (!(tick > 0) || Double.isInfinite(tick)) {
+            throw new IllegalArgumentException("Invalid tick " + tick);
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        int n = 1;
+        while (n < size) {
+            n <<= 1;
+        }
+        this.tick = tick;
+        slots = new TimerTask[n];
+        mask = n - 1;
+    }
+
+    private final double tick;
+
+    /**
+     * Heads of the task lists.
+     */
+    private final TimerTask[] slots;
+
+    private final int mask;
+
+    /**
+     * Number of stored tasks.
+     */
+    private int size = 0;
+
+    /**
+     * No stored task has a tick smaller than this.
+     */
+    private long baseTick = Long.MAX_VALUE;
+
+    /**
+     * Cached result of <code>nextTime</code>, or <code>NaN</code>
+     * if it needs to be recomputed.
+     */
+    private double cachedNextTime = Double.NaN;
+
+    private long tickOf(double time) {
+        // saturates at Long.MAX_VALUE for very large times
+        return (long) Math.floor(time / tick);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double nextTime() {
+        if (size == 0) {
+            return Double.MAX_VALUE;
+        }
+        if (Double.isNaN(cachedNextTime)) {
+            cachedNextTime = computeNextTime();
+        }
+        return cachedNextTime;
+    }
+
+    /**
+     * Looks for the earliest task, starting at <code>baseTick</code>.
+     * The first slot that has a task for the current round
+     * contains the earliest task. If no slot has one,
+     * all tasks are far in the future, and all are examined.
+     */
+    private double computeNextTime() {
+        for (int i = 0; i <= mask; i++) {
+            long t = baseTick + i;
+            double min = Double.MAX_VALUE;
+            for (TimerTask task = slots[(int) (t & mask)];
+                 task != null;
+                 task = task.wheelNext)
+            {
+                if (tickOf(task.nextExecutionTime) == t
+                    && task.nextExecutionTime < min)
+                {
+                    min = task.nextExecutionTime;
+                }
+            }
+            if (min != Double.MAX_VALUE) {
+                return min;
+            }
+        }
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i <= mask; i++) {
+            for (TimerTask task = slots[i];
+                 task != null;
+                 task = task.wheelNext)
+            {
+                min = Math.min(min, task.nextExecutionTime);
+            }
+        }
+        return min;
+    }
+
+    public void add(TimerTask task) {
+        if (task.wheelSlot >= 0) {
+            throw new IllegalStateException("Task already in a queue");
+        }
+        double time = task.nextExecutionTime;
+        long t = tickOf(time);
+        int slot = (int) (t & mask);
+        TimerTask head = slots[slot];
+        task.wheelPrev = null;
+        task.wheelNext = head;
+        if (head != null) {
+            head.wheelPrev = task;
+        }
+        slots[slot] = task;
+        task.wheelSlot = slot;
+        size++;
+        if (t < baseTick) {
+            baseTick = t;
+        }
+        if (!Double.isNaN(cachedNextTime) && time < cachedNextTime) {
+            cachedNextTime = time;
+        }
+    }
+
+    public void remove(TimerTask task) {
+        if (task.wheelSlot < 0) {
+            return;
+        }
+        if (task.nextExecutionTime == cachedNextTime) {
+            cachedNextTime = Double.NaN;
+        }
+        unlink(task);
+    }
+
+    private void unlink(TimerTask task) {
+        TimerTask prev = task.wheelPrev;
+        TimerTask next = task.wheelNext;
+        if (prev == null) {
+            slots[task.wheelSlot] = next;
+        } else {
+            prev.wheelNext = next;
+        }
+        if (next != null) {
+            next.wheelPrev = prev;
+        }
+        task.wheelPrev = null;
+        task.wheelNext = null;
+        task.wheelSlot = -1;
+        size--;
+        if (size == 0) {
+            baseTick = Long.MAX_VALUE;
+            cachedNextTime = Double.NaN;
+        }
+    }
+
+    public boolean contains(TimerTask task) {
+        return task.wheelSlot >= 0;
+    }
+
+    public void removeExpired(double time, List tasks) {
+        if (size == 0) {
+            return;
+        }
+        int first = tasks.size();
+        long last = tickOf(time);
+        // examine each slot at most once
+        long end = (last - baseTick > mask) ? baseTick + mask : last;
+        for (long t = baseTick; t <= end && size > 0; t++) {
+            TimerTask task = slots[(int) (t & mask)];
+            while (task != null) {
+                TimerTask next = task.wheelNext;
+                if (task.nextExecutionTime <= time) {
+                    unlink(task);
+                    tasks.add(task);
+                }
+                task = next;
+            }
+        }
+        if (size > 0 && last > baseTick) {
+            baseTick = last;
+        }
+        cachedNextTime = Double.NaN;
+        Collections.sort(tasks.subList(first, tasks.size()),
+                         TimerTask.COMPARATOR);
+    }
+
+}
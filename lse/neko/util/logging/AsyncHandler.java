@@ -0,0 +1,395 @@
+package lse.neko.util.logging;
+
+// java imports:
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+
+/**
+ * This <tt>Handler</tt> publishes log records asynchronously.
+ * <tt>publish</tt> only puts the record into a ring buffer of fixed size;
+ * a background thread formats the records and writes them to a file
+ * (or <tt>System.out</tt>) in batches. Thus threads that log, e.g.,
+ * every message with the <tt>messages</tt> logger, do not pay for
+ * formatting and I/O.
+ * <p>
+ * The output is the same as with a synchronous handler that has the
+ * same formatter: the Neko time, the thread and the process are
+ * recorded in the <tt>NekoLogRecord</tt> when the log call is made.
+ * Parameters of the record, however, are formatted later, so that
+ * changes made to mutable parameters in the meantime show up in the log.
+ * <p>
+ * <b>Configuration:</b>
+ * The following <tt>LogManager</tt> configuration properties are used.
+ * If properties are not defined (or have invalid values) then the
+ * specified default values are used.
+ * <ul>
+ * <li>   lse.neko.util.logging.AsyncHandler.level
+ *          specifies the default level for the <tt>Handler</tt>
+ *          (defaults to <tt>Level.ALL</tt>).
+ * <li>   lse.neko.util.logging.AsyncHandler.filter
+ *          specifies the name of a <tt>Filter</tt> class to use
+ *          (defaults to no <tt>Filter</tt>).
+ * <li>   lse.neko.util.logging.AsyncHandler.formatter
+ *           specifies the name of a <tt>Formatter</tt> class to use
+ *            (defaults to <tt>NekoLongFormatter</tt>).
+ * <li>   lse.neko.util.logging.AsyncHandler.encoding
+ *          the name of the character set encoding to use (defaults to
+ *          the default platform encoding).
+ * <li>   lse.neko.util.logging.AsyncHandler.file
+ *          the name of the output file
+ *          (defaults to <tt>System.out</tt>).
+ * <li>   lse.neko.util.logging.AsyncHandler.append
+ *          whether to append to the output file (defaults to false).
+ * <li>   lse.neko.util.logging.AsyncHandler.capacity
+ *          the number of records in the ring buffer (defaults to 8192).
+ * <li>   lse.neko.util.logging.AsyncHandler.batchSize
+ *          the maximum number of records written at once
+ *          (defaults to 256).
+ * <li>   lse.neko.util.logging.AsyncHandler.policy
+ *          what to do with records when the ring buffer is full:
+ *          <tt>block</tt> the logging thread (default), or
+ *          <tt>dropNewest</tt> to drop the record.
+ *          Dropped records are reported to the <tt>ErrorManager</tt>
+ *          when the handler is closed.
+ * </ul>
+ */
+public class AsyncHandler
+    extends Handler
+{
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Policy: <code>publish</code> waits while the ring buffer is full.
+     */
+    public static final int BLOCK = 0;
+
+    /**
+     * Policy: <code>publish</code> drops the record if
+     * the ring buffer is full.
+     */
+    public static final int DROP_NEWEST = 1;
+
+    private static final String[] POLICY_NAMES = { "block", "dropNewest" };
+
+    private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Ring buffer of records that are not yet written.
+     * The fields below are guarded by the lock of the ring buffer.
+     */
+    private final LogRecord[] ring;
+
+    /**
+     * Index of the oldest record in the ring buffer.
+     */
+    private int head = 0;
+
+    /**
+     * Number of records in the ring buffer.
+     */
+    private int count = 0;
+
+    /**
+     * Number of records put into the ring buffer so far.
+     */
+    private long accepted = 0;
+
+    /**
+     * Number of records written so far.
+     */
+    private long written = 0;
+
+    private long dropped = 0;
+
+    private boolean closed = false;
+
+    private final int batchSize;
+
+    private final int policy;
+
+    private final Writer writer;
+
+    /**
+     * <code>false</code> for <code>System.out</code>,
+     * which should not be closed.
+     */
+    private final boolean closeWriter;
+
+    private final Thread writerThread;
+
+    /**
+     * Create an <tt>AsyncHandler</tt> configured based on
+     * <tt>LogManager</tt> properties (or their default values).
+     */
+    public AsyncHandler() {
+        LogManager manager = LogManager.getLogManager();
+        String cname = AsyncHandler.class.getName();
+
+        setLevel(SystemOutHandler.getLevelProperty(manager, cname + ".level",
+                                                   Level.ALL));
+        setFilter(SystemOutHandler.getFilterProperty(manager,
+                                                     cname + ".filter",
+                                                     null));
+        setFormatter(SystemOutHandler.getFormatterProperty(
+                         manager, cname + ".formatter",
+                         new NekoLongFormatter()));
+        try {
+            setEncoding(SystemOutHandler.getStringProperty(manager,
+                                                           cname + ".encoding",
+                                                           null));
+        } catch (Exception ex) {
+            try {
+                setEncoding(null);
+            } catch (Exception ex2) {
+                // doing a setEncoding with null should always work.
+                // assert false;
+            }
+        }
+
+        ring = new LogRecord[getIntProperty(manager, cname + ".capacity",
+                                            DEFAULT_CAPACITY)];
+        batchSize = getIntProperty(manager, cname + ".batchSize",
+                                   DEFAULT_BATCH_SIZE);
+        String policyName =
+            SystemOutHandler.getStringProperty(manager, cname + ".policy",
+                                               POLICY_NAMES[BLOCK]);
+        policy = (POLICY_NAMES[DROP_NEWEST].equals(policyName))
+            ? DROP_NEWEST : BLOCK;
+
+        String fileName =
+            SystemOutHandler.getStringProperty(manager, cname + ".file", null);
+        boolean append =
+            "true".equals(SystemOutHandler.getStringProperty(manager,
+                                                             cname + ".append",
+                                                             "false"));
+        OutputStream stream;
+        if (fileName != null) {
+            try {
+                stream = new FileOutputStream(fileName, append);
+            } catch (IOException ex) {
+                throw new RuntimeException("Cannot open log file "
+                                           + fileName, ex);
+            }
+            closeWriter = true;
+        } else {
+            stream = System.out;
+            closeWriter = false;
+        }
+        Writer w;
+        try {
+            w = (getEncoding() != null)
+                ? new OutputStreamWriter(stream, getEncoding())
+                : new OutputStreamWriter(stream);
+        } catch (IOException ex) {
+            w = new OutputStreamWriter(stream);
+        }
+        writer = new BufferedWriter(w, WRITER_BUFFER_SIZE);
+        write(getFormatter().getHead(this));
+
+        writerThread = new Thread("AsyncHandler-writer") {
+                public void run() {
+                    writeLoop();
+                }
+            };
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private static int getIntProperty(LogManager manager,
+                                      String name, int defaultValue)
+    {
+        String val = SystemOutHandler.getStringProperty(manager, name, null);
+        if (val == null) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(val);
+            return (value > 0) ? value : defaultValue;
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Puts a <tt>LogRecord</tt> into the ring buffer.
+     * Blocks or drops the record if the ring buffer is full,
+     * depending on the policy.
+     *
+     * @param  record  description of the log event
+     */
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        synchronized (ring) {
+            if (closed) {
+                return;
+            }
+            while (count == ring.length) {
+                if (policy == DROP_NEWEST) {
+                    dropped++;
+                    return;
+                }
+                try {
+                    ring.wait();
+                } catch (InterruptedException ex) {
+                    dropped++;
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            int tail = head + count;
+            if (tail >= ring.length) {
+                tail -= ring.length;
+            }
+            ring[tail] = record;
+            count++;
+            accepted++;
+            if (count == 1) {
+                ring.notifyAll();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        LogRecord[] batch = new LogRecord[batchSize];
+        while (true) {
+            int n;
+            synchronized (ring) {
+                while (count == 0 && !closed) {
+                    try {
+                        ring.wait();
+                    } catch (InterruptedException ex) {
+                        // keep on writing until closed
+                    }
+                }
+                if (count == 0) {
+                    return;
+                }
+                n = Math.min(count, batchSize);
+                for (int i = 0; i < n; i++) {
+                    batch[i] = ring[head];
+                    ring[head] = null;
+                    head++;
+                    if (head == ring.length) {
+                        head = 0;
+                    }
+                }
+                count -= n;
+                // wake up blocked publishers
+                ring.notifyAll();
+            }
+
+            for (int i = 0; i < n; i++) {
+                String s;
+                try {
+                    s = getFormatter().format(batch[i]);
+                } catch (RuntimeException ex) {
+                    reportError(null, ex, ErrorManager.FORMAT_FAILURE);
+                    s = null;
+                }
+                batch[i] = null;
+                write(s);
+            }
+            try {
+                writer.flush();
+            } catch (IOException ex) {
+                reportError(null, ex, ErrorManager.FLUSH_FAILURE);
+            }
+
+            synchronized (ring) {
+                written += n;
+                ring.notifyAll();
+            }
+        }
+    }
+
+    private void write(String s) {
+        if (s == null) {
+            return;
+        }
+        try {
+            writer.write(s);
+        } catch (IOException ex) {
+            reportError(null, ex, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Waits until all records published so far are written.
+     */
+    public void flush() {
+        synchronized (ring) {
+            long target = accepted;
+            while (written < target && writerThread.isAlive()) {
+                try {
+                    ring.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the records in the ring buffer, stops the background
+     * thread and closes the output file.
+     */
+    public void close() {
+        synchronized (ring) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ring.notifyAll();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        write(getFormatter().getTail(this));
+        try {
+            if (closeWriter) {
+                writer.close();
+            } else {
+                writer.flush();
+            }
+        } catch (IOException ex) {
+            reportError(null, ex, ErrorManager.CLOSE_FAILURE);
+        }
+        long droppedCount = getDroppedCount();
+        if (droppedCount > 0) {
+            reportError(droppedCount + " log records dropped", null,
+                        ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Returns the number of records dropped because
+     * the ring buffer was full.
+     */
+    public long getDroppedCount() {
+        synchronized (ring) {
+            return dropped;
+        }
+    }
+
+}
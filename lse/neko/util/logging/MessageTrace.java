@@ -0,0 +1,89 @@
+package lse.neko.util.logging;
+
+
+/**
+ * Constants of the binary message trace format. A message trace
+ * records the same message events (<code>s</code>, <code>sf</code>,
+ * <code>r</code>, <code>rf</code>) as the text output of the
+ * <code>messages</code> logger, but it is much faster to write
+ * and to read.
+ * <p>
+ * A trace consists of two files. The trace file starts with a header of
+ * {@link #HEADER_SIZE} bytes:
+ * <pre>
+ *   int  MAGIC
+ *   int  VERSION
+ *   int  RECORD_SIZE
+ *   int  (reserved)
+ *   long number of records
+ *   long (reserved)
+ * </pre>
+ * followed by records of {@link #RECORD_SIZE} bytes:
+ * <pre>
+ *   double time
+ *   short  event name (a name index)
+ *   short  flags
+ *   int    ID of the logging process, Integer.MIN_VALUE if unknown
+ *   int    ID of the source process
+ *   int    message type name (a name index)
+ *   int    protocol ID (a name index)
+ *   int    content (a name index), NO_NAME if not recorded
+ *   long   destinations: bit i is set for process i; if the flag
+ *          DESTINATION_LIST is set, the name index of the
+ *          destinations, written as in the text log: p1,p2,p70
+ * </pre>
+ * The number of records in the header is updated periodically while
+ * the trace is written, after the names that the records use (see
+ * {@link MessageTraceWriter}); the file may be longer than the records
+ * it contains.
+ * <p>
+ * Strings are stored once in the names file, whose name is that of the
+ * trace file followed by {@link #NAMES_SUFFIX}. It contains
+ * entries written with <code>DataOutput</code>:
+ * <pre>
+ *   int  name index
+ *   UTF  name
+ * </pre>
+ * Name indexes are allocated in increasing order, starting from 0.
+ * An entry is written before the first record that uses it.
+ * All integers are big endian.
+ *
+ * @see MessageTraceHandler
+ * @see MessageTraceReader
+ */
+public class MessageTrace {
+
+    private MessageTrace() {
+    }
+
+    public static final int MAGIC = 0x4e4b5452; // "NKTR"
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 32;
+
+    public static final int RECORD_SIZE = 40;
+
+    public static final String NAMES_SUFFIX = ".names";
+
+    /**
+     * Offset of the number of records in the header.
+     */
+    static final int COUNT_OFFSET = 16;
+
+    /**
+     * Flag: the destinations of the record are a name index.
+     */
+    public static final int DESTINATION_LIST = 1;
+
+    /**
+     * Name index of absent strings.
+     */
+    public static final int NO_NAME = -1;
+
+    /**
+     * The largest process ID that fits into the destination bit set.
+     */
+    public static final int MAX_BITSET_PROCESS = 63;
+
+}
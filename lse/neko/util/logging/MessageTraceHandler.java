@@ -0,0 +1,125 @@
+package lse.neko.util.logging;
+
+// java imports:
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+// lse.neko imports:
+import lse.neko.NekoMessageEvent;
+
+
+/**
+ * This <tt>Handler</tt> writes the message events logged by
+ * <tt>ProcessSender</tt> and <tt>ProcessReceiver</tt> into a binary
+ * message trace, rather than formatting them as text. Attach it to the
+ * <tt>messages</tt> logger:
+ * <pre>
+ * messages.level = FINER
+ * messages.handlers = lse.neko.util.logging.MessageTraceHandler
+ * messages.useParentHandlers = false
+ * </pre>
+ * Log records that are not message events are ignored.
+ * <tt>MessageTraceReader</tt> converts the trace to the text format,
+ * and logView reads traces directly.
+ * <p>
+ * <b>Configuration:</b>
+ * <ul>
+ * <li>   lse.neko.util.logging.MessageTraceHandler.level
+ *          specifies the default level for the <tt>Handler</tt>
+ *          (defaults to <tt>Level.ALL</tt>).
+ * <li>   lse.neko.util.logging.MessageTraceHandler.file
+ *          the name of the trace file (defaults to <tt>neko.trace</tt>).
+ * <li>   lse.neko.util.logging.MessageTraceHandler.content
+ *          whether the contents of messages are recorded
+ *          (defaults to false).
+ * </ul>
+ *
+ * @see MessageTrace
+ */
+public class MessageTraceHandler
+    extends Handler
+{
+
+    public static final String DEFAULT_FILE = "neko.trace";
+
+    private final MessageTraceWriter writer;
+
+    /**
+     * Create a <tt>MessageTraceHandler</tt> configured based on
+     * <tt>LogManager</tt> properties (or their default values).
+     */
+    public MessageTraceHandler() {
+        LogManager manager = LogManager.getLogManager();
+        String cname = MessageTraceHandler.class.getName();
+
+        setLevel(SystemOutHandler.getLevelProperty(manager, cname + ".level",
+                                                   Level.ALL));
+        String fileName =
+            SystemOutHandler.getStringProperty(manager, cname + ".file",
+                                               DEFAULT_FILE);
+        boolean content =
+            "true".equals(SystemOutHandler.getStringProperty(manager,
+                                                             cname
+                                                             + ".content",
+                                                             "false"));
+        try {
+            writer = new MessageTraceWriter(new File(fileName), content);
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot open message trace "
+                                       + fileName, ex);
+        }
+    }
+
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        Object[] parameters = record.getParameters();
+        if (parameters == null || parameters.length != 1
+            || !(parameters[0] instanceof NekoMessageEvent))
+        {
+            return;
+        }
+        NekoMessageEvent event = (NekoMessageEvent) parameters[0];
+
+        double time;
+        int processId;
+        if (record instanceof NekoLogRecord) {
+            NekoLogRecord r2 = (NekoLogRecord) record;
+            time = r2.getTime();
+            processId = r2.getProcessId();
+        } else {
+            time = record.getMillis();
+            processId = Integer.MIN_VALUE;
+        }
+
+        try {
+            writer.write(time, processId, event.getEventName(),
+                         event.getMessage());
+        } catch (IOException ex) {
+            reportError(null, ex, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    public void flush() {
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            reportError(null, ex, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException ex) {
+            reportError(null, ex, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+}
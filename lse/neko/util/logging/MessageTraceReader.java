@@ -0,0 +1,360 @@
+package lse.neko.util.logging;
+
+// java imports:
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+// lse.neko imports:
+import lse.neko.util.ProcessSets;
+
+
+/**
+ * Reads a binary message trace. The trace file is memory mapped one
+ * window at a time. After <code>next</code> returns
+ * <code>true</code>, the getters return the fields of the record read.
+ * <p>
+ * The <code>main</code> method converts a trace to the text format of
+ * the <code>messages</code> logger, as written by
+ * <code>NekoLongFormatter</code>.
+ *
+ * @see MessageTrace
+ */
+public class MessageTraceReader {
+
+    /**
+     * Size of the memory mapped windows, a multiple of the record size.
+     */
+    private static final int WINDOW_SIZE =
+        MessageTrace.RECORD_SIZE * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private MappedByteBuffer window = null;
+
+    /**
+     * Index of the first record of the window.
+     */
+    private long windowStart = 0;
+
+    /**
+     * Number of records in the window.
+     */
+    private int windowCount = 0;
+
+    /**
+     * Number of records in the trace.
+     */
+    private long count;
+
+    /**
+     * Index of the next record to read.
+     */
+    private long position = 0;
+
+    private final RandomAccessFile namesFile;
+    private final List names = new ArrayList();
+
+    // fields of the current record
+    private double time;
+    private int event;
+    private int flags;
+    private int processId;
+    private int source;
+    private int type;
+    private int protocolId;
+    private int content;
+    private long destinations;
+
+    /**
+     * Returns <code>true</code> if the file starts
+     * like a message trace.
+     */
+    public static boolean isTrace(File file) {
+        try {
+            RandomAccessFile f = new RandomAccessFile(file, "r");
+            try {
+                return f.length() >= MessageTrace.HEADER_SIZE
+                    && f.readInt() == MessageTrace.MAGIC;
+            } finally {
+                f.close();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    public MessageTraceReader(File traceFile) throws IOException {
+        file = new RandomAccessFile(traceFile, "r");
+        channel = file.getChannel();
+        if (file.length() < MessageTrace.HEADER_SIZE
+            || file.readInt() != MessageTrace.MAGIC)
+        {
+            file.close();
+            throw new IOException(traceFile + " is not a message trace");
+        }
+        int version = file.readInt();
+        int recordSize = file.readInt();
+        if (version != MessageTrace.VERSION
+            || recordSize != MessageTrace.RECORD_SIZE)
+        {
+            file.close();
+            throw new IOException("Unsupported message trace version "
+                                  + version + " in " + traceFile);
+        }
+        namesFile = new RandomAccessFile(traceFile.getPath()
+                                         + MessageTrace.NAMES_SUFFIX, "r");
+        refresh();
+    }
+
+    /**
+     * Reads the number of records and the names again, to
+     * see records appended since the trace was opened.
+     *
+     * @return the number of records in the trace.
+     */
+    public long refresh() throws IOException {
+        file.seek(MessageTrace.COUNT_OFFSET);
+        long newCount = file.readLong();
+        long maxCount = (file.length() - MessageTrace.HEADER_SIZE)
+            / MessageTrace.RECORD_SIZE;
+        // the names used by the records counted are written before
+        // the count, so read them after the count
+        readNames();
+        count = Math.min(newCount, maxCount);
+        return count;
+    }
+
+    private void readNames() throws IOException {
+        long start = namesFile.getFilePointer();
+        int length = (int) (namesFile.length() - start);
+        if (length <= 0) {
+            return;
+        }
+        byte[] bytes = new byte[length];
+        namesFile.readFully(bytes);
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(bytes));
+        int consumed = 0;
+        try {
+            while (true) {
+                int index = in.readInt();
+                String name = in.readUTF();
+                if (index != names.size()) {
+                    throw new IOException("Corrupted names file: "
+                                          + "name index " + index);
+                }
+                names.add(name);
+                consumed = length - in.available();
+            }
+        } catch (EOFException ex) {
+            // the last entry may be incomplete if the trace is
+            // being written: read it again next time
+        }
+        namesFile.seek(start + consumed);
+    }
+
+    /**
+     * Returns the number of records in the trace.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the index of the next record to read.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Sets the index of the next record to read.
+     */
+    public void seek(long index) {
+        if (index < 0 || index > count) {
+            throw new IllegalArgumentException("Invalid record index "
+                                               + index);
+        }
+        position = index;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return <code>false</code> if there are no more records.
+     */
+    public boolean next() throws IOException {
+        if (position >= count) {
+            return false;
+        }
+        if (window == null
+            || position < windowStart
+            || position >= windowStart + windowCount)
+        {
+            windowStart = position;
+            long size = Math.min((long) WINDOW_SIZE,
+                                 (count - position)
+                                 * MessageTrace.RECORD_SIZE);
+            window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                 MessageTrace.HEADER_SIZE
+                                 + position * MessageTrace.RECORD_SIZE,
+                                 size);
+            windowCount = (int) (size / MessageTrace.RECORD_SIZE);
+        }
+        window.position((int) (position - windowStart)
+                        * MessageTrace.RECORD_SIZE);
+        time = window.getDouble();
+        event = window.getShort();
+        flags = window.getShort();
+        processId = window.getInt();
+        source = window.getInt();
+        type = window.getInt();
+        protocolId = window.getInt();
+        content = window.getInt();
+        destinations = window.getLong();
+        position++;
+        return true;
+    }
+
+    private String getName(int index) {
+        if (index < 0 || index >= names.size()) {
+            throw new IllegalStateException("Unknown name index " + index);
+        }
+        return (String) names.get(index);
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public String getEventName() {
+        return getName(event);
+    }
+
+    /**
+     * Returns the ID of the process that logged the event,
+     * <code>Integer.MIN_VALUE</code> if unknown.
+     */
+    public int getProcessId() {
+        return processId;
+    }
+
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the destinations of the message, in the order given by
+     * the sender if there are more than 64 processes and in increasing
+     * order otherwise. The array must not be modified.
+     */
+    public int[] getDestinations() {
+        if ((flags & MessageTrace.DESTINATION_LIST) == 0) {
+            return ProcessSets.fromMask(destinations);
+        }
+        StringTokenizer st =
+            new StringTokenizer(getName((int) destinations), ",");
+        int[] to = new int[st.countTokens()];
+        for (int i = 0; i < to.length; i++) {
+            to[i] = Integer.parseInt(st.nextToken().substring(1));
+        }
+        return to;
+    }
+
+    public String getTypeName() {
+        return getName(type);
+    }
+
+    public String getProtocolId() {
+        return getName(protocolId);
+    }
+
+    /**
+     * Returns the content of the message, converted to a string,
+     * or <code>null</code> if the content is not recorded.
+     */
+    public String getContent() {
+        return (content == MessageTrace.NO_NAME) ? null : getName(content);
+    }
+
+    private static final String UNKNOWN = "???";
+
+    private final MessageFormat lineFormat =
+        new MessageFormat("{0,number,0.000} {1} messages {2}");
+
+    /**
+     * Returns the current record as a line of the text log,
+     * without the line separator.
+     */
+    public String getLogLine() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("e ");
+        sb.append(getEventName());
+        sb.append(" p");
+        sb.append(source);
+        int[] to = getDestinations();
+        for (int i = 0; i < to.length; i++) {
+            sb.append((i > 0) ? ",p" : " p");
+            sb.append(to[i]);
+        }
+        sb.append(" ");
+        sb.append(getTypeName());
+        String c = getContent();
+        if (c != null) {
+            sb.append(" ");
+            sb.append(c);
+        }
+        String process =
+            (processId != Integer.MIN_VALUE) ? "p" + processId : UNKNOWN;
+        return lineFormat.format(new Object[] {
+            new Double(time), process, sb.toString()
+        });
+    }
+
+    public void close() throws IOException {
+        window = null;
+        namesFile.close();
+        file.close();
+    }
+
+    /**
+     * Converts a message trace to text.
+     * Usage: <code>MessageTraceReader trace [output]</code>.
+     * The output goes to the standard output if no output file is given.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java "
+                               + MessageTraceReader.class.getName()
+                               + " trace [output]");
+            System.exit(2);
+        }
+        MessageTraceReader reader = new MessageTraceReader(new File(args[0]));
+        Writer out = new BufferedWriter((args.length > 1)
+                                        ? (Writer) new FileWriter(args[1])
+                                        : new OutputStreamWriter(System.out),
+                                        64 * 1024);
+        while (reader.next()) {
+            out.write(reader.getLogLine());
+            out.write("\n");
+        }
+        out.close();
+        reader.close();
+    }
+
+}
@@ -0,0 +1,307 @@
+package lse.neko.util.logging;
+
+// java imports:
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+// lse.neko imports:
+import lse.neko.MessageTypes;
+import lse.neko.NekoMessage;
+import lse.neko.util.Util;
+
+
+/**
+ * Appends message events to a binary message trace.
+ * Records are written into a memory mapped region of the trace file,
+ * which is extended one region at a time.
+ * The number of records in the header is updated every
+ * {@link #PUBLISH_RECORDS} records or {@link #PUBLISH_MILLIS}
+ * milliseconds, and by <code>flush</code>, always after the names used
+ * by the records are written, so readers never see a record whose
+ * names are missing.
+ *
+ * @see MessageTrace
+ */
+public class MessageTraceWriter {
+
+    /**
+     * Size of the memory mapped regions, a multiple of the record size.
+     */
+    private static final int REGION_SIZE =
+        MessageTrace.RECORD_SIZE * 256 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private MappedByteBuffer region;
+
+    /**
+     * Offset of the current region in the file.
+     */
+    private long regionOffset;
+
+    private long count = 0;
+
+    /**
+     * Records published after this many new records.
+     */
+    public static final int PUBLISH_RECORDS = 4096;
+
+    /**
+     * Records published after this many milliseconds, when
+     * the next record is written.
+     */
+    public static final long PUBLISH_MILLIS = 200;
+
+    /**
+     * Number of records in the header.
+     */
+    private long publishedCount = 0;
+
+    private long publishedMillis = System.currentTimeMillis();
+
+    private final DataOutputStream names;
+    private final Map nameToIndex = new HashMap();
+    private int nextName = 0;
+
+    private final boolean recordContent;
+
+    private boolean closed = false;
+
+    /**
+     * Creates a new trace, overwriting existing files.
+     *
+     * @param recordContent whether the content of the messages,
+     * converted to strings, is recorded. This makes the trace
+     * much larger and slower to write.
+     */
+    public MessageTraceWriter(File traceFile, boolean recordContent)
+        throws IOException
+    {
+        this.recordContent = recordContent;
+        names = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(traceFile.getPath()
+                                 + MessageTrace.NAMES_SUFFIX)));
+        file = new RandomAccessFile(traceFile, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        header = channel.map(FileChannel.MapMode.READ_WRITE,
+                             0, MessageTrace.HEADER_SIZE);
+        header.putInt(MessageTrace.MAGIC);
+        header.putInt(MessageTrace.VERSION);
+        header.putInt(MessageTrace.RECORD_SIZE);
+        header.putInt(0);
+        header.putLong(0);
+        header.putLong(0);
+        regionOffset = MessageTrace.HEADER_SIZE;
+        region = channel.map(FileChannel.MapMode.READ_WRITE,
+                             regionOffset, REGION_SIZE);
+
+        // event names are stored in shorts: give the usual ones
+        // the first indexes
+        for (int i = 0; i < EVENT_NAMES.length; i++) {
+            nameIndex(EVENT_NAMES[i]);
+        }
+    }
+
+    private static final String[] EVENT_NAMES = { "s", "sf", "r", "rf" };
+
+    private int nameIndex(String name) throws IOException {
+        Integer index = (Integer) nameToIndex.get(name);
+        if (index != null) {
+            return index.intValue();
+        }
+        int i = newName(name);
+        nameToIndex.put(name, new Integer(i));
+        return i;
+    }
+
+    private int newName(String name) throws IOException {
+        // checked before anything is written, so that a failure
+        // cannot leave half an entry in the names file
+        name = truncate(name);
+        int i = nextName;
+        nextName++;
+        names.writeInt(i);
+        names.writeUTF(name);
+        return i;
+    }
+
+    /**
+     * Longest name, in bytes of modified UTF-8, that
+     * <code>DataOutput.writeUTF</code> accepts.
+     */
+    private static final int MAX_UTF_LENGTH = 65535;
+
+    private static final String TRUNCATED = "...";
+
+    /**
+     * Returns <code>name</code>, cut so that <code>writeUTF</code>
+     * accepts it. Long contents are recorded truncated.
+     */
+    private static String truncate(String name) {
+        if (name.length() <= MAX_UTF_LENGTH / 3
+            || utfLength(name, name.length()) <= MAX_UTF_LENGTH)
+        {
+            return name;
+        }
+        int limit = MAX_UTF_LENGTH - TRUNCATED.length();
+        int end = 0;
+        int length = 0;
+        while (length + utfLength(name.charAt(end)) <= limit) {
+            length += utfLength(name.charAt(end));
+            end++;
+        }
+        return name.substring(0, end) + TRUNCATED;
+    }
+
+    /**
+     * Returns the length in bytes of modified UTF-8 of the first
+     * <code>end</code> characters of <code>s</code>.
+     */
+    private static int utfLength(String s, int end) {
+        int length = 0;
+        for (int i = 0; i < end; i++) {
+            length += utfLength(s.charAt(i));
+        }
+        return length;
+    }
+
+    private static int utfLength(char c) {
+        if (c >= 0x0001 && c <= 0x007f) {
+            return 1;
+        } else if (c <= 0x07ff) {
+            return 2;
+        } else {
+            return 3;
+        }
+    }
+
+    /**
+     * Appends the event <code>eventName</code> of message
+     * <code>m</code>.
+     *
+     * @param time the Neko time of the event.
+     * @param processId the ID of the process that logs the event,
+     * or <code>Integer.MIN_VALUE</code>.
+     */
+    public synchronized void write(double time, int processId,
+                                   String eventName, NekoMessage m)
+        throws IOException
+    {
+        if (closed) {
+            throw new IOException("Trace closed");
+        }
+        int flags = 0;
+        long destinations = 0;
+        int[] to = m.getDestinations();
+        for (int i = 0; i < to.length; i++) {
+            if (to[i] < 0 || to[i] > MessageTrace.MAX_BITSET_PROCESS) {
+                flags |= MessageTrace.DESTINATION_LIST;
+                break;
+            }
+            destinations |= 1L << to[i];
+        }
+        if ((flags & MessageTrace.DESTINATION_LIST) != 0) {
+            StringBuffer sb = new StringBuffer();
+            for (int i = 0; i < to.length; i++) {
+                sb.append((i > 0) ? ",p" : "p");
+                sb.append(to[i]);
+            }
+            destinations = nameIndex(sb.toString());
+        }
+        int event = nameIndex(eventName);
+        if (event > Short.MAX_VALUE) {
+            throw new IOException("Too many names for the event "
+                                  + eventName);
+        }
+        int type = nameIndex(MessageTypes.instance().getName(m.getType()));
+        int protocol = nameIndex(String.valueOf(m.getProtocolId()));
+        int content = recordContent
+            ? newName(Util.toString(m.getContent()))
+            : MessageTrace.NO_NAME;
+
+        if (!region.hasRemaining()) {
+            regionOffset += REGION_SIZE;
+            region = channel.map(FileChannel.MapMode.READ_WRITE,
+                                 regionOffset, REGION_SIZE);
+        }
+        region.putDouble(time);
+        region.putShort((short) event);
+        region.putShort((short) flags);
+        region.putInt(processId);
+        region.putInt(m.getSource());
+        region.putInt(type);
+        region.putInt(protocol);
+        region.putInt(content);
+        region.putLong(destinations);
+        count++;
+        if (count - publishedCount >= PUBLISH_RECORDS
+            || System.currentTimeMillis() - publishedMillis
+               >= PUBLISH_MILLIS)
+        {
+            publish();
+        }
+    }
+
+    /**
+     * Makes the records written so far visible to readers.
+     */
+    private void publish() throws IOException {
+        // the names must be readable before the records that use them
+        names.flush();
+        header.putLong(MessageTrace.COUNT_OFFSET, count);
+        publishedCount = count;
+        publishedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the number of records written so far.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Writes the records to the disk, and makes them visible
+     * to readers.
+     */
+    public synchronized void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        region.force();
+        publish();
+        header.force();
+    }
+
+    /**
+     * Closes the trace, truncating the trace file
+     * after the last record.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        names.close();
+        try {
+            channel.truncate(MessageTrace.HEADER_SIZE
+                             + count * MessageTrace.RECORD_SIZE);
+        } catch (IOException ex) {
+            // some platforms cannot truncate mapped files;
+            // readers rely on the number of records in the header
+        }
+        file.close();
+    }
+
+}
@@ -64,8 +64,8 @@ public class SystemOutHandler extends StreamHandler {
 
     // If the property is not defined we return the given
     // default value.
-    private static String getStringProperty(LogManager manager,
-                                            String name, String defaultValue)
+    static String getStringProperty(LogManager manager,
+                                    String name, String defaultValue)
     {
         String val = manager.getProperty(name);
         if (val == null) {
@@ -76,8 +76,8 @@ public class SystemOutHandler extends StreamHandler {
 
     // If the property is not defined or cannot be parsed
     // we return the given default value.
-    private static Level getLevelProperty(LogManager manager,
-                                          String name, Level defaultValue)
+    static Level getLevelProperty(LogManager manager,
+                                  String name, Level defaultValue)
     {
         String val = manager.getProperty(name);
         if (val == null) {
@@ -93,8 +93,8 @@ public class SystemOutHandler extends StreamHandler {
     // We return an instance of the class named by the "name"
     // property. If the property is not defined or has problems
     // we return the defaultValue.
-    private static Filter getFilterProperty(LogManager manager,
-                                            String name, Filter defaultValue)
+    static Filter getFilterProperty(LogManager manager,
+                                    String name, Filter defaultValue)
     {
         String val = manager.getProperty(name);
         try {
@@ -116,9 +116,9 @@ public class SystemOutHandler extends StreamHandler {
     // We return an instance of the class named by the "name"
     // property. If the property is not defined or has problems
     // we return the defaultValue.
-    private static Formatter getFormatterProperty(LogManager manager,
-                                                  String name,
-                                                  Formatter defaultValue)
+    static Formatter getFormatterProperty(LogManager manager,
+                                          String name,
+                                          Formatter defaultValue)
     {
         String val = manager.getProperty(name);
         try {